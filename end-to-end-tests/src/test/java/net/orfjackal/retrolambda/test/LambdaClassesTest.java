@@ -17,11 +17,14 @@ import java.util.*;
 import static net.orfjackal.retrolambda.test.TestUtil.assertClassExists;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.Assume.assumeFalse;
 
 public class LambdaClassesTest {
 
     @Test
     public void the_sequence_number_starts_from_1_for_each_enclosing_class() {
+        assumeFalse("grouped lambdas share their lambda class", TestEnv.groupLambdas);
+
         assertClassExists(Dummy1.class.getName() + "$$Lambda$1");
         assertClassExists(Dummy1.class.getName() + "$$Lambda$2");
         assertClassExists(Dummy2.class.getName() + "$$Lambda$1");
@@ -51,6 +54,8 @@ public class LambdaClassesTest {
 
     @Test
     public void capturing_lambda_classes_contain_no_unnecessary_methods() throws ClassNotFoundException {
+        assumeFalse("inlined lambdas have no factory methods", TestEnv.inlineLambdaFactories);
+
         assertThat(getMethodNames(findLambdaClass(Capturing.class)),
                 is(ImmutableSet.of("lambdaFactory$", "run")));
     }
@@ -65,6 +70,8 @@ public class LambdaClassesTest {
 
     @Test
     public void non_capturing_lambda_classes_contain_no_unnecessary_methods() throws ClassNotFoundException {
+        assumeFalse("inlined lambdas have no factory methods", TestEnv.inlineLambdaFactories);
+
         assertThat(getMethodNames(findLambdaClass(NonCapturing.class)),
                 is(ImmutableSet.of("lambdaFactory$", "run")));
     }
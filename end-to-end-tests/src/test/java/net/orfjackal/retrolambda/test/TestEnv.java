@@ -10,6 +10,8 @@ import java.util.Properties;
 public class TestEnv {
 
     public static final File testClassesDir;
+    public static final boolean groupLambdas;
+    public static final boolean inlineLambdaFactories;
 
     static {
         Properties p = new Properties();
@@ -19,5 +21,7 @@ public class TestEnv {
             throw new RuntimeException(e);
         }
         testClassesDir = new File(p.getProperty("testClassesDir"));
+        groupLambdas = Boolean.parseBoolean(p.getProperty("groupLambdas"));
+        inlineLambdaFactories = Boolean.parseBoolean(p.getProperty("inlineLambdaFactories"));
     }
 }
@@ -0,0 +1,113 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.api;
+
+import java.io.*;
+import java.util.Properties;
+
+/**
+ * The protocol between a Retrolambda daemon and its clients. The client sends
+ * the same configuration properties as when running Retrolambda normally, and
+ * the daemon responds with the log messages and finally whether it succeeded.
+ * Each message is a type byte followed by the length and bytes of a UTF-8 string.
+ * <p>
+ * The daemon accepts only the clients which know its secret token. The token is
+ * in a file which only the user who started the daemon can read, and the client
+ * sends it together with the configuration.
+ */
+public class DaemonProtocol {
+
+    public static final int DEFAULT_PORT = 17830;
+
+    public static final byte CONFIG = 'C';
+    public static final byte LOG = 'L';
+    public static final byte SUCCESS = 'S';
+    public static final byte FAILURE = 'F';
+
+    /**
+     * The configuration property which holds the daemon's secret token.
+     */
+    public static final String TOKEN = "retrolambda.daemonToken";
+
+    /**
+     * Limits the memory which a bogus message can make the reader allocate.
+     * The configuration may contain a long classpath, so this is not very small.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 16 * 1024 * 1024;
+
+    private static final String CHARSET = "UTF-8";
+
+    public static File getDefaultTokenDir() {
+        return new File(System.getProperty("user.home"), ".retrolambda");
+    }
+
+    public static File getTokenFile(File tokenDir, int port) {
+        return new File(tokenDir, "daemon-" + port + ".token");
+    }
+
+    public static String readToken(File tokenFile) throws IOException {
+        InputStream in = new FileInputStream(tokenFile);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[256];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bytes.write(buf, 0, n);
+            }
+            return new String(bytes.toByteArray(), CHARSET).trim();
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void writeMessage(DataOutputStream out, byte type, String content) throws IOException {
+        byte[] bytes = content.getBytes(CHARSET);
+        out.writeByte(type);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    public static Message readMessage(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_MESSAGE_LENGTH) {
+            throw new IOException("Invalid message length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new Message(type, new String(bytes, CHARSET));
+    }
+
+    public static void writeConfig(DataOutputStream out, Properties config, String token) throws IOException {
+        Properties withToken = new Properties();
+        withToken.putAll(config);
+        withToken.setProperty(TOKEN, token);
+        StringWriter content = new StringWriter();
+        withToken.store(content, null);
+        writeMessage(out, CONFIG, content.toString());
+    }
+
+    public static Properties readConfig(DataInputStream in) throws IOException {
+        Message message = readMessage(in);
+        if (message.type != CONFIG) {
+            throw new IOException("Expected a configuration, but got a message of type " + (char) message.type);
+        }
+        Properties config = new Properties();
+        config.load(new StringReader(message.content));
+        return config;
+    }
+
+
+    public static class Message {
+        public final byte type;
+        public final String content;
+
+        public Message(byte type, String content) {
+            this.type = type;
+            this.content = content;
+        }
+    }
+}
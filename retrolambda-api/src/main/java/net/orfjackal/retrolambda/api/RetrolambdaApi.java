@@ -10,6 +10,7 @@ public class RetrolambdaApi {
     public static final String QUIET = PREFIX + "quiet";
     public static final String INCLUDED_FILES = PREFIX + "includedFiles";
     public static final String INCLUDED_FILES_FILE = INCLUDED_FILES + "File";
+    public static final String INCREMENTAL_CACHE_DIR = PREFIX + "incrementalCacheDir";
     public static final String CLASSPATH = PREFIX + "classpath";
     public static final String CLASSPATH_FILE = CLASSPATH + "File";
     public static final String OUTPUT_DIR = PREFIX + "outputDir";
@@ -17,4 +18,16 @@ public class RetrolambdaApi {
     public static final String DEFAULT_METHODS = PREFIX + "defaultMethods";
     public static final String BYTECODE_VERSION = PREFIX + "bytecodeVersion";
     public static final String JAVAC_HACKS = PREFIX + "javacHacks";
+    public static final String THREADS = PREFIX + "threads";
+    public static final String WRITER_THREADS = PREFIX + "writerThreads";
+    public static final String LOW_MEMORY = PREFIX + "lowMemory";
+    public static final String GENERATE_LAMBDA_CLASSES = PREFIX + "generateLambdaClasses";
+    public static final String DEDUPLICATE_LAMBDAS = PREFIX + "deduplicateLambdas";
+    public static final String GROUP_LAMBDAS = PREFIX + "groupLambdas";
+    public static final String INLINE_LAMBDA_FACTORIES = PREFIX + "inlineLambdaFactories";
+    public static final String HASH_LAMBDA_NAMES = PREFIX + "hashLambdaNames";
+    public static final String SKIP_UNCHANGED_FILES = PREFIX + "skipUnchangedFiles";
+    public static final String MULTI_RELEASE_VERSION = PREFIX + "multiReleaseVersion";
+    public static final String METRICS_FILE = PREFIX + "metricsFile";
+    public static final String DAEMON_PORT = PREFIX + "daemonPort";
 }
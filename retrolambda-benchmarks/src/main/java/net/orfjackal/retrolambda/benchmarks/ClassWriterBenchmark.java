@@ -0,0 +1,83 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.benchmarks;
+
+import net.orfjackal.retrolambda.*;
+import net.orfjackal.retrolambda.interfaces.FixInvokeStaticOnInterfaceMethod;
+import net.orfjackal.retrolambda.lambdas.UpdateRenamedEnclosingMethods;
+import org.objectweb.asm.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of writing a class which the transformations don't change.
+ * To use the end-to-end tests as the fixtures, compile them with Java 8 and give
+ * their directory as a parameter: {@code -p fixtures=end-to-end-tests/target/classes}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassWriterBenchmark {
+
+    private static final int TARGET_VERSION = Opcodes.V1_7;
+
+    @Param({FixtureSet.LAMBDAS, FixtureSet.DEFAULT_METHODS, FixtureSet.SYNTHETIC})
+    public String fixtures;
+
+    private List<ClassReader> classes;
+    private ClassAnalyzer analyzer;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        FixtureSet fixtureSet = FixtureSet.load(fixtures);
+        analyzer = new ClassAnalyzer();
+        classes = new ArrayList<>();
+        for (byte[] bytecode : fixtureSet.getBytecode()) {
+            ClassReader cr = new ClassReader(bytecode);
+            analyzer.analyze(cr);
+            classes.add(cr);
+        }
+    }
+
+    /**
+     * All methods are visited, so the constant pool is rebuilt and maxs are recomputed.
+     */
+    @Benchmark
+    public byte[] rebuildConstantPool() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor next = writer;
+        next = new LowerBytecodeVersion(next, TARGET_VERSION);
+        next = new FixInvokeStaticOnInterfaceMethod(next);
+        next = new UpdateRenamedEnclosingMethods(next, analyzer);
+        nextClass().accept(next, 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * No methods are visited, so they are copied together with the constant pool.
+     */
+    @Benchmark
+    public byte[] copyConstantPool() {
+        ClassReader reader = nextClass();
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        ClassVisitor next = writer;
+        next = new LowerBytecodeVersion(next, TARGET_VERSION);
+        next = new UpdateRenamedEnclosingMethods(next, analyzer);
+        reader.accept(next, 0);
+        return writer.toByteArray();
+    }
+
+    private ClassReader nextClass() {
+        ClassReader cr = classes.get(next);
+        next = (next + 1) % classes.size();
+        return cr;
+    }
+}
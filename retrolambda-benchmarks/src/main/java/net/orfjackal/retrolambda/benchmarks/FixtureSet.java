@@ -0,0 +1,131 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.benchmarks;
+
+import net.orfjackal.retrolambda.NonDelegatingClassLoader;
+import net.orfjackal.retrolambda.benchmarks.fixtures.*;
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * The original Java 8 bytecode of the classes in the fixtures package,
+ * which can be loaded (for calling the lambda metafactory) without them
+ * being on the classpath. Any other directory or JAR file of Java 8 classes,
+ * such as the compiled end-to-end tests, can be given instead of a named set.
+ */
+public class FixtureSet {
+
+    public static final String LAMBDAS = "lambdas";
+    public static final String DEFAULT_METHODS = "defaultMethods";
+    public static final String SYNTHETIC = "synthetic";
+
+    /**
+     * How many renamed copies of all the fixtures the synthetic set contains.
+     */
+    public static final int SYNTHETIC_COPIES = 50;
+
+    private static final String FIXTURES_PACKAGE = Type.getInternalName(LambdaHeavy.class)
+            .substring(0, Type.getInternalName(LambdaHeavy.class).lastIndexOf('/') + 1);
+
+    private final Map<String, byte[]> classes;
+
+    private FixtureSet(Map<String, byte[]> classes) {
+        this.classes = classes;
+    }
+
+    public static FixtureSet load(String name) throws IOException {
+        Map<String, byte[]> fixtures = readFixtures();
+        switch (name) {
+            case LAMBDAS:
+                return new FixtureSet(withPrefix(fixtures, Type.getInternalName(LambdaHeavy.class)));
+            case DEFAULT_METHODS:
+                return new FixtureSet(withPrefix(fixtures, Type.getInternalName(DefaultMethodHierarchy.class)));
+            case SYNTHETIC:
+                return new FixtureSet(copies(fixtures, SYNTHETIC_COPIES));
+            default:
+                Path path = Paths.get(name);
+                if (!Files.exists(path)) {
+                    throw new IllegalArgumentException("Unknown fixture set: " + name);
+                }
+                return new FixtureSet(readClasses(path, ""));
+        }
+    }
+
+    public Collection<byte[]> getBytecode() {
+        return classes.values();
+    }
+
+    public ClassLoader newClassLoader() {
+        return new NonDelegatingClassLoader(new URL[0], classes::get);
+    }
+
+    private static Map<String, byte[]> readFixtures() throws IOException {
+        Path location;
+        try {
+            location = Paths.get(FixtureSet.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        return readClasses(location, FIXTURES_PACKAGE);
+    }
+
+    private static Map<String, byte[]> readClasses(Path location, String packagePath) throws IOException {
+        if (Files.isDirectory(location)) {
+            return readClasses(location.resolve(packagePath));
+        }
+        try (FileSystem jar = FileSystems.newFileSystem(location, null)) {
+            return readClasses(jar.getPath("/" + packagePath));
+        }
+    }
+
+    private static Map<String, byte[]> readClasses(Path dir) throws IOException {
+        Map<String, byte[]> results = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList())) {
+                byte[] bytecode = Files.readAllBytes(file);
+                results.put(new ClassReader(bytecode).getClassName(), bytecode);
+            }
+        }
+        return results;
+    }
+
+    private static Map<String, byte[]> withPrefix(Map<String, byte[]> classes, String prefix) {
+        Map<String, byte[]> results = new TreeMap<>();
+        classes.forEach((className, bytecode) -> {
+            if (className.startsWith(prefix)) {
+                results.put(className, bytecode);
+            }
+        });
+        return results;
+    }
+
+    private static Map<String, byte[]> copies(Map<String, byte[]> classes, int count) {
+        Map<String, byte[]> results = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            String packageName = FIXTURES_PACKAGE + "copy" + i + "/";
+            Remapper remapper = new Remapper() {
+                @Override
+                public String map(String internalName) {
+                    if (classes.containsKey(internalName)) {
+                        return packageName + internalName.substring(FIXTURES_PACKAGE.length());
+                    }
+                    return internalName;
+                }
+            };
+            classes.forEach((className, bytecode) -> {
+                ClassWriter cw = new ClassWriter(0);
+                new ClassReader(bytecode).accept(new ClassRemapper(cw, remapper), 0);
+                results.put(remapper.map(className), cw.toByteArray());
+            });
+        }
+        return results;
+    }
+}
@@ -0,0 +1,103 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.benchmarks;
+
+import com.esotericsoftware.minlog.Log;
+import net.orfjackal.retrolambda.*;
+import net.orfjackal.retrolambda.files.OutputDirectory;
+import net.orfjackal.retrolambda.interfaces.ClassInfo;
+import net.orfjackal.retrolambda.lambdas.*;
+import org.objectweb.asm.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the output of generating one lambda class per lambda expression
+ * and of grouping the lambdas of a class by their functional interface.
+ * The size of the output is printed during the setup, and the score is the
+ * time it takes for a new class loader to load and initialize all the lambda
+ * classes, which approximates the startup cost of the lambdas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class LambdaGroupingBenchmark {
+
+    private static final int TARGET_VERSION = Opcodes.V1_7;
+
+    @Param({FixtureSet.LAMBDAS, FixtureSet.SYNTHETIC})
+    public String fixtures;
+
+    @Param({"false", "true"})
+    public boolean groupLambdas;
+
+    private final Map<String, byte[]> output = new TreeMap<>();
+    private final List<String> lambdaClasses = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        Log.WARN();
+        FixtureSet fixtureSet = FixtureSet.load(fixtures);
+        Thread.currentThread().setContextClassLoader(fixtureSet.newClassLoader());
+
+        ClassAnalyzer analyzer = new ClassAnalyzer();
+        for (byte[] bytecode : fixtureSet.getBytecode()) {
+            analyzer.analyze(bytecode, false);
+        }
+        List<ClassInfo> interfaces = analyzer.getInterfaces();
+        List<ClassInfo> classes = analyzer.getClasses();
+
+        Transformers transformers = new Transformers(TARGET_VERSION, true, LambdaOptions.DEFAULTS.withGroupLambdas(groupLambdas), analyzer);
+        OutputDirectory collectOutput = new OutputDirectory(Paths.get("unused")) {
+            @Override
+            public void writeClass(byte[] bytecode, boolean isJavacHacksEnabled) {
+                output.put(new ClassReader(bytecode).getClassName(), bytecode);
+            }
+        };
+        transformers.setLambdaClassGenerator(new LambdaClassGenerator(new LambdaClassSaver(collectOutput, transformers, false)));
+        for (ClassInfo c : interfaces) {
+            for (byte[] bytecode : transformers.backportInterface(c.getReader())) {
+                collectOutput.writeClass(bytecode, false);
+            }
+        }
+        for (ClassInfo c : classes) {
+            for (byte[] bytecode : transformers.backportClass(c.getReader())) {
+                collectOutput.writeClass(bytecode, false);
+            }
+        }
+
+        int totalBytes = 0;
+        int lambdaBytes = 0;
+        for (Map.Entry<String, byte[]> entry : output.entrySet()) {
+            totalBytes += entry.getValue().length;
+            if (LambdaNaming.LAMBDA_CLASS.matcher(entry.getKey()).matches()) {
+                lambdaClasses.add(entry.getKey().replace('/', '.'));
+                lambdaBytes += entry.getValue().length;
+            }
+        }
+        System.out.println();
+        System.out.println("Output with groupLambdas=" + groupLambdas + ": "
+                + output.size() + " classes (" + totalBytes + " bytes), of which "
+                + lambdaClasses.size() + " lambda classes (" + lambdaBytes + " bytes)");
+    }
+
+    @Benchmark
+    public int loadLambdaClasses() throws Exception {
+        ClassLoader loader = new NonDelegatingClassLoader(new URL[0], output::get);
+        int count = 0;
+        for (String lambdaClass : lambdaClasses) {
+            Class.forName(lambdaClass, true, loader);
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,147 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.benchmarks;
+
+import com.esotericsoftware.minlog.Log;
+import net.orfjackal.retrolambda.*;
+import net.orfjackal.retrolambda.files.OutputDirectory;
+import net.orfjackal.retrolambda.interfaces.*;
+import net.orfjackal.retrolambda.lambdas.*;
+import org.objectweb.asm.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transformations one class at a time, so the scores are per class.
+ * Run with {@code -prof gc} to see also the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    private static final int TARGET_VERSION = Opcodes.V1_7;
+
+    @Param({FixtureSet.LAMBDAS, FixtureSet.DEFAULT_METHODS, FixtureSet.SYNTHETIC})
+    public String fixtures;
+
+    private List<ClassReader> allClasses;
+    private List<ClassReader> classes;
+    private List<ClassReader> interfaces;
+    private ClassAnalyzer analyzer;
+    private Transformers transformers;
+    private LambdaClassDumper dumper;
+    private int nextClass = 0;
+    private int nextInterface = 0;
+    private int nextAny = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        Log.WARN();
+        FixtureSet fixtureSet = FixtureSet.load(fixtures);
+        Thread.currentThread().setContextClassLoader(fixtureSet.newClassLoader());
+
+        analyzer = new ClassAnalyzer();
+        for (byte[] bytecode : fixtureSet.getBytecode()) {
+            analyzer.analyze(bytecode, false);
+        }
+        allClasses = new ArrayList<>();
+        classes = new ArrayList<>();
+        interfaces = new ArrayList<>();
+        for (ClassInfo c : analyzer.getClasses()) {
+            classes.add(c.getReader());
+            allClasses.add(c.getReader());
+        }
+        for (ClassInfo c : analyzer.getInterfaces()) {
+            interfaces.add(c.getReader());
+            allClasses.add(c.getReader());
+        }
+
+        transformers = new Transformers(TARGET_VERSION, true, LambdaOptions.DEFAULTS, analyzer);
+        OutputDirectory discardOutput = new OutputDirectory(Paths.get("unused")) {
+            @Override
+            public void writeClass(byte[] bytecode, boolean isJavacHacksEnabled) {
+            }
+        };
+        dumper = new LambdaClassDumper(new LambdaClassSaver(discardOutput, transformers, false));
+        dumper.install();
+    }
+
+    @TearDown
+    public void tearDown() {
+        dumper.uninstall();
+    }
+
+    @Benchmark
+    public ClassAnalyzer analyze() {
+        ClassAnalyzer analyzer = new ClassAnalyzer();
+        analyzer.analyze(nextAny());
+        return analyzer;
+    }
+
+    @Benchmark
+    public byte[] lowerBytecodeVersion() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor next = writer;
+        next = new LowerBytecodeVersion(next, TARGET_VERSION);
+        nextClass().accept(next, 0);
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] backportLambdaInvocations() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor next = writer;
+        next = new LowerBytecodeVersion(next, TARGET_VERSION);
+        next = new BackportLambdaInvocations(next, analyzer, LambdaOptions.DEFAULTS, null, null);
+        nextClass().accept(next, 0);
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] addMethodDefaultImplementations() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor next = writer;
+        next = new LowerBytecodeVersion(next, TARGET_VERSION);
+        next = new UpdateRelocatedMethodInvocations(next, analyzer);
+        next = new AddMethodDefaultImplementations(next, analyzer);
+        nextClass().accept(next, 0);
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public List<byte[]> backportClass() {
+        return transformers.backportClass(nextClass());
+    }
+
+    @Benchmark
+    public List<byte[]> backportInterface() {
+        return transformers.backportInterface(nextInterface());
+    }
+
+    private ClassReader nextAny() {
+        ClassReader cr = allClasses.get(nextAny);
+        nextAny = (nextAny + 1) % allClasses.size();
+        return cr;
+    }
+
+    private ClassReader nextClass() {
+        ClassReader cr = classes.get(nextClass);
+        nextClass = (nextClass + 1) % classes.size();
+        return cr;
+    }
+
+    private ClassReader nextInterface() {
+        ClassReader cr = interfaces.get(nextInterface);
+        nextInterface = (nextInterface + 1) % interfaces.size();
+        return cr;
+    }
+}
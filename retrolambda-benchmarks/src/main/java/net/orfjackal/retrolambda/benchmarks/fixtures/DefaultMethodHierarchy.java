@@ -0,0 +1,176 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.benchmarks.fixtures;
+
+/**
+ * Deep interface hierarchies with default methods, which are overridden at
+ * different levels and inherited through both interfaces and superclasses.
+ */
+@SuppressWarnings("unused")
+public class DefaultMethodHierarchy {
+
+    public interface Level1 {
+        default String level1() {
+            return "1";
+        }
+
+        default String name() {
+            return "Level1";
+        }
+
+        static String describe(Level1 obj) {
+            return obj.name() + obj.level1();
+        }
+    }
+
+    public interface Level2 extends Level1 {
+        default String level2() {
+            return level1() + "2";
+        }
+
+        @Override
+        default String name() {
+            return "Level2";
+        }
+    }
+
+    public interface Level3 extends Level2 {
+        default String level3() {
+            return level2() + "3";
+        }
+    }
+
+    public interface Level4 extends Level3 {
+        default String level4() {
+            return level3() + "4";
+        }
+
+        @Override
+        default String name() {
+            return "Level4";
+        }
+    }
+
+    public interface Level5 extends Level4 {
+        default String level5() {
+            return level4() + "5";
+        }
+    }
+
+    public interface Level6 extends Level5 {
+        default String level6() {
+            return level5() + "6";
+        }
+
+        @Override
+        default String level1() {
+            return "one";
+        }
+    }
+
+    public interface Level7 extends Level6 {
+        default String level7() {
+            return level6() + "7";
+        }
+    }
+
+    public interface Level8 extends Level7 {
+        default String level8() {
+            return level7() + "8";
+        }
+
+        @Override
+        default String name() {
+            return "Level8";
+        }
+    }
+
+    public interface Left extends Level4 {
+        default String left() {
+            return "left";
+        }
+    }
+
+    public interface Right extends Level4 {
+        default String right() {
+            return "right";
+        }
+
+        @Override
+        default String name() {
+            return "Right";
+        }
+    }
+
+    public interface Diamond extends Left, Right {
+        @Override
+        default String name() {
+            return Right.super.name() + left();
+        }
+    }
+
+    public interface Generic<T> {
+        T value();
+
+        default T orElse(T other) {
+            T value = value();
+            return value != null ? value : other;
+        }
+    }
+
+    public static class ImplementsLevel2 implements Level2 {
+    }
+
+    public static class ImplementsLevel5 implements Level5 {
+        @Override
+        public String level3() {
+            return "three";
+        }
+    }
+
+    public static class ImplementsLevel8 implements Level8 {
+    }
+
+    public static class ExtendsLevel2 extends ImplementsLevel2 implements Level6 {
+    }
+
+    public static class ExtendsLevel5 extends ImplementsLevel5 implements Level8 {
+        @Override
+        public String name() {
+            return "ExtendsLevel5";
+        }
+    }
+
+    public static class ExtendsExtendsLevel5 extends ExtendsLevel5 {
+    }
+
+    public static class ImplementsDiamond implements Diamond {
+    }
+
+    public static class ImplementsDiamondAndLevel8 implements Diamond, Level8 {
+        @Override
+        public String name() {
+            return Diamond.super.name() + Level8.super.name();
+        }
+    }
+
+    public static class StringValue implements Generic<String> {
+        @Override
+        public String value() {
+            return null;
+        }
+    }
+
+    public static abstract class AbstractBase implements Level3 {
+        public abstract String abstractMethod();
+    }
+
+    public static class ConcreteBase extends AbstractBase implements Level7 {
+        @Override
+        public String abstractMethod() {
+            return level7();
+        }
+    }
+}
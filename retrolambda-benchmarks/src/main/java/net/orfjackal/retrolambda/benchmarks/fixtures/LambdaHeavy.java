@@ -0,0 +1,166 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.benchmarks.fixtures;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * Classes which use lambda expressions and method references in all the
+ * ways which Retrolambda needs to handle.
+ */
+@SuppressWarnings({"unused", "Convert2MethodRef"})
+public class LambdaHeavy {
+
+    public static class Pipelines {
+
+        public List<String> names(List<Person> people) {
+            return people.stream()
+                    .filter(p -> p.age >= 18)
+                    .sorted(Comparator.comparing(p -> p.name))
+                    .map(p -> p.name.toUpperCase())
+                    .collect(Collectors.toList());
+        }
+
+        public Map<Integer, List<String>> byAge(List<Person> people) {
+            return people.stream()
+                    .collect(Collectors.groupingBy(p -> p.age,
+                            Collectors.mapping(p -> p.name, Collectors.toList())));
+        }
+
+        public int totalAge(List<Person> people) {
+            return people.stream()
+                    .mapToInt(p -> p.age)
+                    .reduce(0, (a, b) -> a + b);
+        }
+
+        public Optional<String> oldest(List<Person> people) {
+            return people.stream()
+                    .max((a, b) -> Integer.compare(a.age, b.age))
+                    .map(p -> p.name);
+        }
+
+        public String joined(List<Person> people) {
+            return people.stream()
+                    .map(p -> p.name)
+                    .filter(s -> !s.isEmpty())
+                    .collect(Collectors.joining(", ", "[", "]"));
+        }
+
+        public List<Integer> squares(int n) {
+            return IntStream.range(0, n)
+                    .map(i -> i * i)
+                    .boxed()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public static class Captures {
+
+        private final String prefix;
+        private int counter;
+
+        public Captures(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Supplier<String> capturesThis() {
+            return () -> prefix + counter++;
+        }
+
+        public Function<String, String> capturesLocal(String suffix) {
+            int length = suffix.length();
+            return s -> s + suffix + length;
+        }
+
+        public BiFunction<Integer, Long, Double> capturesPrimitives(int i, long l, double d) {
+            return (x, y) -> x * i + y * l + d;
+        }
+
+        public Runnable capturesArray(int[] values) {
+            return () -> values[0]++;
+        }
+
+        public Callable<Callable<String>> nested(String value) {
+            return () -> () -> prefix + value;
+        }
+
+        public Comparator<String> withLocalClass() {
+            class Length {
+                int of(String s) {
+                    return s.length();
+                }
+            }
+            Length length = new Length();
+            return (a, b) -> length.of(a) - length.of(b);
+        }
+    }
+
+    public static class MethodReferences {
+
+        private final List<String> items = new ArrayList<>();
+
+        public Function<String, Integer> staticMethod() {
+            return Integer::parseInt;
+        }
+
+        public Consumer<String> boundInstanceMethod() {
+            return items::add;
+        }
+
+        public Function<String, String> unboundInstanceMethod() {
+            return String::trim;
+        }
+
+        public Supplier<List<String>> constructor() {
+            return ArrayList::new;
+        }
+
+        public IntFunction<String[]> arrayConstructor() {
+            return String[]::new;
+        }
+
+        public Supplier<String> superMethod() {
+            return super::toString;
+        }
+
+        public Runnable privateMethod() {
+            return this::clear;
+        }
+
+        private void clear() {
+            items.clear();
+        }
+    }
+
+    public interface Callback {
+
+        void call(String value);
+
+        default Callback andThen(Callback next) {
+            return value -> {
+                call(value);
+                next.call(value);
+            };
+        }
+
+        static Callback noop() {
+            return value -> {
+            };
+        }
+    }
+
+    public static class Person {
+        public final String name;
+        public final int age;
+
+        public Person(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+    }
+}
@@ -7,16 +7,17 @@ package net.orfjackal.retrolambda.maven;
 import com.google.common.base.*;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
-import net.orfjackal.retrolambda.api.RetrolambdaApi;
+import net.orfjackal.retrolambda.api.*;
 import org.apache.commons.lang.SystemUtils;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.*;
 import org.apache.maven.plugins.annotations.*;
-import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.*;
 import org.apache.maven.toolchain.*;
 
 import java.io.*;
+import java.net.*;
 import java.util.*;
 
 import static org.twdata.maven.mojoexecutor.MojoExecutor.*;
@@ -36,6 +37,9 @@ abstract class ProcessClassesMojo extends AbstractMojo {
     @Component
     private BuildPluginManager pluginManager;
 
+    @Component
+    private MavenProjectHelper projectHelper;
+
     @Parameter(defaultValue = "${session}", readonly = true)
     private MavenSession session;
 
@@ -95,6 +99,96 @@ abstract class ProcessClassesMojo extends AbstractMojo {
     @Parameter(defaultValue = "false", property = "retrolambdaQuiet", required = true)
     public boolean quiet;
 
+    /**
+     * Number of threads to use for backporting classes in parallel.
+     * The output is the same regardless of this setting.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "1", property = "retrolambdaThreads", required = true)
+    public int threads;
+
+    /**
+     * Number of threads to use for writing the output files in the background,
+     * while the classes are being backported. Zero writes the files without
+     * background threads. The output is the same regardless of this setting.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "0", property = "retrolambdaWriterThreads", required = true)
+    public int writerThreads;
+
+    /**
+     * Whether to remember between builds what was backported, so that only
+     * the classes which have changed, or whose dependencies have changed,
+     * will be backported again. The cache is stored under
+     * {@code target/retrolambda/}.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaIncremental", required = true)
+    public boolean incremental;
+
+    /**
+     * Whether to keep only a summary of each class in memory and read the bytecode
+     * again from the disk when it's needed. Reduces the memory usage on big projects,
+     * at the cost of some speed.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaLowMemory", required = true)
+    public boolean lowMemory;
+
+    /**
+     * Whether to generate the lambda classes directly from the bytecode, instead of
+     * having Java 8's lambda metafactory generate them. Then the classes being
+     * backported don't need to be loaded.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaGenerateLambdaClasses", required = true)
+    public boolean generateLambdaClasses;
+
+    /**
+     * Whether to use the same lambda class for all the identical lambda expressions
+     * and method references in a class. Reduces the number of classes, but the
+     * lambda classes are then numbered differently.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaDeduplicateLambdas", required = true)
+    public boolean deduplicateLambdas;
+
+    /**
+     * Whether to generate only one lambda class for all the lambda expressions and
+     * method references in a class which implement the same functional interface.
+     * Reduces the number of classes, but the lambda classes are then numbered
+     * differently and the lambdas are called through a switch statement.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaGroupLambdas", required = true)
+    public boolean groupLambdas;
+
+    /**
+     * Whether to instantiate the lambda classes where the lambda expressions are,
+     * instead of calling a factory method in the lambda class. Reduces the number
+     * of methods, but the constructors of the lambda classes are then not private.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaInlineLambdaFactories", required = true)
+    public boolean inlineLambdaFactories;
+
+    /**
+     * Whether to append a hash of the lambda to the lambda class names, so that
+     * the name of a lambda class changes whenever the lambda changes.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaHashLambdaNames", required = true)
+    public boolean hashLambdaNames;
+
     /**
      * Forces Retrolambda to run in a separate process. The default is not to fork,
      * in which case Maven has to run under Java 8, or this plugin will fall back
@@ -107,6 +201,72 @@ abstract class ProcessClassesMojo extends AbstractMojo {
     @Parameter(defaultValue = "false")
     public boolean fork;
 
+    /**
+     * Whether to leave alone the output files which already have the same content,
+     * so that their modification times don't change and incremental tools which
+     * process the output don't redo their work.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaSkipUnchangedFiles", required = true)
+    public boolean skipUnchangedFiles;
+
+    /**
+     * Java version for a multi-release JAR file. If set, the original classes
+     * are written under {@code META-INF/versions/<version>}, where that Java
+     * version and newer will use them instead of the backported classes, and
+     * the JAR manifest is marked as multi-release. Must be 9 or higher.
+     * <p>
+     * When the output is a directory, the manifest written there is not used by
+     * the maven-jar-plugin, which generates its own manifest. Then the JAR must
+     * be marked as multi-release in the maven-jar-plugin's configuration:
+     * <pre>
+     * &lt;archive&gt;
+     *     &lt;manifestEntries&gt;
+     *         &lt;Multi-Release&gt;true&lt;/Multi-Release&gt;
+     *     &lt;/manifestEntries&gt;
+     * &lt;/archive&gt;
+     * </pre>
+     *
+     * @since 2.5.8
+     */
+    @Parameter(property = "retrolambdaMultiReleaseVersion")
+    public Integer multiReleaseVersion;
+
+    /**
+     * Whether to write the time spent in each phase of backporting and the number
+     * of classes, lambdas and bytes processed into a JSON file under
+     * {@code target/retrolambda/}. The file is attached to the build with the
+     * classifier {@code retrolambda-metrics-classes} or
+     * {@code retrolambda-metrics-test-classes}, so that it will be deployed
+     * together with the project's artifacts.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaMetrics", required = true)
+    public boolean metrics;
+
+    /**
+     * Whether to run Retrolambda in a daemon process, if one is listening on
+     * {@link #daemonPort}, to avoid the JVM startup and warm-up time. The daemon
+     * is started with {@code java -Dretrolambda.daemonPort=17830 -jar retrolambda.jar}
+     * and it's shared by all the builds of the same user. The daemon accepts only
+     * the clients which can read its token file in {@code ~/.retrolambda}.
+     * If the daemon is not running, falls back to the normal behavior.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaDaemon", required = true)
+    public boolean daemon;
+
+    /**
+     * The port of the loopback interface on which the Retrolambda daemon is listening.
+     *
+     * @since 2.5.8
+     */
+    @Parameter(defaultValue = "" + DaemonProtocol.DEFAULT_PORT, property = "retrolambdaDaemonPort", required = true)
+    public int daemonPort;
+
     protected abstract File getInputDir();
 
     protected abstract File getOutputDir();
@@ -126,7 +286,36 @@ abstract class ProcessClassesMojo extends AbstractMojo {
         config.setProperty(RetrolambdaApi.OUTPUT_DIR, getOutputDir().getAbsolutePath());
         config.setProperty(RetrolambdaApi.CLASSPATH, getClasspath());
         config.setProperty(RetrolambdaApi.JAVAC_HACKS, "" + javacHacks);
+        config.setProperty(RetrolambdaApi.THREADS, "" + threads);
+        config.setProperty(RetrolambdaApi.WRITER_THREADS, "" + writerThreads);
+        config.setProperty(RetrolambdaApi.LOW_MEMORY, "" + lowMemory);
+        config.setProperty(RetrolambdaApi.GENERATE_LAMBDA_CLASSES, "" + generateLambdaClasses);
+        config.setProperty(RetrolambdaApi.DEDUPLICATE_LAMBDAS, "" + deduplicateLambdas);
+        config.setProperty(RetrolambdaApi.GROUP_LAMBDAS, "" + groupLambdas);
+        config.setProperty(RetrolambdaApi.INLINE_LAMBDA_FACTORIES, "" + inlineLambdaFactories);
+        config.setProperty(RetrolambdaApi.HASH_LAMBDA_NAMES, "" + hashLambdaNames);
+        config.setProperty(RetrolambdaApi.SKIP_UNCHANGED_FILES, "" + skipUnchangedFiles);
+        if (multiReleaseVersion != null) {
+            config.setProperty(RetrolambdaApi.MULTI_RELEASE_VERSION, "" + multiReleaseVersion);
+            warnAboutMultiReleaseManifest();
+        }
+        if (incremental) {
+            config.setProperty(RetrolambdaApi.INCREMENTAL_CACHE_DIR, getIncrementalCacheDir());
+        }
+        if (metrics) {
+            config.setProperty(RetrolambdaApi.METRICS_FILE, getMetricsFile().getAbsolutePath());
+        }
+
+        processClasses(config);
+        if (metrics) {
+            attachMetricsFile();
+        }
+    }
 
+    private void processClasses(Properties config) throws MojoExecutionException {
+        if (daemon && processClassesInDaemon(config)) {
+            return;
+        }
         if (fork) {
             processClassesInForkedProcess(config);
         } else {
@@ -134,6 +323,15 @@ abstract class ProcessClassesMojo extends AbstractMojo {
         }
     }
 
+    private void attachMetricsFile() {
+        File metricsFile = getMetricsFile();
+        if (metricsFile.isFile()) {
+            projectHelper.attachArtifact(project, "json", getMetricsClassifier(), metricsFile);
+        } else {
+            getLog().warn("Retrolambda did not write the metrics file " + metricsFile);
+        }
+    }
+
     private void validateTarget() throws MojoExecutionException {
         if (!targetBytecodeVersions.containsKey(target)) {
             String possibleValues = Joiner.on(", ").join(new TreeSet<String>(targetBytecodeVersions.keySet()));
@@ -142,6 +340,14 @@ abstract class ProcessClassesMojo extends AbstractMojo {
         }
     }
 
+    private void warnAboutMultiReleaseManifest() {
+        String name = getOutputDir().getName().toLowerCase(Locale.ROOT);
+        if (!name.endsWith(".jar") && !name.endsWith(".zip")) {
+            getLog().warn("The output is a directory, so the maven-jar-plugin will not use its multi-release manifest. " +
+                    "Add <Multi-Release>true</Multi-Release> to the maven-jar-plugin's <archive><manifestEntries>");
+        }
+    }
+
     private void validateFork() {
         if (!fork && !SystemUtils.isJavaVersionAtLeast(1.8f)) {
             getLog().warn("Maven is not running under Java 8 - forced to fork the process");
@@ -149,6 +355,50 @@ abstract class ProcessClassesMojo extends AbstractMojo {
         }
     }
 
+    private boolean processClassesInDaemon(Properties config) throws MojoExecutionException {
+        Socket socket = new Socket();
+        try {
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getByName(null), daemonPort), 1000);
+            } catch (IOException e) {
+                getLog().info("Retrolambda daemon is not running on port " + daemonPort + " - not using it");
+                return false;
+            }
+            File tokenFile = DaemonProtocol.getTokenFile(DaemonProtocol.getDefaultTokenDir(), daemonPort);
+            String token;
+            try {
+                token = DaemonProtocol.readToken(tokenFile);
+            } catch (IOException e) {
+                getLog().info("Unable to read the Retrolambda daemon's token file " + tokenFile + " - not using the daemon");
+                return false;
+            }
+            getLog().info("Processing classes with Retrolambda daemon on port " + daemonPort);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DaemonProtocol.writeConfig(out, config, token);
+            while (true) {
+                DaemonProtocol.Message message = DaemonProtocol.readMessage(in);
+                if (message.type == DaemonProtocol.LOG) {
+                    getLog().info(message.content.trim());
+                } else if (message.type == DaemonProtocol.SUCCESS) {
+                    return true;
+                } else if (message.type == DaemonProtocol.FAILURE) {
+                    throw new MojoExecutionException("Failed to run Retrolambda daemon:\n" + message.content);
+                } else {
+                    throw new IOException("Unexpected message of type " + (char) message.type);
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to communicate with the Retrolambda daemon", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                getLog().warn("Unable to close the connection to the Retrolambda daemon", e);
+            }
+        }
+    }
+
     private void processClassesInCurrentProcess(Properties config) throws MojoExecutionException {
         getLog().info("Processing classes with Retrolambda");
         try {
@@ -273,6 +523,18 @@ abstract class ProcessClassesMojo extends AbstractMojo {
         return project.getBuild().getDirectory() + "/retrolambda";
     }
 
+    private String getIncrementalCacheDir() {
+        return getRetrolambdaJarDir() + "/incremental-" + getInputDir().getName();
+    }
+
+    private File getMetricsFile() {
+        return new File(getRetrolambdaJarDir(), getMetricsClassifier() + ".json");
+    }
+
+    private String getMetricsClassifier() {
+        return "retrolambda-metrics-" + getInputDir().getName();
+    }
+
     private String getRetrolambdaJarName() {
         return "retrolambda.jar";
     }
@@ -0,0 +1,288 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import net.orfjackal.retrolambda.interfaces.*;
+import net.orfjackal.retrolambda.lambdas.LambdaNaming;
+import net.orfjackal.retrolambda.util.Flags;
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * The analysis of the backported classes, written to the output so that the
+ * modules which depend on it can be backported in separate executions. After
+ * backporting, the interfaces' default methods and static methods are no longer
+ * in their bytecode, so it's not enough to analyze the classpath.
+ * <p>
+ * Only what other modules need for resolving the inherited and default methods
+ * is written. The final classes (including the lambda classes), the classes'
+ * static methods, and the private methods and lambda bodies are left out,
+ * because other modules can't inherit them.
+ * <p>
+ * The format is line based: a "class" line with the class's access flags,
+ * name, superclass and interfaces, followed by the class's methods and the
+ * methods which were moved to its companion class. The names are escaped,
+ * because JVM names may contain spaces.
+ */
+public class AnalysisSummary {
+
+    public static final String PATH = "META-INF/retrolambda/summary";
+
+    private static final String HEADER = "retrolambda-summary 1";
+    private static final String NONE = "-";
+
+    public static byte[] write(ClassAnalyzer analyzer) {
+        Map<Type, List<Map.Entry<MethodRef, MethodRef>>> relocatedMethods = new HashMap<>();
+        for (Map.Entry<MethodRef, MethodRef> relocated : analyzer.getNonPrivateRelocatedMethods().entrySet()) {
+            relocatedMethods.computeIfAbsent(Type.getObjectType(relocated.getKey().owner), k -> new ArrayList<>()).add(relocated);
+        }
+        for (List<Map.Entry<MethodRef, MethodRef>> methods : relocatedMethods.values()) {
+            methods.sort(Comparator.comparing(e -> e.getKey().name + e.getKey().desc));
+        }
+        List<ClassInfo> classes = new ArrayList<>();
+        classes.addAll(analyzer.getInterfaces());
+        for (ClassInfo c : analyzer.getClasses()) {
+            if (!Flags.hasFlag(c.getAccess(), Opcodes.ACC_FINAL)) {
+                classes.add(c);
+            }
+        }
+        classes.sort(Comparator.comparing(c -> c.type.getInternalName()));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(HEADER).append('\n');
+        for (ClassInfo c : classes) {
+            sb.append("class ").append(c.getAccess())
+                    .append(' ').append(escape(c.type.getInternalName()))
+                    .append(' ').append(c.superclass != null ? escape(c.superclass.getInternalName()) : NONE)
+                    .append(' ').append(typeList(c.getInterfaces()))
+                    .append('\n');
+            if (c.getCompanionClass().isPresent()) {
+                sb.append("companion\n");
+            }
+            for (MethodInfo m : c.getMethods()) {
+                if (m.signature.name.startsWith("<")) {
+                    continue; // constructors and static initializers are not inherited
+                }
+                if (Flags.isPrivateMethod(m.access) || LambdaNaming.isBodyMethodName(m.signature.name)
+                        || (c.isClass() && Flags.isStaticMethod(m.access))) {
+                    continue;
+                }
+                sb.append("method ").append(m.access)
+                        .append(' ').append(m.tag)
+                        .append(' ').append(escape(m.signature.name))
+                        .append(' ').append(escape(m.signature.desc));
+                if (m.kind instanceof MethodKind.Implemented) {
+                    sb.append(" implemented");
+                } else if (m.kind instanceof MethodKind.Abstract) {
+                    sb.append(" abstract");
+                } else {
+                    sb.append(" default ").append(methodRef(m.getDefaultMethodImpl()));
+                }
+                sb.append('\n');
+            }
+            for (Map.Entry<MethodRef, MethodRef> relocated : relocatedMethods.getOrDefault(c.type, Collections.emptyList())) {
+                MethodRef method = relocated.getKey();
+                sb.append("relocated ").append(method.tag)
+                        .append(' ').append(escape(method.name))
+                        .append(' ').append(escape(method.desc))
+                        .append(' ').append(methodRef(relocated.getValue()))
+                        .append('\n');
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the summary from a classpath directory or JAR file, if it has one.
+     *
+     * @return the number of classes in the summary
+     */
+    public static int read(Path classpathEntry, ClassAnalyzer analyzer) throws IOException {
+        if (Files.isDirectory(classpathEntry)) {
+            Path file = classpathEntry.resolve(PATH);
+            if (Files.isRegularFile(file)) {
+                try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    return read(in, analyzer, file);
+                }
+            }
+        } else if (Files.isRegularFile(classpathEntry)) {
+            ZipFile zip;
+            try {
+                zip = new ZipFile(classpathEntry.toFile());
+            } catch (ZipException e) {
+                return 0; // not a JAR file
+            }
+            try (ZipFile closed = zip) {
+                ZipEntry entry = zip.getEntry(PATH);
+                if (entry != null) {
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+                        return read(in, analyzer, classpathEntry);
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static int read(BufferedReader in, ClassAnalyzer analyzer, Path source) throws IOException {
+        if (!HEADER.equals(in.readLine())) {
+            throw new IOException("Unsupported analysis summary: " + source);
+        }
+        int count = 0;
+        ClassInfo c = null;
+        Map<MethodRef, MethodRef> relocatedMethods = new HashMap<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] parts = line.split(" ");
+            switch (parts[0]) {
+                case "class":
+                    if (c != null) {
+                        analyzer.addSummarizedClass(c, relocatedMethods);
+                        relocatedMethods = new HashMap<>();
+                    }
+                    c = new ClassInfo(Integer.parseInt(parts[1]),
+                            Type.getObjectType(unescape(parts[2])),
+                            parts[3].equals(NONE) ? null : Type.getObjectType(unescape(parts[3])),
+                            parseTypeList(parts[4]));
+                    count++;
+                    break;
+                case "companion":
+                    c.enableCompanionClass();
+                    break;
+                case "method":
+                    MethodRef method = new MethodRef(Integer.parseInt(parts[2]), c.type.getInternalName(), unescape(parts[3]), unescape(parts[4]));
+                    c.addMethod(Integer.parseInt(parts[1]), method, parseMethodKind(parts, 5));
+                    break;
+                case "relocated":
+                    relocatedMethods.put(new MethodRef(Integer.parseInt(parts[1]), c.type.getInternalName(), unescape(parts[2]), unescape(parts[3])),
+                            parseMethodRef(parts, 4));
+                    break;
+                default:
+                    throw new IOException("Unsupported line in analysis summary " + source + ": " + line);
+            }
+        }
+        if (c != null) {
+            analyzer.addSummarizedClass(c, relocatedMethods);
+        }
+        return count;
+    }
+
+    private static String typeList(List<Type> types) {
+        if (types.isEmpty()) {
+            return NONE;
+        }
+        StringJoiner sj = new StringJoiner(",");
+        for (Type type : types) {
+            sj.add(escape(type.getInternalName()));
+        }
+        return sj.toString();
+    }
+
+    private static List<Type> parseTypeList(String s) throws IOException {
+        List<Type> types = new ArrayList<>();
+        if (!s.equals(NONE)) {
+            for (String name : s.split(",")) {
+                types.add(Type.getObjectType(unescape(name)));
+            }
+        }
+        return types;
+    }
+
+    private static String methodRef(MethodRef m) {
+        return m.tag + " " + escape(m.owner) + " " + escape(m.name) + " " + escape(m.desc);
+    }
+
+    private static MethodRef parseMethodRef(String[] parts, int offset) throws IOException {
+        return new MethodRef(Integer.parseInt(parts[offset]), unescape(parts[offset + 1]), unescape(parts[offset + 2]), unescape(parts[offset + 3]));
+    }
+
+    private static String escape(String name) {
+        if (name.equals(NONE)) {
+            return "\\" + NONE;
+        }
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            switch (ch) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case ' ':
+                    sb.append("\\s");
+                    break;
+                case ',':
+                    sb.append("\\c");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String s) throws IOException {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch != '\\') {
+                sb.append(ch);
+                continue;
+            }
+            if (++i == s.length()) {
+                throw new IOException("Incomplete escape sequence: " + s);
+            }
+            switch (s.charAt(i)) {
+                case '\\':
+                    sb.append('\\');
+                    break;
+                case 's':
+                    sb.append(' ');
+                    break;
+                case 'c':
+                    sb.append(',');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case '-':
+                    sb.append('-');
+                    break;
+                default:
+                    throw new IOException("Unsupported escape sequence in: " + s);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static MethodKind parseMethodKind(String[] parts, int offset) throws IOException {
+        switch (parts[offset]) {
+            case "implemented":
+                return new MethodKind.Implemented();
+            case "abstract":
+                return new MethodKind.Abstract();
+            case "default":
+                return new MethodKind.Default(parseMethodRef(parts, offset + 1));
+            default:
+                throw new IOException("Unsupported method kind: " + parts[offset]);
+        }
+    }
+}
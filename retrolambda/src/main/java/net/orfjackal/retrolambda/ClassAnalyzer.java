@@ -11,6 +11,8 @@ import net.orfjackal.retrolambda.util.*;
 import org.objectweb.asm.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import static java.util.stream.Collectors.toList;
 import static net.orfjackal.retrolambda.util.Flags.*;
@@ -18,113 +20,118 @@ import static org.objectweb.asm.Opcodes.*;
 
 public class ClassAnalyzer {
 
-    private final Map<Type, ClassInfo> classes = new HashMap<>();
-    private final Map<MethodRef, MethodRef> relocatedMethods = new HashMap<>();
-    private final Map<MethodRef, MethodRef> renamedLambdaMethods = new HashMap<>();
+    // Lambda classes are analyzed while other classes are being backported in other threads.
+    private final Map<Type, ClassInfo> classes = new ConcurrentHashMap<>();
+    private final Map<MethodRef, MethodRef> relocatedMethods = new ConcurrentHashMap<>();
+    private final Set<MethodRef> privateRelocatedMethods = ConcurrentHashMap.newKeySet();
+    private final Map<MethodRef, MethodRef> renamedLambdaMethods = new ConcurrentHashMap<>();
+    private final Map<Type, ClassInfo> summarizedClasses = new ConcurrentHashMap<>();
+    private final Map<MethodRef, MethodRef> summarizedRelocatedMethods = new ConcurrentHashMap<>();
+
+    // Resolved lazily once the analysis is complete, and then never changed. Backporting may happen
+    // in multiple threads. The unknown types are not memoized, because they may be lambda classes
+    // which are analyzed later; nothing inherits from the lambda classes, so no other table changes.
+    private final Map<Type, Map<MethodSignature, MethodInfo>> methodTables = new ConcurrentHashMap<>();
+    private final Map<Type, List<MethodInfo>> defaultMethods = new ConcurrentHashMap<>();
+    private final Map<Type, Set<Type>> interfaceClosures = new ConcurrentHashMap<>();
 
     public void analyze(byte[] bytecode, boolean isJavacHacksEnabled) {
         analyze(EnhancedClassReader.create(bytecode, isJavacHacksEnabled));
     }
 
-    public void analyze(ClassReader cr) {
-        ClassInfo c = new ClassInfo(cr);
-        classes.put(c.type, c);
+    /**
+     * Analyzes the class without keeping its bytecode in memory.
+     *
+     * @param reloader reads the same bytecode again when the class is backported
+     */
+    public void analyze(byte[] bytecode, boolean isJavacHacksEnabled, Supplier<byte[]> reloader) {
+        analyze(EnhancedClassReader.create(bytecode, isJavacHacksEnabled),
+                () -> EnhancedClassReader.create(reloader.get(), isJavacHacksEnabled));
+    }
 
-        if (isInterface(cr.getAccess())) {
-            analyzeInterface(c, cr);
-        } else {
-            analyzeClass(c, cr);
-        }
-        analyzeClassOrInterface(c, cr);
+    public void analyze(ClassReader cr) {
+        analyze(cr, null);
     }
 
-    private void analyzeClass(ClassInfo c, ClassReader cr) {
+    private void analyze(ClassReader cr, Supplier<ClassReader> reloader) {
+        ClassInfo c = new ClassInfo(cr, reloader);
+        boolean isInterface = isInterface(cr.getAccess());
+        // Only a class with invokedynamic instructions can contain lambda implementation methods
+        boolean hasLambdas = c.hasInvokeDynamic();
         cr.accept(new ClassVisitor(ASM5) {
             private String owner;
+            private String companion;
 
             @Override
             public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
                 this.owner = name;
+                this.companion = name + "$";
             }
 
             @Override
             public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-                int tag;
-                if (isConstructor(name)) {
-                    tag = H_INVOKESPECIAL;
-                } else if (isStaticMethod(access)) {
-                    tag = H_INVOKESTATIC;
+                if (isInterface) {
+                    analyzeInterfaceMethod(c, access, owner, companion, name, desc);
                 } else {
-                    tag = H_INVOKEVIRTUAL;
+                    analyzeClassMethod(c, access, owner, name, desc);
+                }
+                if (hasLambdas) {
+                    analyzeLambdaMethod(access, owner, name, desc);
                 }
-
-                c.addMethod(access, new MethodRef(tag, owner, name, desc), new MethodKind.Implemented());
                 return null;
             }
-
         }, ClassReader.SKIP_CODE);
+        // published only when complete, because other threads may be resolving methods
+        classes.put(c.type, c);
     }
 
-    private void analyzeInterface(ClassInfo c, ClassReader cr) {
-        cr.accept(new ClassVisitor(ASM5) {
-            private String owner;
-            private String companion;
+    private static void analyzeClassMethod(ClassInfo c, int access, String owner, String name, String desc) {
+        int tag;
+        if (isConstructor(name)) {
+            tag = H_INVOKESPECIAL;
+        } else if (isStaticMethod(access)) {
+            tag = H_INVOKESTATIC;
+        } else {
+            tag = H_INVOKEVIRTUAL;
+        }
 
-            @Override
-            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-                this.owner = name;
-                this.companion = name + "$";
-            }
+        c.addMethod(access, new MethodRef(tag, owner, name, desc), new MethodKind.Implemented());
+    }
 
-            @Override
-            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-                MethodRef method = new MethodRef(Handles.accessToTag(access, true), owner, name, desc);
+    private void analyzeInterfaceMethod(ClassInfo c, int access, String owner, String companion, String name, String desc) {
+        MethodRef method = new MethodRef(Handles.accessToTag(access, true), owner, name, desc);
 
-                if (isAbstractMethod(access)) {
-                    c.addMethod(access, method, new MethodKind.Abstract());
+        if (isAbstractMethod(access)) {
+            c.addMethod(access, method, new MethodKind.Abstract());
 
-                } else if (isDefaultMethod(access)) {
-                    MethodRef defaultImpl = new MethodRef(H_INVOKESTATIC, companion, name, Bytecode.prependArgumentType(desc, Type.getObjectType(owner)));
-                    c.enableCompanionClass();
-                    c.addMethod(access, method, new MethodKind.Default(defaultImpl));
+        } else if (isDefaultMethod(access)) {
+            MethodRef defaultImpl = new MethodRef(H_INVOKESTATIC, companion, name, Bytecode.prependArgumentType(desc, Type.getObjectType(owner)));
+            c.enableCompanionClass();
+            c.addMethod(access, method, new MethodKind.Default(defaultImpl));
 
-                } else if (isInstanceLambdaImplMethod(access)) {
-                    relocatedMethods.put(method, new MethodRef(H_INVOKESTATIC, companion, name, Bytecode.prependArgumentType(desc, Type.getObjectType(owner))));
-                    c.enableCompanionClass();
+        } else if (isInstanceLambdaImplMethod(access)) {
+            relocatedMethods.put(method, new MethodRef(H_INVOKESTATIC, companion, name, Bytecode.prependArgumentType(desc, Type.getObjectType(owner))));
+            privateRelocatedMethods.add(method);
+            c.enableCompanionClass();
 
-                } else if (isStaticMethod(access) && !isStaticInitializer(name, desc, access)) {
-                    relocatedMethods.put(method, new MethodRef(H_INVOKESTATIC, companion, name, desc));
-                    c.enableCompanionClass();
-                }
-                return null;
+        } else if (isStaticMethod(access) && !isStaticInitializer(name, desc, access)) {
+            relocatedMethods.put(method, new MethodRef(H_INVOKESTATIC, companion, name, desc));
+            if (isPrivateMethod(access)) {
+                privateRelocatedMethods.add(method);
             }
-        }, ClassReader.SKIP_CODE);
+            c.enableCompanionClass();
+        }
     }
 
-    private void analyzeClassOrInterface(ClassInfo c, ClassReader cr) {
-        cr.accept(new ClassVisitor(ASM5) {
-            private String owner;
-
-            @Override
-            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-                this.owner = name;
-            }
-
-            @Override
-            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-                MethodRef method = new MethodRef(Handles.accessToTag(access, true), owner, name, desc);
-
-                // XXX: duplicates code in net.orfjackal.retrolambda.lambdas.BackportLambdaInvocations.visitMethod()
-                if (LambdaNaming.isBodyMethod(access, name)
-                        && Flags.isPrivateMethod(access)
-                        && Flags.isInstanceMethod(access)) {
-                    desc = Types.prependArgumentType(Type.getObjectType(owner), desc); // add 'this' as first parameter
-                    renamedLambdaMethods.put(method, new MethodRef(H_INVOKESTATIC, owner, name, desc));
-                }
-
-                return null;
-            }
-        }, ClassReader.SKIP_CODE);
+    private void analyzeLambdaMethod(int access, String owner, String name, String desc) {
+        // XXX: duplicates code in net.orfjackal.retrolambda.lambdas.BackportLambdaInvocations.visitMethod()
+        if (LambdaNaming.isBodyMethod(access, name)
+                && Flags.isPrivateMethod(access)
+                && Flags.isInstanceMethod(access)) {
+            MethodRef method = new MethodRef(Handles.accessToTag(access, true), owner, name, desc);
+            desc = Types.prependArgumentType(Type.getObjectType(owner), desc); // add 'this' as first parameter
+            renamedLambdaMethods.put(method, new MethodRef(H_INVOKESTATIC, owner, name, desc));
+        }
     }
 
     private static boolean isDefaultMethod(int access) {
@@ -153,8 +160,35 @@ public class ClassAnalyzer {
                 .collect(toList());
     }
 
+    /**
+     * Adds a class which was analyzed in an earlier run, to know about
+     * the default methods of interfaces which have already been backported.
+     * The classes analyzed in this run take precedence.
+     */
+    public void addSummarizedClass(ClassInfo c, Map<MethodRef, MethodRef> relocatedMethods) {
+        summarizedClasses.put(c.type, c);
+        summarizedRelocatedMethods.putAll(relocatedMethods);
+    }
+
+    public Map<MethodRef, MethodRef> getRelocatedMethods() {
+        return Collections.unmodifiableMap(relocatedMethods);
+    }
+
+    /**
+     * The relocated methods which can be called from outside their interface.
+     */
+    public Map<MethodRef, MethodRef> getNonPrivateRelocatedMethods() {
+        Map<MethodRef, MethodRef> methods = new HashMap<>(relocatedMethods);
+        methods.keySet().removeAll(privateRelocatedMethods);
+        return methods;
+    }
+
     private ClassInfo getClass(Type type) {
-        return classes.getOrDefault(type, new ClassInfo());
+        ClassInfo c = classes.get(type);
+        if (c == null) {
+            c = summarizedClasses.getOrDefault(type, new ClassInfo());
+        }
+        return c;
     }
 
     public MethodRef getMethodCallTarget(MethodRef original) {
@@ -165,7 +199,12 @@ public class ClassAnalyzer {
                 return impl;
             }
         }
-        return relocatedMethods.getOrDefault(original, original);
+        MethodRef relocated = relocatedMethods.get(original);
+        if (relocated == null && !classes.containsKey(Type.getObjectType(original.owner))) {
+            // the summary may be from an earlier run over the same classes
+            relocated = summarizedRelocatedMethods.get(original);
+        }
+        return relocated != null ? relocated : original;
     }
 
     public MethodRef getRenamedLambdaMethod(MethodRef original) {
@@ -173,11 +212,9 @@ public class ClassAnalyzer {
     }
 
     public MethodRef getMethodDefaultImplementation(MethodRef interfaceMethod) {
-        MethodSignature signature = interfaceMethod.getSignature();
-        for (MethodInfo method : getDefaultMethods(Type.getObjectType(interfaceMethod.owner))) {
-            if (method.signature.equals(signature)) {
-                return method.getDefaultMethodImpl();
-            }
+        MethodInfo method = getMethodTable(Type.getObjectType(interfaceMethod.owner)).get(interfaceMethod.getSignature());
+        if (method != null && method.kind instanceof MethodKind.Default) {
+            return method.getDefaultMethodImpl();
         }
         return null;
     }
@@ -187,12 +224,45 @@ public class ClassAnalyzer {
     }
 
     public List<MethodInfo> getDefaultMethods(Type type) {
-        return getMethods(type).stream()
-                .filter(m -> m.kind instanceof MethodKind.Default)
-                .collect(toList());
+        List<MethodInfo> results = defaultMethods.get(type);
+        if (results == null) {
+            boolean known = isKnown(type);
+            results = new ArrayList<>();
+            for (MethodInfo m : getMethodTable(type).values()) {
+                if (m.kind instanceof MethodKind.Default) {
+                    results.add(m);
+                }
+            }
+            results = Collections.unmodifiableList(results);
+            if (known) {
+                defaultMethods.put(type, results);
+            }
+        }
+        return results;
     }
 
     public Collection<MethodInfo> getMethods(Type type) {
+        return getMethodTable(type).values();
+    }
+
+    private Map<MethodSignature, MethodInfo> getMethodTable(Type type) {
+        // Not using computeIfAbsent, because this is recursive
+        Map<MethodSignature, MethodInfo> methods = methodTables.get(type);
+        if (methods == null) {
+            boolean known = isKnown(type);
+            methods = Collections.unmodifiableMap(resolveMethods(type));
+            if (known) {
+                methodTables.put(type, methods);
+            }
+        }
+        return methods;
+    }
+
+    private boolean isKnown(Type type) {
+        return classes.containsKey(type) || summarizedClasses.containsKey(type);
+    }
+
+    private Map<MethodSignature, MethodInfo> resolveMethods(Type type) {
         ClassInfo c = getClass(type);
         Map<MethodSignature, MethodInfo> methods = new HashMap<>();
 
@@ -217,7 +287,7 @@ public class ClassAnalyzer {
         for (MethodInfo m : c.getMethods()) {
             methods.put(m.signature, m);
         }
-        return methods.values();
+        return methods;
     }
 
     private boolean isAlreadyInherited(MethodInfo subject, Map<MethodSignature, MethodInfo> existingMethods) {
@@ -227,10 +297,15 @@ public class ClassAnalyzer {
 
     private Set<Type> getAllInterfaces(Type interfaceType) {
         assert getClass(interfaceType).isInterface() : "not interface: " + interfaceType;
-        HashSet<Type> results = new HashSet<>();
-        results.add(interfaceType);
-        for (Type parentInterface : getClass(interfaceType).getInterfaces()) {
-            results.addAll(getAllInterfaces(parentInterface));
+        Set<Type> results = interfaceClosures.get(interfaceType);
+        if (results == null) {
+            results = new HashSet<>();
+            results.add(interfaceType);
+            for (Type parentInterface : getClass(interfaceType).getInterfaces()) {
+                results.addAll(getAllInterfaces(parentInterface));
+            }
+            results = Collections.unmodifiableSet(results);
+            interfaceClosures.put(interfaceType, results);
         }
         return results;
     }
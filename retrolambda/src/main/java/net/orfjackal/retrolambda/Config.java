@@ -24,4 +24,31 @@ public interface Config {
     boolean isJavacHacksEnabled();
 
     boolean isQuiet();
+
+    int getThreads();
+
+    int getWriterThreads();
+
+    Path getIncrementalCacheDir();
+
+    boolean isLowMemory();
+
+    boolean isGenerateLambdaClasses();
+
+    boolean isDeduplicateLambdas();
+
+    boolean isGroupLambdas();
+
+    boolean isInlineLambdaFactories();
+
+    boolean isHashLambdaNames();
+
+    boolean isSkipUnchangedFiles();
+
+    /**
+     * @return 0 if disabled
+     */
+    int getMultiReleaseVersion();
+
+    Path getMetricsFile();
 }
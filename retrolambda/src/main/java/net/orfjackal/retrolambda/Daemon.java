@@ -0,0 +1,158 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import com.esotericsoftware.minlog.Log;
+import net.orfjackal.retrolambda.api.DaemonProtocol;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * Runs Retrolambda for many builds in the same JVM, so that they don't need to
+ * pay for the JVM startup and the JIT warm-up. The requests are processed one
+ * at a time, because the logging and the lambda capturing hooks are global.
+ * Each request gets its own class loader for the classes being backported.
+ * <p>
+ * Only the requests which contain the daemon's secret token are served.
+ * The token is written to a file which only the current user can read.
+ */
+public class Daemon implements Closeable {
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIR = PosixFilePermissions.fromString("rwx------");
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final ServerSocket serverSocket;
+    private final String token;
+    private final Path tokenFile;
+
+    /**
+     * @param tokenDir the directory where the token file is written
+     */
+    public Daemon(int port, Path tokenDir) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        token = newToken();
+        tokenFile = DaemonProtocol.getTokenFile(tokenDir.toFile(), getPort()).toPath();
+        try {
+            writeTokenFile(tokenFile, token);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static void writeTokenFile(Path file, String token) throws IOException {
+        boolean posix = file.getFileSystem().supportedFileAttributeViews().contains("posix");
+        Path dir = file.getParent();
+        if (!Files.isDirectory(dir)) {
+            if (posix) {
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIR));
+            } else {
+                Files.createDirectories(dir);
+            }
+        }
+        // the file is recreated, so that nobody else can have it open
+        Files.deleteIfExists(file);
+        if (posix) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else {
+            Files.createFile(file);
+            File f = file.toFile();
+            if (!(f.setReadable(false, false) && f.setReadable(true, true)
+                    && f.setWritable(false, false) && f.setWritable(true, true))) {
+                throw new IOException("Unable to make the token file readable only by its owner: " + file);
+            }
+        }
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Path getTokenFile() {
+        return tokenFile;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void run() throws IOException {
+        Log.info("Retrolambda daemon listening on port " + getPort() + ", token file " + tokenFile);
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            try (Socket s = socket) {
+                // a client which doesn't send its request must not block the other clients forever
+                s.setSoTimeout(READ_TIMEOUT_MILLIS);
+                handleRequest(new DataInputStream(new BufferedInputStream(s.getInputStream())),
+                        new DataOutputStream(new BufferedOutputStream(s.getOutputStream())));
+            } catch (IOException | RuntimeException e) {
+                Log.warn("Failed to communicate with the client", e);
+            }
+        }
+    }
+
+    private void handleRequest(DataInputStream in, DataOutputStream out) throws IOException {
+        Properties config = DaemonProtocol.readConfig(in);
+        String clientToken = (String) config.remove(DaemonProtocol.TOKEN);
+        if (clientToken == null || !MessageDigest.isEqual(
+                clientToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            Log.warn("Rejected a request without the daemon's token");
+            DaemonProtocol.writeMessage(out, DaemonProtocol.FAILURE, "Invalid token; expected the one in " + tokenFile);
+            return;
+        }
+        Log.Logger logger = new Log.Logger() {
+            @Override
+            protected void print(String message) {
+                synchronized (out) { // may be called from the worker threads
+                    try {
+                        DaemonProtocol.writeMessage(out, DaemonProtocol.LOG, message);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        };
+        try {
+            Retrolambda.runIsolated(config, logger);
+            DaemonProtocol.writeMessage(out, DaemonProtocol.SUCCESS, "");
+        } catch (Throwable t) {
+            StringWriter stackTrace = new StringWriter();
+            t.printStackTrace(new PrintWriter(stackTrace));
+            DaemonProtocol.writeMessage(out, DaemonProtocol.FAILURE, stackTrace.toString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            serverSocket.close();
+        } finally {
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+}
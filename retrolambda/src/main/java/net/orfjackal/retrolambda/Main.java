@@ -5,13 +5,20 @@
 package net.orfjackal.retrolambda;
 
 import com.esotericsoftware.minlog.Log;
+import net.orfjackal.retrolambda.api.DaemonProtocol;
 
 import java.io.*;
-import java.util.Properties;
+import java.util.*;
 
 public class Main {
 
     public static void main(String[] args) {
+        boolean worker = Arrays.asList(args).contains(Worker.PERSISTENT_WORKER_FLAG);
+        PrintStream stdout = System.out;
+        if (worker) {
+            // the standard output is reserved for the work responses
+            System.setOut(System.err);
+        }
         System.out.println("Retrolambda " + getVersion());
 
         if (!isRunningJava8()) {
@@ -19,7 +26,28 @@ public class Main {
             System.exit(1);
         }
 
+        if (worker) {
+            try {
+                Properties defaults = new Properties();
+                defaults.putAll(System.getProperties());
+                Worker.parseArguments(Arrays.asList(args), defaults);
+                new Worker(defaults).run(System.in, stdout);
+            } catch (Throwable t) {
+                Log.error("Failed to run Retrolambda worker", t);
+                System.exit(1);
+            }
+            return;
+        }
         SystemPropertiesConfig config = new SystemPropertiesConfig(System.getProperties());
+        if (config.isDaemon()) {
+            try (Daemon daemon = new Daemon(config.getDaemonPort(), DaemonProtocol.getDefaultTokenDir().toPath())) {
+                daemon.run();
+            } catch (Throwable t) {
+                Log.error("Failed to run Retrolambda daemon", t);
+                System.exit(1);
+            }
+            return;
+        }
         if (!config.isFullyConfigured()) {
             System.out.print(config.getHelp());
             return;
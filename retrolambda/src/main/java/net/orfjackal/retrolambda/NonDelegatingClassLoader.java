@@ -4,12 +4,42 @@
 
 package net.orfjackal.retrolambda;
 
+import net.orfjackal.retrolambda.files.ClasspathIndex;
+
+import java.io.IOException;
 import java.net.*;
+import java.security.*;
+import java.util.function.Function;
 
 public class NonDelegatingClassLoader extends URLClassLoader {
 
+    static {
+        // lambdas are backported in many threads, and each of them loads the classes it needs
+        registerAsParallelCapable();
+    }
+
+    private final ClasspathIndex index;
+    private final Function<String, byte[]> overrides;
+
     public NonDelegatingClassLoader(URL[] urls) {
+        this(urls, className -> null);
+    }
+
+    /**
+     * @param overrides bytecode to use instead of what is on the classpath, by internal class name
+     */
+    public NonDelegatingClassLoader(URL[] urls, Function<String, byte[]> overrides) {
+        this(urls, null, overrides);
+    }
+
+    /**
+     * @param index     if not null, the classes are found using it instead of searching the URLs
+     * @param overrides bytecode to use instead of what is on the classpath, by internal class name
+     */
+    public NonDelegatingClassLoader(URL[] urls, ClasspathIndex index, Function<String, byte[]> overrides) {
         super(urls);
+        this.index = index;
+        this.overrides = overrides;
     }
 
     @Override
@@ -17,14 +47,73 @@ public class NonDelegatingClassLoader extends URLClassLoader {
         if (name.startsWith("java.")) { // the java.* classes can only be loaded by the bootstrap class loader
             return super.loadClass(name);
         }
-        Class<?> c = findLoadedClass(name);
-        if (c != null) {
-            return c;
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c != null) {
+                return c;
+            }
+            try {
+                return findClass(name);
+            } catch (ClassNotFoundException e) {
+                // super.loadClass() would search the classpath again after the parent
+                return getParent().loadClass(name);
+            }
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String internalName = name.replace('.', '/');
+        byte[] bytecode = overrides.apply(internalName);
+        if (bytecode != null) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+        if (index == null) {
+            return super.findClass(name);
         }
+        ClasspathIndex.FoundClass found;
         try {
-            return findClass(name);
-        } catch (ClassNotFoundException e) {
-            return super.loadClass(name);
+            found = index.find(internalName);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        if (found == null) {
+            throw new ClassNotFoundException(name);
+        }
+        definePackageOf(name, found);
+        CodeSource codeSource = new CodeSource(found.source, (CodeSigner[]) null);
+        return defineClass(name, found.bytecode, 0, found.bytecode.length, codeSource);
+    }
+
+    private void definePackageOf(String className, ClasspathIndex.FoundClass found) {
+        // the same as what URLClassLoader.defineClass() does
+        int i = className.lastIndexOf('.');
+        if (i == -1) {
+            return;
+        }
+        String name = className.substring(0, i);
+        if (getPackage(name) != null) {
+            return;
+        }
+        try {
+            if (found.manifest != null) {
+                definePackage(name, found.manifest, found.source);
+            } else {
+                definePackage(name, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            // defined concurrently by another thread
+            if (getPackage(name) == null) {
+                throw new AssertionError("Cannot find package " + name);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (index != null) {
+            index.close();
         }
     }
 }
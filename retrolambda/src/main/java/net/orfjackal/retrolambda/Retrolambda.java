@@ -6,14 +6,20 @@ package net.orfjackal.retrolambda;
 
 import com.esotericsoftware.minlog.Log;
 import net.orfjackal.retrolambda.files.*;
+import net.orfjackal.retrolambda.incremental.IncrementalCache;
 import net.orfjackal.retrolambda.interfaces.ClassInfo;
+import net.orfjackal.retrolambda.jfr.FlightRecorderEvents;
 import net.orfjackal.retrolambda.lambdas.*;
-import net.orfjackal.retrolambda.util.Bytecode;
+import net.orfjackal.retrolambda.util.*;
+import org.objectweb.asm.ClassReader;
 
-import java.io.IOException;
+import java.io.*;
 import java.net.*;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
 
 public class Retrolambda {
 
@@ -25,7 +31,124 @@ public class Retrolambda {
         run(config);
     }
 
+    /**
+     * Runs one request of a long-running process, such as the daemon or the worker,
+     * so that its logging and context class loader don't leak to the later requests.
+     *
+     * @param logger receives the log messages of this run
+     */
+    static void runIsolated(Properties systemProperties, Log.Logger logger) throws Throwable {
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        Log.setLogger(logger);
+        try {
+            run(systemProperties);
+        } finally {
+            Log.setLogger(new Log.Logger());
+            Log.INFO();
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+
     public static void run(Config config) throws Throwable {
+        runOnce(config, () -> {
+            backportDirectory(config);
+            return null;
+        });
+    }
+
+    /**
+     * Backports classes which are already in memory, without writing them to disk.
+     * The input and output directories of the configuration are not used, nor the
+     * options for backporting big projects from disk (incremental cache, low memory,
+     * writer threads). The classpath is used for the classes which are not backported.
+     *
+     * @param inputClasses the bytecode of the classes to backport, by internal class name
+     * @return the backported classes, including the generated lambda classes and
+     * interface companion classes, by internal class name
+     */
+    public static Map<String, byte[]> run(Config config, Map<String, byte[]> inputClasses) throws Throwable {
+        return runOnce(config, () -> backportInMemory(config, inputClasses));
+    }
+
+    private static <T> T runOnce(Config config, Backport<T> backport) throws Throwable {
+        Path metricsFile = config.getMetricsFile();
+        Metrics metrics = Metrics.begin(metricsFile != null);
+        T result;
+        try (Metrics.Timer timer = Metrics.time(Metrics.TOTAL)) {
+            result = backport.run();
+        } finally {
+            Metrics.begin(false);
+            // the JVM may be reused for more runs, e.g. in the daemon or worker mode
+            Agent.setLambdaClassSaver(null, false);
+        }
+        if (metricsFile != null) {
+            metrics.writeJson(metricsFile);
+        }
+        return result;
+    }
+
+    private interface Backport<T> {
+        T run() throws Throwable;
+    }
+
+    private static Map<String, byte[]> backportInMemory(Config config, Map<String, byte[]> inputClasses) throws Throwable {
+        int bytecodeVersion = config.getBytecodeVersion();
+        boolean defaultMethodsEnabled = config.isDefaultMethodsEnabled();
+        List<Path> classpath = config.getClasspath();
+        boolean isJavacHacksEnabled = config.isJavacHacksEnabled();
+        int threads = config.getThreads();
+        if (config.isQuiet()) {
+            Log.WARN();
+        } else {
+            Log.INFO();
+        }
+        Log.info("Backporting " + inputClasses.size() + " classes in memory to bytecode version "
+                + bytecodeVersion + " (" + Bytecode.getJavaVersion(bytecodeVersion) + ")");
+
+        Map<String, byte[]> outputClasses = Collections.synchronizedMap(new TreeMap<>());
+        OutputDirectory outputDirectory = new OutputDirectory(Paths.get("")) {
+            @Override
+            public void writeClass(byte[] bytecode, boolean isJavacHacksEnabled) {
+                if (bytecode != null) {
+                    outputClasses.put(new ClassReader(bytecode).getClassName(), bytecode);
+                }
+            }
+        };
+        ClassAnalyzer analyzer = new ClassAnalyzer();
+        Transformers transformers = new Transformers(bytecodeVersion, defaultMethodsEnabled, LambdaOptions.from(config), analyzer);
+        LambdaClassSaver lambdaClassSaver = new LambdaClassSaver(outputDirectory, transformers, isJavacHacksEnabled);
+        if (defaultMethodsEnabled) {
+            readAnalysisSummaries(classpath, null, null, analyzer);
+        }
+
+        NonDelegatingClassLoader classLoader = new NonDelegatingClassLoader(asUrls(classpath), new ClasspathIndex(classpath, null), inputClasses::get);
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try (NonDelegatingClassLoader closedClassLoader = classLoader;
+             LambdaClassDumper dumper = new LambdaClassDumper(lambdaClassSaver)) {
+            installLambdaClassSaver(config.isGenerateLambdaClasses(), lambdaClassSaver, transformers, isJavacHacksEnabled, dumper);
+
+            for (byte[] bytecode : inputClasses.values()) {
+                Metrics.count(Metrics.BYTES_READ, bytecode.length);
+                try (Metrics.Timer timer = Metrics.time(Metrics.ANALYZE);
+                     FlightRecorderEvents.Span span = FlightRecorderEvents.analyzeClass(bytecode)) {
+                    analyzer.analyze(bytecode, isJavacHacksEnabled);
+                }
+            }
+            List<byte[]> transformed = backportClasses(transformers, analyzer.getInterfaces(), analyzer.getClasses(),
+                    threads, task -> task);
+            for (byte[] bytecode : transformed) {
+                outputDirectory.writeClass(bytecode, isJavacHacksEnabled);
+            }
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+        return outputClasses;
+    }
+
+    private static void backportDirectory(Config config) throws Throwable {
         int bytecodeVersion = config.getBytecodeVersion();
         boolean defaultMethodsEnabled = config.isDefaultMethodsEnabled();
         Path inputDir = config.getInputDir();
@@ -33,6 +156,15 @@ public class Retrolambda {
         List<Path> classpath = config.getClasspath();
         List<Path> includedFiles = config.getIncludedFiles();
         boolean isJavacHacksEnabled = config.isJavacHacksEnabled();
+        int threads = config.getThreads();
+        int writerThreads = config.getWriterThreads();
+        Path incrementalCacheDir = config.getIncrementalCacheDir();
+        boolean lowMemory = config.isLowMemory();
+        boolean generateLambdaClasses = config.isGenerateLambdaClasses();
+        LambdaOptions lambdaOptions = LambdaOptions.from(config);
+        boolean skipUnchangedFiles = config.isSkipUnchangedFiles();
+        int multiReleaseVersion = config.getMultiReleaseVersion();
+        Path metricsFile = config.getMetricsFile();
         if (config.isQuiet()) {
             Log.WARN();
         } else {
@@ -47,59 +179,304 @@ public class Retrolambda {
         Log.info("JVM version:      " + System.getProperty("java.version"));
         Log.info("Agent enabled:    " + Agent.isEnabled());
         Log.info("javac hacks:      " + isJavacHacksEnabled);
+        Log.info("Threads:          " + threads);
+        Log.info("Writer threads:   " + writerThreads);
+        Log.info("Incremental:      " + (incrementalCacheDir != null ? incrementalCacheDir : "disabled"));
+        Log.info("Low memory:       " + lowMemory);
+        Log.info("Generate lambdas: " + generateLambdaClasses);
+        Log.info("Dedupe lambdas:   " + lambdaOptions.deduplicateLambdas);
+        Log.info("Group lambdas:    " + lambdaOptions.groupLambdas);
+        Log.info("Inline factories: " + lambdaOptions.inlineLambdaFactories);
+        Log.info("Hash lambdas:     " + lambdaOptions.hashLambdaNames);
+        Log.info("Skip unchanged:   " + skipUnchangedFiles);
+        Log.info("Multi-release:    " + (multiReleaseVersion > 0 ? "Java " + multiReleaseVersion : "disabled"));
+        Log.info("Metrics file:     " + (metricsFile != null ? metricsFile : "disabled"));
 
-        if (!Files.isDirectory(inputDir)) {
-            Log.info("Nothing to do; not a directory: " + inputDir);
-            return;
-        }
+        IncrementalCache cache;
+        // closing the archives writes the output archive, after the writer has finished
+        try (Archives archives = new Archives()) {
+            inputDir = archives.openInput(inputDir);
+            if (!Files.isDirectory(inputDir)) {
+                Log.info("Nothing to do; not a directory: " + inputDir);
+                return;
+            }
+            outputDir = archives.openOutput(outputDir);
+            if (includedFiles != null && !inputDir.getFileSystem().equals(FileSystems.getDefault())) {
+                Log.warn("Included files are not supported with an input archive; processing all files");
+                includedFiles = null;
+            }
 
-        Thread.currentThread().setContextClassLoader(new NonDelegatingClassLoader(asUrls(classpath)));
+            cache = incrementalCacheDir != null
+                    ? IncrementalCache.load(incrementalCacheDir, getFingerprint(config), isSameDirectory(inputDir, outputDir))
+                    : IncrementalCache.disabled();
 
-        ClassAnalyzer analyzer = new ClassAnalyzer();
-        OutputDirectory outputDirectory = new OutputDirectory(outputDir);
-        Transformers transformers = new Transformers(bytecodeVersion, defaultMethodsEnabled, analyzer);
-        LambdaClassSaver lambdaClassSaver = new LambdaClassSaver(outputDirectory, transformers, isJavacHacksEnabled);
+            ClasspathIndex classpathIndex = new ClasspathIndex(classpath,
+                    incrementalCacheDir != null ? incrementalCacheDir.resolve(ClasspathIndex.CACHE_FILE) : null);
+            NonDelegatingClassLoader classLoader = new NonDelegatingClassLoader(asUrls(classpath), classpathIndex, cache::getOriginalBytecode);
+            Thread.currentThread().setContextClassLoader(classLoader);
 
-        try (LambdaClassDumper dumper = new LambdaClassDumper(lambdaClassSaver)) {
-            if (Agent.isEnabled()) {
-                Agent.setLambdaClassSaver(lambdaClassSaver, isJavacHacksEnabled);
-            } else {
-                dumper.install();
-            }
+            ClassAnalyzer analyzer = new ClassAnalyzer();
+            BackgroundWriter writer = writerThreads > 0 ? new BackgroundWriter(writerThreads) : null;
+            OutputDirectory outputDirectory = cache.recordingOutputs(outputDir, skipUnchangedFiles, writer);
+            MultiReleaseJar multiRelease = multiReleaseVersion > 0
+                    ? new MultiReleaseJar(outputDirectory, multiReleaseVersion, bytecodeVersion)
+                    : null;
+            Transformers transformers = new Transformers(bytecodeVersion, defaultMethodsEnabled, lambdaOptions, analyzer);
+            LambdaClassSaver lambdaClassSaver = new LambdaClassSaver(outputDirectory, transformers, isJavacHacksEnabled);
 
-            visitFiles(inputDir, includedFiles, new ClasspathVisitor() {
-                @Override
-                protected void visitClass(byte[] bytecode) {
-                    analyzer.analyze(bytecode, isJavacHacksEnabled);
+            try (NonDelegatingClassLoader closedClassLoader = classLoader;
+                 BackgroundWriter closedWriter = writer;
+                 LambdaClassDumper dumper = new LambdaClassDumper(lambdaClassSaver)) {
+                if (defaultMethodsEnabled) {
+                    readAnalysisSummaries(classpath, config.getInputDir(), config.getOutputDir(), analyzer);
                 }
+                installLambdaClassSaver(generateLambdaClasses, lambdaClassSaver, transformers, isJavacHacksEnabled, dumper);
 
-                @Override
-                protected void visitResource(Path relativePath, byte[] content) throws IOException {
-                    outputDirectory.writeFile(relativePath, content);
+                try (Metrics.Timer timer = Metrics.time(Metrics.WALK_FILES)) {
+                    visitFiles(inputDir, includedFiles, new ClasspathVisitor() {
+                        @Override
+                        protected void visitClass(Path file, byte[] bytecode) throws IOException {
+                            Metrics.count(Metrics.BYTES_READ, bytecode.length);
+                            bytecode = cache.toOriginalBytecode(bytecode);
+                            if (bytecode == null) {
+                                return;
+                            }
+                            if (multiRelease != null) {
+                                multiRelease.writeOriginalClass(bytecode);
+                            }
+                            try (Metrics.Timer timer = Metrics.time(Metrics.ANALYZE);
+                                 FlightRecorderEvents.Span span = FlightRecorderEvents.analyzeClass(bytecode)) {
+                                if (lowMemory) {
+                                    analyzer.analyze(bytecode, isJavacHacksEnabled, () -> readOriginalBytecode(file, cache));
+                                } else {
+                                    analyzer.analyze(bytecode, isJavacHacksEnabled);
+                                }
+                            }
+                        }
+
+                        @Override
+                        protected void visitResource(Path relativePath, Path file) throws IOException {
+                            if (multiRelease != null && MultiReleaseJar.isManifest(relativePath)) {
+                                multiRelease.writeManifest(file);
+                            } else {
+                                outputDirectory.copyFile(relativePath, file);
+                            }
+                        }
+                    });
+                }
+
+                // Without the included files, we know whether the input had a manifest.
+                if (multiRelease != null && includedFiles == null) {
+                    multiRelease.writeManifestIfMissing();
                 }
-            });
 
-            // Because Transformers.backportLambdaClass() analyzes the lambda class,
-            // adding it to the analyzer's list of classes, we must take care to
-            // use the list of classes before that happened, or else we might accidentally
-            // overwrite the lambda class.
-            List<ClassInfo> interfaces = analyzer.getInterfaces();
-            List<ClassInfo> classes = analyzer.getClasses();
+                // Because Transformers.backportLambdaClass() analyzes the lambda class,
+                // adding it to the analyzer's list of classes, we must take care to
+                // use the list of classes before that happened, or else we might accidentally
+                // overwrite the lambda class.
+                List<ClassInfo> interfaces = notUpToDate(analyzer.getInterfaces(), cache, outputDir);
+                List<ClassInfo> classes = notUpToDate(analyzer.getClasses(), cache, outputDir);
 
-            List<byte[]> transformed = new ArrayList<>();
-            for (ClassInfo c : interfaces) {
-                transformed.addAll(transformers.backportInterface(c.reader));
+                // The summary lets the modules which depend on this one be backported separately.
+                // Only some of the classes are analyzed when the included files are specified.
+                if (defaultMethodsEnabled && includedFiles == null) {
+                    outputDirectory.writeFile(Paths.get(AnalysisSummary.PATH), AnalysisSummary.write(analyzer));
+                }
+
+                // With a background writer, the backported classes are written as soon as they
+                // are ready, if that can't change the classes which are read from the classpath
+                // for the lambda metafactory or for the supertypes of the generated lambda classes.
+                boolean writeEarly = writer != null && !isOnClasspath(config.getOutputDir(), classpath);
+
+                // In low memory mode the backported classes are kept in a temporary directory
+                // instead of the heap, until it's safe to write them to the output directory.
+                boolean spill = lowMemory && !writeEarly;
+                Path spillDir = spill ? Files.createTempDirectory("retrolambda") : null;
+                OutputDirectory spillDirectory = spill ? new OutputDirectory(spillDir) : null;
+
+                try {
+                    List<byte[]> transformed = backportClasses(transformers, interfaces, classes, threads, task -> {
+                        if (writeEarly) {
+                            return writeTo(outputDirectory, task, isJavacHacksEnabled);
+                        } else if (spill) {
+                            return writeTo(spillDirectory, task, isJavacHacksEnabled);
+                        }
+                        return task;
+                    });
+
+                    // We may need to load some of the classes (for calling the lambda metafactory)
+                    // so we need to take care not to modify any bytecode before loading them.
+                    for (byte[] bytecode : transformed) {
+                        outputDirectory.writeClass(bytecode, isJavacHacksEnabled);
+                    }
+                    if (spill) {
+                        moveSpilledClasses(spillDir, outputDirectory, isJavacHacksEnabled);
+                    }
+                } finally {
+                    if (spill) {
+                        deleteRecursively(spillDir);
+                    }
+                }
             }
-            for (ClassInfo c : classes) {
-                transformed.add(transformers.backportClass(c.reader));
+            if (includedFiles == null) {
+                cache.removeDeletedOutputs(outputDir);
             }
+        }
+        if (cache.isEnabled()) {
+            Log.info("Skipped " + cache.getUpToDateCount() + " up-to-date classes");
+            cache.save(includedFiles == null);
+        }
+    }
 
-            // We need to load some of the classes (for calling the lambda metafactory)
-            // so we need to take care not to modify any bytecode before loading them.
-            for (byte[] bytecode : transformed) {
+    private static void readAnalysisSummaries(List<Path> classpath, Path inputDir, Path outputDir, ClassAnalyzer analyzer) throws IOException {
+        int count = 0;
+        for (Path entry : classpath) {
+            if (isInputOrOutput(entry, inputDir, outputDir)) {
+                continue; // the summary of a previous run over the classes which are now analyzed again
+            }
+            count += AnalysisSummary.read(entry, analyzer);
+        }
+        if (count > 0) {
+            Log.info("Read the analysis summaries of " + count + " classes from the classpath");
+        }
+    }
+
+    private static void installLambdaClassSaver(boolean generateLambdaClasses, LambdaClassSaver lambdaClassSaver, Transformers transformers,
+                                                boolean isJavacHacksEnabled, LambdaClassDumper dumper) {
+        if (generateLambdaClasses) {
+            transformers.setLambdaClassGenerator(new LambdaClassGenerator(lambdaClassSaver));
+        } else if (Agent.isEnabled()) {
+            Agent.setLambdaClassSaver(lambdaClassSaver, isJavacHacksEnabled);
+        } else {
+            dumper.install();
+        }
+    }
+
+    private static List<ClassInfo> notUpToDate(List<ClassInfo> classes, IncrementalCache cache, Path outputDir) {
+        List<ClassInfo> results = new ArrayList<>();
+        for (ClassInfo c : classes) {
+            if (!cache.isUpToDate(c.type.getInternalName(), outputDir)) {
+                results.add(c);
+            }
+        }
+        return results;
+    }
+
+    private static List<byte[]> backportClasses(Transformers transformers, List<ClassInfo> interfaces, List<ClassInfo> classes, int threads,
+                                                UnaryOperator<Callable<List<byte[]>>> decorateTask) throws Throwable {
+        // Retrolambda chooses the lambda class names itself, per enclosing class,
+        // so also the classes which contain lambdas can be backported in parallel.
+        List<Callable<List<byte[]>>> tasks = new ArrayList<>();
+        for (ClassInfo c : interfaces) {
+            Metrics.count(Metrics.INTERFACES, 1);
+            tasks.add(decorateTask.apply(() -> transformers.backportInterface(c.getReader())));
+        }
+        for (ClassInfo c : classes) {
+            Metrics.count(Metrics.CLASSES, 1);
+            tasks.add(decorateTask.apply(() -> transformers.backportClass(c.getReader())));
+        }
+
+        if (threads > 1) {
+            return runInParallel(tasks, threads);
+        }
+        List<byte[]> transformed = new ArrayList<>();
+        for (Callable<List<byte[]>> task : tasks) {
+            transformed.addAll(task.call());
+        }
+        return transformed;
+    }
+
+    private static byte[] readOriginalBytecode(Path file, IncrementalCache cache) {
+        try {
+            byte[] bytecode = Files.readAllBytes(file);
+            Metrics.count(Metrics.BYTES_READ, bytecode.length);
+            byte[] original = cache.getOriginalBytecode(new ClassReader(bytecode).getClassName());
+            return original != null ? original : bytecode;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + file, e);
+        }
+    }
+
+    private static Callable<List<byte[]>> writeTo(OutputDirectory outputDirectory, Callable<List<byte[]>> task, boolean isJavacHacksEnabled) {
+        return () -> {
+            for (byte[] bytecode : task.call()) {
+                outputDirectory.writeClass(bytecode, isJavacHacksEnabled);
+            }
+            return Collections.emptyList();
+        };
+    }
+
+    private static void moveSpilledClasses(Path spillDir, OutputDirectory outputDirectory, boolean isJavacHacksEnabled) throws IOException {
+        Files.walkFileTree(spillDir, new ClasspathVisitor() {
+            @Override
+            protected void visitClass(Path file, byte[] bytecode) throws IOException {
                 outputDirectory.writeClass(bytecode, isJavacHacksEnabled);
+                Files.delete(file);
             }
+
+            @Override
+            protected void visitResource(Path relativePath, Path file) {
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return super.postVisitDirectory(dir, exc);
+            }
+        });
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return super.postVisitDirectory(dir, exc);
+            }
+        });
+    }
+
+    private static boolean isSameDirectory(Path dir1, Path dir2) throws IOException {
+        return Files.exists(dir2) && Files.isSameFile(dir1, dir2);
+    }
+
+    private static boolean isInputOrOutput(Path classpathEntry, Path inputDir, Path outputDir) throws IOException {
+        if (!Files.exists(classpathEntry)) {
+            return false;
         }
+        return inputDir != null && isSameDirectory(classpathEntry, inputDir)
+                || outputDir != null && isSameDirectory(classpathEntry, outputDir);
+    }
+
+    private static boolean isOnClasspath(Path outputDir, List<Path> classpath) throws IOException {
+        for (Path path : classpath) {
+            if (path.equals(outputDir) || Files.exists(path) && isSameDirectory(path, outputDir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getFingerprint(Config config) {
+        return "bytecodeVersion=" + config.getBytecodeVersion() +
+                " defaultMethods=" + config.isDefaultMethodsEnabled() +
+                " javacHacks=" + config.isJavacHacksEnabled() +
+                " generateLambdaClasses=" + config.isGenerateLambdaClasses() +
+                " deduplicateLambdas=" + config.isDeduplicateLambdas() +
+                " groupLambdas=" + config.isGroupLambdas() +
+                " inlineLambdaFactories=" + config.isInlineLambdaFactories() +
+                " hashLambdaNames=" + config.isHashLambdaNames() +
+                " multiReleaseVersion=" + config.getMultiReleaseVersion() +
+                " classpath=" + config.getClasspath();
     }
 
     static void visitFiles(Path inputDir, List<Path> includedFiles, FileVisitor<Path> visitor) throws IOException {
@@ -109,6 +486,30 @@ public class Retrolambda {
         Files.walkFileTree(inputDir, visitor);
     }
 
+    private static List<byte[]> runInParallel(List<Callable<List<byte[]>>> tasks, int threads) throws Throwable {
+        if (tasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<byte[]>>> futures = new ArrayList<>();
+            for (Callable<List<byte[]>> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            List<byte[]> results = new ArrayList<>();
+            for (Future<List<byte[]>> future : futures) {
+                try {
+                    results.addAll(future.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private static URL[] asUrls(List<Path> classpath) {
         return classpath.stream()
                 .map(Path::toUri)
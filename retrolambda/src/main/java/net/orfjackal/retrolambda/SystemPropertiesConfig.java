@@ -4,6 +4,7 @@
 
 package net.orfjackal.retrolambda;
 
+import net.orfjackal.retrolambda.files.MultiReleaseJar;
 import org.objectweb.asm.Opcodes;
 
 import java.io.*;
@@ -74,7 +75,9 @@ public class SystemPropertiesConfig implements Config {
                 "Whether to backport default methods and static methods on interfaces.",
                 "LIMITATIONS: All backported interfaces and all classes which implement",
                 "them or call their static methods must be backported together,",
-                "with one execution of Retrolambda.",
+                "with one execution of Retrolambda, or else the backported interfaces",
+                "must be on the classpath together with the analysis summary which",
+                "Retrolambda writes to " + AnalysisSummary.PATH + ".",
                 "Disabled by default. Enable by setting to \"true\"");
 
     }
@@ -89,7 +92,8 @@ public class SystemPropertiesConfig implements Config {
 
     static {
         requiredParameterHelp(INPUT_DIR,
-                "Input directory from where the original class files are read.");
+                "Input directory from where the original class files are read.",
+                "May also be a JAR or ZIP file.");
     }
 
     @Override
@@ -107,6 +111,7 @@ public class SystemPropertiesConfig implements Config {
     static {
         optionalParameterHelp(OUTPUT_DIR,
                 "Output directory into where the generated class files are written.",
+                "May also be a JAR or ZIP file, which is created if it doesn't exist.",
                 "Defaults to same as " + INPUT_DIR);
     }
 
@@ -191,6 +196,25 @@ public class SystemPropertiesConfig implements Config {
     }
 
 
+    // incremental cache
+
+    static {
+        optionalParameterHelp(INCREMENTAL_CACHE_DIR,
+                "Directory for remembering what was backported on the previous run.",
+                "Classes are backported again only if they or the classes they",
+                "depend on have changed. Disabled by default.");
+    }
+
+    @Override
+    public Path getIncrementalCacheDir() {
+        String dir = p.getProperty(INCREMENTAL_CACHE_DIR);
+        if (dir != null) {
+            return Paths.get(dir);
+        }
+        return null;
+    }
+
+
     // useJavac8ReadLabelHack
 
     static {
@@ -206,6 +230,232 @@ public class SystemPropertiesConfig implements Config {
     }
 
 
+    // threads
+
+    static {
+        optionalParameterHelp(THREADS,
+                "Number of threads to use for backporting classes in parallel.",
+                "The output is the same regardless of this setting.",
+                "Default value is 1");
+    }
+
+    @Override
+    public int getThreads() {
+        int threads = Integer.parseInt(p.getProperty(THREADS, "1"));
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid value for " + THREADS + ": " + threads);
+        }
+        return threads;
+    }
+
+
+    // writer threads
+
+    static {
+        optionalParameterHelp(WRITER_THREADS,
+                "Number of threads to use for writing the output files in the",
+                "background, while the classes are being backported. The output",
+                "is the same regardless of this setting.",
+                "Default value is 0, which writes the files without background threads");
+    }
+
+    @Override
+    public int getWriterThreads() {
+        int threads = Integer.parseInt(p.getProperty(WRITER_THREADS, "0"));
+        if (threads < 0) {
+            throw new IllegalArgumentException("Invalid value for " + WRITER_THREADS + ": " + threads);
+        }
+        return threads;
+    }
+
+
+    // low memory
+
+    static {
+        optionalParameterHelp(LOW_MEMORY,
+                "Whether to keep only a summary of each class in memory and read",
+                "the bytecode again from the disk when it's needed. Reduces the",
+                "memory usage on big projects, at the cost of some speed.",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    @Override
+    public boolean isLowMemory() {
+        return Boolean.parseBoolean(p.getProperty(LOW_MEMORY, "false"));
+    }
+
+
+    // generate lambda classes
+
+    static {
+        optionalParameterHelp(GENERATE_LAMBDA_CLASSES,
+                "Whether to generate the lambda classes directly from the bytecode,",
+                "instead of having Java 8's lambda metafactory generate them. Then",
+                "the classes don't need to be loaded, and Retrolambda can be run",
+                "on Java versions whose lambda metafactory it doesn't support.",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    @Override
+    public boolean isGenerateLambdaClasses() {
+        return Boolean.parseBoolean(p.getProperty(GENERATE_LAMBDA_CLASSES, "false"));
+    }
+
+
+    // deduplicate lambdas
+
+    static {
+        optionalParameterHelp(DEDUPLICATE_LAMBDAS,
+                "Whether to use the same lambda class for all the identical lambda",
+                "expressions and method references in a class. Reduces the number",
+                "of classes, but the lambda classes are then numbered differently.",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    @Override
+    public boolean isDeduplicateLambdas() {
+        return Boolean.parseBoolean(p.getProperty(DEDUPLICATE_LAMBDAS, "false"));
+    }
+
+
+    // group lambdas
+
+    static {
+        optionalParameterHelp(GROUP_LAMBDAS,
+                "Whether to generate only one lambda class for all the lambda",
+                "expressions and method references in a class which implement the",
+                "same functional interface. Reduces the number of classes, but the",
+                "lambda classes are then numbered differently and the lambdas are",
+                "called through a switch statement.",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    @Override
+    public boolean isGroupLambdas() {
+        return Boolean.parseBoolean(p.getProperty(GROUP_LAMBDAS, "false"));
+    }
+
+
+    // inline lambda factories
+
+    static {
+        optionalParameterHelp(INLINE_LAMBDA_FACTORIES,
+                "Whether to instantiate the lambda classes where the lambda",
+                "expressions are, instead of calling a factory method in the lambda",
+                "class. Reduces the number of methods, but the constructors of the",
+                "lambda classes are then not private.",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    @Override
+    public boolean isInlineLambdaFactories() {
+        return Boolean.parseBoolean(p.getProperty(INLINE_LAMBDA_FACTORIES, "false"));
+    }
+
+
+    // hash lambda names
+
+    static {
+        optionalParameterHelp(HASH_LAMBDA_NAMES,
+                "Whether to append a hash of the lambda to the lambda class names,",
+                "so that the name of a lambda class changes whenever the lambda",
+                "changes. The lambda classes are anyways numbered in the order of",
+                "the lambda expressions in their enclosing class.",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    @Override
+    public boolean isHashLambdaNames() {
+        return Boolean.parseBoolean(p.getProperty(HASH_LAMBDA_NAMES, "false"));
+    }
+
+
+    // skip unchanged files
+
+    static {
+        optionalParameterHelp(SKIP_UNCHANGED_FILES,
+                "Whether to leave alone the output files which already have the",
+                "same content, so that their modification times don't change and",
+                "incremental tools which process the output don't redo their work.",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    @Override
+    public boolean isSkipUnchangedFiles() {
+        return Boolean.parseBoolean(p.getProperty(SKIP_UNCHANGED_FILES, "false"));
+    }
+
+
+    // multi-release version
+
+    static {
+        optionalParameterHelp(MULTI_RELEASE_VERSION,
+                "Java version for a multi-release JAR file. The backported classes",
+                "are written as usual and the original classes under",
+                "META-INF/versions/<version>, where Java <version> and newer will",
+                "use them instead, and the JAR manifest is marked as multi-release.",
+                "Disabled by default. Enable by setting to " + MultiReleaseJar.MIN_VERSION + " or higher");
+    }
+
+    @Override
+    public int getMultiReleaseVersion() {
+        String version = p.getProperty(MULTI_RELEASE_VERSION);
+        if (version == null) {
+            return 0;
+        }
+        int javaVersion = Integer.parseInt(version);
+        if (javaVersion < MultiReleaseJar.MIN_VERSION) {
+            throw new IllegalArgumentException("Invalid value for " + MULTI_RELEASE_VERSION + ": " + javaVersion);
+        }
+        return javaVersion;
+    }
+
+
+    // metrics file
+
+    static {
+        optionalParameterHelp(METRICS_FILE,
+                "File for writing the time spent in each phase of backporting and",
+                "the number of classes, lambdas and bytes processed, in JSON format.",
+                "Disabled by default.");
+    }
+
+    @Override
+    public Path getMetricsFile() {
+        String file = p.getProperty(METRICS_FILE);
+        if (file != null) {
+            return Paths.get(file);
+        }
+        return null;
+    }
+
+
+    // daemon port
+
+    static {
+        optionalParameterHelp(DAEMON_PORT,
+                "Instead of backporting any classes, starts a daemon which listens",
+                "on this port of the loopback interface for backporting requests",
+                "from the Maven plugin. Saves the JVM startup and warm-up time",
+                "when the same daemon is used by many builds. Only the clients",
+                "which can read the daemon's token file in ~/.retrolambda",
+                "are accepted.",
+                "Disabled by default. Enable by setting to a port number");
+    }
+
+    public boolean isDaemon() {
+        return p.getProperty(DAEMON_PORT) != null;
+    }
+
+    public int getDaemonPort() {
+        int port = Integer.parseInt(p.getProperty(DAEMON_PORT));
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid value for " + DAEMON_PORT + ": " + port);
+        }
+        return port;
+    }
+
+
     // quiet
 
     static {
@@ -5,9 +5,11 @@
 package net.orfjackal.retrolambda;
 
 import net.orfjackal.retrolambda.interfaces.*;
+import net.orfjackal.retrolambda.jfr.FlightRecorderEvents;
 import net.orfjackal.retrolambda.lambdas.*;
 import net.orfjackal.retrolambda.requirenonnull.RequireNonNull;
 import net.orfjackal.retrolambda.trywithresources.SwallowSuppressedExceptions;
+import net.orfjackal.retrolambda.util.*;
 import org.objectweb.asm.*;
 import org.objectweb.asm.tree.ClassNode;
 
@@ -18,49 +20,139 @@ public class Transformers {
 
     private final int targetVersion;
     private final boolean defaultMethodsEnabled;
+    private final LambdaOptions lambdaOptions;
     private final ClassAnalyzer analyzer;
+    private LambdaClassGenerator lambdaClassGenerator;
 
-    public Transformers(int targetVersion, boolean defaultMethodsEnabled, ClassAnalyzer analyzer) {
+    public Transformers(int targetVersion, boolean defaultMethodsEnabled, LambdaOptions lambdaOptions, ClassAnalyzer analyzer) {
         this.targetVersion = targetVersion;
         this.defaultMethodsEnabled = defaultMethodsEnabled;
+        this.lambdaOptions = lambdaOptions;
         this.analyzer = analyzer;
     }
 
+    /**
+     * Generates the lambda classes instead of capturing them from the lambda metafactory.
+     * Must be called before backporting any classes.
+     */
+    public void setLambdaClassGenerator(LambdaClassGenerator lambdaClassGenerator) {
+        this.lambdaClassGenerator = lambdaClassGenerator;
+    }
+
     public byte[] backportLambdaClass(ClassReader reader) {
-        return transform(reader, (next) -> {
-            if (defaultMethodsEnabled) {
-                // Lambda classes are generated dynamically, so they were not
-                // part of the original analytics and must be analyzed now,
-                // in case they implement interfaces with default methods.
-                analyzer.analyze(reader);
-                next = new UpdateRelocatedMethodInvocations(next, analyzer);
-                next = new AddMethodDefaultImplementations(next, analyzer);
-            } else {
-                next = new UpdateRelocatedMethodInvocations(next, analyzer); // needed for lambdas in an interface's constant initializer
-            }
-            next = new BackportLambdaClass(next);
-            return next;
-        });
+        try (Metrics.Timer timer = Metrics.time(Metrics.BACKPORT_LAMBDA_CLASS)) {
+            return transform(reader, (next) -> {
+                next = backportGeneratedClass(reader, next);
+                next = new BackportLambdaClass(next);
+                return next;
+            });
+        }
+    }
+
+    private byte[] backportLambdaGroupClass(ClassReader reader) {
+        // the lambda group classes are generated already in backported form
+        return transform(reader, (next) -> backportGeneratedClass(reader, next));
     }
 
-    public byte[] backportClass(ClassReader reader) {
-        return transform(reader, (next) -> {
+    private ClassVisitor backportGeneratedClass(ClassReader reader, ClassVisitor next) {
+        if (defaultMethodsEnabled) {
+            // Lambda classes are generated dynamically, so they were not
+            // part of the original analytics and must be analyzed now,
+            // in case they implement interfaces with default methods.
+            analyzer.analyze(reader);
+            next = new UpdateRelocatedMethodInvocations(next, analyzer);
+            next = new AddMethodDefaultImplementations(next, analyzer);
+        } else {
+            next = new UpdateRelocatedMethodInvocations(next, analyzer); // needed for lambdas in an interface's constant initializer
+        }
+        return next;
+    }
+
+    /**
+     * Returns the backported class, followed by the lambda group classes
+     * which were generated for it, if lambda grouping is enabled.
+     */
+    public List<byte[]> backportClass(ClassReader reader) {
+        try (Metrics.Timer timer = Metrics.time(Metrics.BACKPORT_CLASS)) {
+            return backportClass1(reader);
+        }
+    }
+
+    private List<byte[]> backportClass1(ClassReader reader) {
+        if (needsOnlyLowerBytecodeVersion(reader)) {
+            return Collections.singletonList(ClassFile.withVersion(reader, Math.min(ClassFile.getVersion(reader), targetVersion)));
+        }
+        List<byte[]> lambdaGroupClasses = lambdaOptions.groupLambdas ? new ArrayList<>() : null;
+        List<byte[]> results = new ArrayList<>();
+        results.add(transform(reader, (next) -> {
             if (defaultMethodsEnabled) {
-                next = new UpdateRelocatedMethodInvocations(next, analyzer);
+                if (hasLambdas(reader) || hasRelocatableMethodCalls(reader)) {
+                    next = new UpdateRelocatedMethodInvocations(next, analyzer);
+                }
                 next = new AddMethodDefaultImplementations(next, analyzer);
             }
-            next = new BackportLambdaInvocations(next, analyzer);
+            if (hasLambdas(reader)) {
+                next = new BackportLambdaInvocations(next, analyzer, lambdaOptions, lambdaGroupClasses, lambdaClassGenerator);
+            }
             return next;
-        });
+        }));
+        if (lambdaGroupClasses != null) {
+            for (byte[] bytecode : lambdaGroupClasses) {
+                results.add(backportLambdaGroupClass(new ClassReader(bytecode)));
+            }
+            Metrics.count(Metrics.LAMBDA_CLASSES, lambdaGroupClasses.size());
+        }
+        return results;
+    }
+
+    /**
+     * Whether no other transformation than {@link LowerBytecodeVersion} would change the class,
+     * so that it's enough to change the version number without visiting the whole class.
+     */
+    private boolean needsOnlyLowerBytecodeVersion(ClassReader reader) {
+        if (targetVersion < Opcodes.V1_6) {
+            return false; // the stack map frames would need to be removed
+        }
+        if (targetVersion < Opcodes.V1_7
+                && (ConstantPool.hasUtf8(reader, "addSuppressed")
+                || ConstantPool.hasUtf8(reader, "requireNonNull")
+                || ConstantPool.hasUtf8(reader, "java/lang/invoke/MethodHandles$Lookup"))) {
+            return false;
+        }
+        if (defaultMethodsEnabled
+                && !analyzer.getDefaultMethods(Type.getObjectType(reader.getClassName())).isEmpty()) {
+            return false;
+        }
+        if (defaultMethodsEnabled && ClassFile.hasSuperMethodCalls(reader)) {
+            return false; // may call an inherited default method
+        }
+        return !hasLambdas(reader)
+                && !ClassFile.hasNonVirtualInterfaceMethodCalls(reader);
+    }
+
+    private static boolean hasLambdas(ClassReader reader) {
+        return ConstantPool.hasInvokeDynamic(reader)
+                || ConstantPool.hasUtf8StartingWith(reader, LambdaNaming.LAMBDA_BODY_METHOD_PREFIX);
+    }
+
+    private static boolean hasRelocatableMethodCalls(ClassReader reader) {
+        return ClassFile.hasNonVirtualInterfaceMethodCalls(reader)
+                || ClassFile.hasSuperMethodCalls(reader);
     }
 
     public List<byte[]> backportInterface(ClassReader reader) {
+        try (Metrics.Timer timer = Metrics.time(Metrics.BACKPORT_INTERFACE)) {
+            return backportInterface1(reader);
+        }
+    }
+
+    private List<byte[]> backportInterface1(ClassReader reader) {
         // The lambdas must be backported only once, because bad things will happen if a lambda
         // is called by different class name in the interface and its companion class, and then
         // the wrong one of them is written to disk last.
         ClassNode lambdasBackported = new ClassNode();
         ClassVisitor next = lambdasBackported;
-        next = new BackportLambdaInvocations(next, analyzer);
+        next = new BackportLambdaInvocations(next, analyzer, lambdaOptions, null, lambdaClassGenerator);
         reader.accept(next, 0);
 
         List<byte[]> results = new ArrayList<>();
@@ -92,6 +184,7 @@ public class Transformers {
         if (!companion.isPresent()) {
             return Collections.emptyList();
         }
+        Metrics.count(Metrics.COMPANION_CLASSES, 1);
         return Arrays.asList(transform(clazz, (next) -> {
             next = new UpdateRelocatedMethodInvocations(next, analyzer);
             next = new ExtractInterfaceCompanionClass(next, companion.get());
@@ -100,36 +193,65 @@ public class Transformers {
     }
 
     private byte[] transform(ClassNode node, ClassVisitorChain chain) {
-        return transform(node.name, node::accept, chain);
+        return transform(node.name, null, node::accept, chain);
     }
 
     private byte[] transform(ClassReader reader, ClassVisitorChain chain) {
-        return transform(reader.getClassName(), cv -> reader.accept(cv, 0), chain);
+        return transform(reader.getClassName(), reader, cv -> reader.accept(cv, 0), chain);
     }
 
-    private byte[] transform(String className, Consumer<ClassVisitor> reader, ClassVisitorChain chain) {
+    /**
+     * @param source if not null, the method visitors are added only when they may change something,
+     *               because ASM copies as-is those methods which reach the ClassWriter unvisited
+     */
+    private byte[] transform(String className, ClassReader source, Consumer<ClassVisitor> reader, ClassVisitorChain chain) {
         try {
-            ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            ClassWriter writer = source != null && canCopyConstantPool(source)
+                    ? new ClassWriter(source, ClassWriter.COMPUTE_MAXS)
+                    : new ClassWriter(ClassWriter.COMPUTE_MAXS);
             ClassVisitor next = writer;
 
             next = new LowerBytecodeVersion(next, targetVersion);
             if (targetVersion < Opcodes.V1_7) {
-                next = new SwallowSuppressedExceptions(next);
+                if (source == null || ConstantPool.hasUtf8(source, "addSuppressed")) {
+                    next = new SwallowSuppressedExceptions(next);
+                }
                 next = new RemoveMethodHandlesLookupReferences(next);
-                next = new RequireNonNull(next);
+                if (source == null || ConstantPool.hasUtf8(source, "requireNonNull")) {
+                    next = new RequireNonNull(next);
+                }
+            }
+            if (source == null || hasLambdas(source) || ClassFile.hasNonVirtualInterfaceMethodCalls(source)) {
+                next = new FixInvokeStaticOnInterfaceMethod(next);
             }
-            next = new FixInvokeStaticOnInterfaceMethod(next);
             next = new UpdateRenamedEnclosingMethods(next, analyzer);
             next = chain.wrap(next);
 
-            reader.accept(next);
-            return writer.toByteArray();
+            try (FlightRecorderEvents.Span span = FlightRecorderEvents.transformClass(className, next)) {
+                reader.accept(next);
+                return writer.toByteArray();
+            }
 
         } catch (Throwable t) {
             throw new RuntimeException("Failed to backport class: " + className, t);
         }
     }
 
+    /**
+     * Whether the output class may start with the constant pool of the original class.
+     * Unused constants are left behind, so it's not done when that would leave
+     * references to APIs which the backported class must not depend on.
+     */
+    private boolean canCopyConstantPool(ClassReader source) {
+        if (!ConstantPool.hasOnlyPreJava7Constants(source)
+                || ConstantPool.hasUtf8StartingWith(source, "java/lang/invoke/")
+                || ConstantPool.hasUtf8StartingWith(source, "Ljava/lang/invoke/")) { // e.g. the removed LambdaForm$Hidden annotation
+            return false;
+        }
+        return targetVersion >= Opcodes.V1_7
+                || !(ConstantPool.hasUtf8(source, "addSuppressed") || ConstantPool.hasUtf8(source, "requireNonNull"));
+    }
+
     private interface ClassVisitorChain {
         ClassVisitor wrap(ClassVisitor next);
     }
@@ -0,0 +1,97 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import com.esotericsoftware.minlog.Log;
+import net.orfjackal.retrolambda.util.JsonReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Runs Retrolambda as a persistent worker of Bazel's JSON worker protocol,
+ * so that a build with many targets doesn't need to start a JVM for each of
+ * them. Each work request's arguments are configuration properties in the
+ * same form as on the command line, for example "-Dretrolambda.inputDir=classes".
+ * Like in the daemon, the requests are processed one at a time.
+ */
+public class Worker {
+
+    public static final String PERSISTENT_WORKER_FLAG = "--persistent_worker";
+
+    private final Properties defaults;
+
+    /**
+     * @param defaults the configuration which the work requests' arguments add to
+     */
+    public Worker(Properties defaults) {
+        this.defaults = defaults;
+    }
+
+    public void run(InputStream in, OutputStream out) throws IOException {
+        JsonReader requests = new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        Writer responses = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        while (requests.hasNext()) {
+            Object request = requests.next();
+            if (!(request instanceof Map)) {
+                throw new IOException("Expected a work request, but got: " + request);
+            }
+            responses.write(handleRequest((Map<?, ?>) request));
+            responses.write('\n');
+            responses.flush();
+        }
+    }
+
+    private String handleRequest(Map<?, ?> request) {
+        Object requestId = request.get("requestId");
+        StringBuilder output = new StringBuilder();
+        Log.Logger logger = new Log.Logger() {
+            @Override
+            protected void print(String message) {
+                synchronized (output) { // may be called from the worker threads
+                    output.append(message).append('\n');
+                }
+            }
+        };
+        int exitCode;
+        try {
+            Properties config = new Properties();
+            config.putAll(defaults);
+            Object arguments = request.get("arguments");
+            if (arguments != null) {
+                parseArguments((List<?>) arguments, config);
+            }
+            Retrolambda.runIsolated(config, logger);
+            exitCode = 0;
+        } catch (Throwable t) {
+            logger.log(Log.LEVEL_ERROR, null, "Failed to run Retrolambda", t);
+            exitCode = 1;
+        }
+        synchronized (output) {
+            return "{\"exitCode\":" + exitCode
+                    + ",\"output\":" + JsonReader.quote(output.toString())
+                    + ",\"requestId\":" + (requestId instanceof Number ? requestId : 0)
+                    + "}";
+        }
+    }
+
+    /**
+     * Parses arguments of the form "-Dname=value", as if they were system properties.
+     */
+    static void parseArguments(List<?> arguments, Properties config) {
+        for (Object argument : arguments) {
+            String arg = String.valueOf(argument);
+            if (arg.equals(PERSISTENT_WORKER_FLAG)) {
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("-D") || separator < 0) {
+                throw new IllegalArgumentException("Expected an argument of the form -Dname=value, but got: " + arg);
+            }
+            config.setProperty(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+    }
+}
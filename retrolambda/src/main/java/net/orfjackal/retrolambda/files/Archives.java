@@ -0,0 +1,89 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+
+/**
+ * Opens JAR and ZIP files as file systems, so that they can be used in place
+ * of the input and output directories. The changes to an output archive are
+ * written when this is closed.
+ */
+public class Archives implements Closeable {
+
+    private final Map<Path, FileSystem> openArchives = new LinkedHashMap<>();
+
+    public static boolean isArchive(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        return name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    /**
+     * Returns the root directory of the archive, or the path as-is if it's not an existing archive.
+     */
+    public Path openInput(Path path) throws IOException {
+        if (!isArchive(path) || !Files.isRegularFile(path)) {
+            return path;
+        }
+        return open(path);
+    }
+
+    /**
+     * Returns the root directory of the archive, which is created if it doesn't exist,
+     * or the path as-is if it's not an archive. Opening the same archive as
+     * the input will backport it in-place.
+     */
+    public Path openOutput(Path path) throws IOException {
+        if (!isArchive(path)) {
+            return path;
+        }
+        return open(path);
+    }
+
+    private Path open(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        Path key = Files.exists(path) ? path.toRealPath() : path.toAbsolutePath().normalize();
+        FileSystem fs = openArchives.get(key);
+        if (fs == null) {
+            fs = getZipProvider().newFileSystem(key, Collections.singletonMap("create", "true"));
+            openArchives.put(key, fs);
+        }
+        return fs.getPath("/");
+    }
+
+    private static FileSystemProvider getZipProvider() {
+        for (FileSystemProvider provider : FileSystemProvider.installedProviders()) {
+            if (provider.getScheme().equals("jar")) {
+                return provider;
+            }
+        }
+        throw new ProviderNotFoundException("ZIP file system not available");
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (FileSystem fs : openArchives.values()) {
+            try {
+                fs.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        openArchives.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+}
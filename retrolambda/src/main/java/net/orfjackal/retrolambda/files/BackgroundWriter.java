@@ -0,0 +1,94 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Writes the output files on background threads, so that backporting the
+ * classes doesn't need to wait for the file system. The writes to the same
+ * file are done in the order they were submitted. When too many writes are
+ * pending, the submitter waits, to bound the memory used by the queue.
+ */
+public class BackgroundWriter implements Closeable {
+
+    private static final int MAX_PENDING_WRITES_PER_THREAD = 64;
+
+    // Lambdas are not used here, because files are written also when saving
+    // lambda classes and the lambda metafactory must not be used then.
+    private final ExecutorService[] lanes;
+    private final Semaphore pendingWrites;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public BackgroundWriter(int threads) {
+        lanes = new ExecutorService[threads];
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "retrolambda-writer-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        pendingWrites = new Semaphore(threads * MAX_PENDING_WRITES_PER_THREAD);
+    }
+
+    public void submit(Path file, Write write) throws IOException {
+        checkFailure();
+        pendingWrites.acquireUninterruptibly();
+        ExecutorService lane = lanes[Math.floorMod(file.hashCode(), lanes.length)];
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (failure.get() == null) {
+                        write.run();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    pendingWrites.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for all the submitted writes to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ExecutorService lane : lanes) {
+                lane.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the output files");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new IOException("Failed to write the output files", t);
+        }
+    }
+
+    public interface Write {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,373 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.*;
+import java.util.zip.*;
+
+/**
+ * Finds classes from the classpath by their package, instead of trying every
+ * JAR file in the classpath like URLClassLoader does. The packages of each JAR
+ * file can be cached on disk, so that a JAR file is opened only when a class is
+ * loaded from it. Directories are always tried, because their contents change.
+ * <p>
+ * Like URLClassLoader, follows the {@code Class-Path} entries of the JAR files'
+ * manifests. The referenced JAR files and directories are searched right after
+ * the JAR file which refers to them.
+ * <p>
+ * The index is built once, on the first lookup. After that the lookups don't
+ * lock, so that many threads can load classes at the same time.
+ */
+public class ClasspathIndex implements Closeable {
+
+    public static final String CACHE_FILE = "classpath-index";
+
+    private static final String CACHE_HEADER = "retrolambda-classpath-index 2";
+    private static final String NO_PACKAGES = "-";
+    private static final String DEFAULT_PACKAGE = ".";
+
+    private final List<Path> classpath;
+    private final Path cacheFile;
+
+    private volatile Index index;
+    private final Queue<Jar> openedJars = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param cacheFile if not null, the packages of the JAR files are remembered in this file
+     */
+    public ClasspathIndex(List<Path> classpath, Path cacheFile) {
+        this.classpath = classpath;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * @return the bytecode of the class, or null if it's not in the classpath
+     */
+    public byte[] findClass(String internalName) throws IOException {
+        FoundClass found = find(internalName);
+        return found == null ? null : found.bytecode;
+    }
+
+    /**
+     * @return the class and where it was found, or null if it's not in the classpath
+     */
+    public FoundClass find(String internalName) throws IOException {
+        Index index = getIndex();
+        List<Entry> directories = index.directories;
+        List<Entry> jars = index.jarsByPackage.getOrDefault(packageOf(internalName), Collections.emptyList());
+        String resource = internalName + ".class";
+        // the first one in classpath order wins
+        int d = 0;
+        int j = 0;
+        while (d < directories.size() || j < jars.size()) {
+            Entry entry;
+            if (j >= jars.size() || (d < directories.size() && directories.get(d).position < jars.get(j).position)) {
+                entry = directories.get(d++);
+            } else {
+                entry = jars.get(j++);
+            }
+            FoundClass found = entry.read(resource);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private Index getIndex() throws IOException {
+        Index index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                index = this.index;
+                if (index == null) {
+                    index = build();
+                    this.index = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private Index build() throws IOException {
+        Map<String, CachedJar> cached = readCache();
+        Map<String, CachedJar> current = new LinkedHashMap<>();
+        boolean changed = false;
+        List<Entry> directories = new ArrayList<>();
+        Map<String, List<Entry>> jarsByPackage = new HashMap<>();
+        // Like in URLClassLoader, a JAR file's Class-Path entries are searched right after it
+        Deque<Path> pending = new ArrayDeque<>();
+        for (int i = classpath.size() - 1; i >= 0; i--) {
+            pending.push(classpath.get(i));
+        }
+        Set<Path> visited = new HashSet<>();
+        int position = 0;
+        while (!pending.isEmpty()) {
+            Path path = pending.pop();
+            if (!visited.add(path.toAbsolutePath().normalize())) {
+                continue;
+            }
+            position++;
+            if (Files.isDirectory(path)) {
+                directories.add(new Directory(position, path));
+            } else if (Files.isRegularFile(path)) {
+                String key = path.toAbsolutePath().toString();
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                CachedJar jar = cached.get(key);
+                if (jar == null
+                        || jar.size != attributes.size()
+                        || jar.lastModified != attributes.lastModifiedTime().toMillis()) {
+                    jar = readJar(path, attributes);
+                    changed = true;
+                }
+                current.put(key, jar);
+                Jar entry = new Jar(position, path);
+                for (String pkg : jar.packages) {
+                    // Not using computeIfAbsent with a lambda, because this is called while
+                    // loading a class for the lambda metafactory, which must not be used then.
+                    List<Entry> jars = jarsByPackage.get(pkg);
+                    if (jars == null) {
+                        jars = new ArrayList<>();
+                        jarsByPackage.put(pkg, jars);
+                    }
+                    jars.add(entry);
+                }
+                List<Path> referenced = resolveClassPath(path, jar.classPath);
+                for (int i = referenced.size() - 1; i >= 0; i--) {
+                    pending.push(referenced.get(i));
+                }
+            }
+        }
+        if (changed || !current.keySet().equals(cached.keySet())) {
+            writeCache(current);
+        }
+        return new Index(directories, jarsByPackage);
+    }
+
+    private static CachedJar readJar(Path jar, BasicFileAttributes attributes) throws IOException {
+        Set<String> packages = new TreeSet<>();
+        List<String> classPath = new ArrayList<>();
+        try (JarFile zip = new JarFile(jar.toFile(), false)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class")) {
+                    packages.add(packageOf(name));
+                }
+            }
+            Manifest manifest = zip.getManifest();
+            String value = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            if (value != null) {
+                // the same as URLClassLoader: relative URLs separated by whitespace
+                StringTokenizer st = new StringTokenizer(value);
+                while (st.hasMoreTokens()) {
+                    classPath.add(st.nextToken());
+                }
+            }
+        } catch (ZipException e) {
+            // not a JAR file; URLClassLoader would also ignore it
+        }
+        return new CachedJar(attributes.size(), attributes.lastModifiedTime().toMillis(), packages, classPath);
+    }
+
+    private static List<Path> resolveClassPath(Path jar, List<String> classPath) {
+        List<Path> paths = new ArrayList<>();
+        for (String relative : classPath) {
+            try {
+                URL url = new URL(jar.toUri().toURL(), relative);
+                if (url.getProtocol().equals("file")) {
+                    paths.add(Paths.get(url.toURI()));
+                }
+            } catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+                // URLClassLoader would also ignore invalid entries
+            }
+        }
+        return paths;
+    }
+
+    private static String packageOf(String name) {
+        int slash = name.lastIndexOf('/');
+        return slash < 0 ? "" : name.substring(0, slash);
+    }
+
+    private Map<String, CachedJar> readCache() throws IOException {
+        Map<String, CachedJar> cached = new HashMap<>();
+        if (cacheFile == null || !Files.isRegularFile(cacheFile)) {
+            return cached;
+        }
+        List<String> lines = Files.readAllLines(cacheFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(CACHE_HEADER)) {
+            return cached; // unknown format; start from scratch
+        }
+        CachedJar previous = null;
+        for (String line : lines.subList(1, lines.size())) {
+            // the path is last, because it may contain spaces
+            String[] parts = line.startsWith("class-path ") ? line.split(" ") : line.split(" ", 5);
+            if (parts[0].equals("jar") && parts.length == 5) {
+                Set<String> packages = new TreeSet<>();
+                if (!parts[3].equals(NO_PACKAGES)) {
+                    for (String pkg : parts[3].split(",")) {
+                        packages.add(pkg.equals(DEFAULT_PACKAGE) ? "" : pkg);
+                    }
+                }
+                previous = new CachedJar(Long.parseLong(parts[1]), Long.parseLong(parts[2]), packages, new ArrayList<>());
+                cached.put(parts[4], previous);
+            } else if (parts[0].equals("class-path") && previous != null) {
+                // the Class-Path of the previous JAR file; its URLs can't contain spaces
+                previous.classPath.addAll(Arrays.asList(parts).subList(1, parts.length));
+            }
+        }
+        return cached;
+    }
+
+    private void writeCache(Map<String, CachedJar> jars) throws IOException {
+        if (cacheFile == null) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add(CACHE_HEADER);
+        for (Map.Entry<String, CachedJar> e : jars.entrySet()) {
+            CachedJar jar = e.getValue();
+            StringJoiner packages = new StringJoiner(",");
+            packages.setEmptyValue(NO_PACKAGES);
+            for (String pkg : jar.packages) {
+                packages.add(pkg.isEmpty() ? DEFAULT_PACKAGE : pkg);
+            }
+            lines.add("jar " + jar.size + " " + jar.lastModified + " " + packages + " " + e.getKey());
+            if (!jar.classPath.isEmpty()) {
+                lines.add("class-path " + String.join(" ", jar.classPath));
+            }
+        }
+        Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+        Files.write(cacheFile, lines, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        Jar jar;
+        while ((jar = openedJars.poll()) != null) {
+            jar.jarFile.close();
+        }
+    }
+
+
+    private static class Index {
+        final List<Entry> directories;
+        final Map<String, List<Entry>> jarsByPackage = new ConcurrentHashMap<>();
+
+        Index(List<Entry> directories, Map<String, List<Entry>> jarsByPackage) {
+            this.directories = Collections.unmodifiableList(directories);
+            for (Map.Entry<String, List<Entry>> e : jarsByPackage.entrySet()) {
+                this.jarsByPackage.put(e.getKey(), Collections.unmodifiableList(e.getValue()));
+            }
+        }
+    }
+
+    /**
+     * A class and the classpath entry where it was found, for defining the class
+     * with the same code source and package as URLClassLoader would.
+     */
+    public static class FoundClass {
+        public final byte[] bytecode;
+
+        /**
+         * The URL of the directory or JAR file which contains the class.
+         */
+        public final URL source;
+
+        /**
+         * The manifest of the JAR file, or null.
+         */
+        public final Manifest manifest;
+
+        FoundClass(byte[] bytecode, URL source, Manifest manifest) {
+            this.bytecode = bytecode;
+            this.source = source;
+            this.manifest = manifest;
+        }
+    }
+
+    private static abstract class Entry {
+        final int position;
+        final URL url;
+
+        Entry(int position, Path path) throws IOException {
+            this.position = position;
+            this.url = path.toUri().toURL();
+        }
+
+        abstract FoundClass read(String resource) throws IOException;
+    }
+
+    private static class Directory extends Entry {
+        private final Path dir;
+
+        Directory(int position, Path dir) throws IOException {
+            super(position, dir);
+            this.dir = dir;
+        }
+
+        @Override
+        FoundClass read(String resource) throws IOException {
+            Path file = dir.resolve(resource);
+            return Files.isRegularFile(file) ? new FoundClass(Files.readAllBytes(file), url, null) : null;
+        }
+    }
+
+    private class Jar extends Entry {
+        private final Path file;
+        private volatile JarFile jarFile;
+
+        Jar(int position, Path file) throws IOException {
+            super(position, file);
+            this.file = file;
+        }
+
+        @Override
+        FoundClass read(String resource) throws IOException {
+            JarFile jarFile = this.jarFile;
+            if (jarFile == null) {
+                jarFile = open();
+            }
+            ZipEntry entry = jarFile.getEntry(resource);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = jarFile.getInputStream(entry)) {
+                return new FoundClass(ByteStreams.toByteArray(in), url, jarFile.getManifest());
+            }
+        }
+
+        private synchronized JarFile open() throws IOException {
+            if (jarFile == null) {
+                jarFile = new JarFile(file.toFile());
+                openedJars.add(this);
+            }
+            return jarFile;
+        }
+    }
+
+    private static class CachedJar {
+        final long size;
+        final long lastModified;
+        final Set<String> packages;
+        final List<String> classPath;
+
+        CachedJar(long size, long lastModified, Set<String> packages, List<String> classPath) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.packages = packages;
+            this.classPath = classPath;
+        }
+    }
+}
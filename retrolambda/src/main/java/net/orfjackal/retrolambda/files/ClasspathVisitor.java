@@ -23,22 +23,23 @@ public abstract class ClasspathVisitor extends SimpleFileVisitor<Path> {
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
         Path relativePath = baseDir.relativize(file);
-        byte[] content = Files.readAllBytes(file);
 
         if (isJavaClass(relativePath)) {
-            visitClass(content);
+            visitClass(file, Files.readAllBytes(file));
         } else {
-            visitResource(relativePath, content);
+            // resources are not read into memory, because they may be big and are only copied
+            visitResource(relativePath, file);
         }
         return FileVisitResult.CONTINUE;
     }
 
-    protected abstract void visitClass(byte[] bytecode) throws IOException;
+    protected abstract void visitClass(Path file, byte[] bytecode) throws IOException;
 
-    protected abstract void visitResource(Path relativePath, byte[] content) throws IOException;
+    protected abstract void visitResource(Path relativePath, Path file) throws IOException;
 
     private static boolean isJavaClass(Path file) {
         String fileName = file.getFileName().toString();
-        return fileName.endsWith(".class") && !fileName.equals("module-info.class");
+        return fileName.endsWith(".class") && !fileName.equals("module-info.class")
+                && !MultiReleaseJar.isVersionedFile(file);
     }
 }
@@ -0,0 +1,100 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import net.orfjackal.retrolambda.util.ClassFile;
+import org.objectweb.asm.ClassReader;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.jar.*;
+
+/**
+ * Writes the backported classes as the base entries of a multi-release JAR
+ * file, and the original classes under {@code META-INF/versions/N}, so that
+ * Java N and newer use the original lambdas and default methods.
+ *
+ * @see <a href="https://openjdk.java.net/jeps/238">JEP 238: Multi-Release JAR Files</a>
+ */
+public class MultiReleaseJar {
+
+    /**
+     * Multi-release JAR files are ignored by older Java versions.
+     */
+    public static final int MIN_VERSION = 9;
+    public static final Path MANIFEST = Paths.get("META-INF", "MANIFEST.MF");
+
+    private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+
+    private final OutputDirectory outputDirectory;
+    private final int javaVersion;
+    private final int bytecodeVersion;
+    private boolean manifestWritten = false;
+
+    /**
+     * @param javaVersion     the Java version which uses the original classes
+     * @param bytecodeVersion the version of the backported classes
+     */
+    public MultiReleaseJar(OutputDirectory outputDirectory, int javaVersion, int bytecodeVersion) {
+        this.outputDirectory = outputDirectory;
+        this.javaVersion = javaVersion;
+        this.bytecodeVersion = bytecodeVersion;
+    }
+
+    /**
+     * The classes for newer Java versions are not backported, but copied as-is.
+     */
+    public static boolean isVersionedFile(Path relativePath) {
+        return relativePath.getNameCount() > 2
+                && relativePath.getName(0).toString().equals("META-INF")
+                && relativePath.getName(1).toString().equals("versions");
+    }
+
+    public static boolean isManifest(Path relativePath) {
+        return relativePath.getNameCount() == 2
+                && relativePath.getName(0).toString().equalsIgnoreCase("META-INF")
+                && relativePath.getName(1).toString().equalsIgnoreCase("MANIFEST.MF");
+    }
+
+    /**
+     * Writes the original class, if the backported class will differ from it.
+     */
+    public void writeOriginalClass(byte[] bytecode) throws IOException {
+        ClassReader cr = new ClassReader(bytecode);
+        if (ClassFile.getVersion(cr) > bytecodeVersion) {
+            outputDirectory.writeFile(Paths.get("META-INF", "versions", "" + javaVersion, cr.getClassName() + ".class"), bytecode);
+        }
+    }
+
+    /**
+     * Writes the manifest with the multi-release attribute added to it.
+     *
+     * @param original the input's manifest, or null if it doesn't have one
+     */
+    public void writeManifest(Path original) throws IOException {
+        Manifest manifest = new Manifest();
+        if (original != null) {
+            try (InputStream in = Files.newInputStream(original)) {
+                manifest.read(in);
+            }
+        }
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.putIfAbsent(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(MULTI_RELEASE, "true");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        outputDirectory.writeFile(MANIFEST, out.toByteArray());
+        manifestWritten = true;
+    }
+
+    /**
+     * Writes a new manifest, unless the input's manifest was already written.
+     */
+    public void writeManifestIfMissing() throws IOException {
+        if (!manifestWritten) {
+            writeManifest(null);
+        }
+    }
+}
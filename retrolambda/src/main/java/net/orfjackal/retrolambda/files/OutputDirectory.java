@@ -4,18 +4,38 @@
 
 package net.orfjackal.retrolambda.files;
 
+import com.google.common.io.ByteStreams;
 import net.orfjackal.retrolambda.ext.ow2asm.EnhancedClassReader;
+import net.orfjackal.retrolambda.jfr.FlightRecorderEvents;
+import net.orfjackal.retrolambda.util.Metrics;
 import org.objectweb.asm.ClassReader;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class OutputDirectory {
 
     private final Path outputDir;
+    private final boolean skipUnchangedFiles;
+    private final BackgroundWriter writer;
+    private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
 
     public OutputDirectory(Path outputDir) {
+        this(outputDir, false, null);
+    }
+
+    /**
+     * @param skipUnchangedFiles whether to leave alone the output files which already have
+     *                           the same content, to not change their modification times
+     * @param writer             if not null, the files are written in the background
+     *                           and they are complete only after the writer is closed
+     */
+    public OutputDirectory(Path outputDir, boolean skipUnchangedFiles, BackgroundWriter writer) {
         this.outputDir = outputDir;
+        this.skipUnchangedFiles = skipUnchangedFiles;
+        this.writer = writer;
     }
 
     public void writeClass(byte[] bytecode, boolean isJavacHacksEnabled) throws IOException {
@@ -28,8 +48,108 @@ public class OutputDirectory {
     }
 
     public void writeFile(Path relativePath, byte[] content) throws IOException {
-        Path outputFile = outputDir.resolve(relativePath);
-        Files.createDirectories(outputFile.getParent());
-        Files.write(outputFile, content);
+        Path outputFile = resolve(relativePath);
+        if (writer == null) {
+            writeNow(outputFile, content);
+            return;
+        }
+        // not using a lambda, for the same reason as in BackgroundWriter
+        writer.submit(outputFile, new BackgroundWriter.Write() {
+            @Override
+            public void run() throws IOException {
+                writeNow(outputFile, content);
+            }
+        });
+    }
+
+    public void copyFile(Path relativePath, Path sourceFile) throws IOException {
+        Path outputFile = resolve(relativePath);
+        if (writer == null) {
+            copyNow(outputFile, sourceFile);
+            return;
+        }
+        writer.submit(outputFile, new BackgroundWriter.Write() {
+            @Override
+            public void run() throws IOException {
+                copyNow(outputFile, sourceFile);
+            }
+        });
+    }
+
+    private void writeNow(Path outputFile, byte[] content) throws IOException {
+        if (skipUnchangedFiles && hasContent(outputFile, content)) {
+            Metrics.count(Metrics.UNCHANGED_FILES, 1);
+            return;
+        }
+        try (Metrics.Timer timer = Metrics.time(Metrics.WRITE_OUTPUT);
+             FlightRecorderEvents.Span span = FlightRecorderEvents.writeFile(outputFile)) {
+            createParentDirectories(outputFile);
+            Files.write(outputFile, content);
+        }
+        Metrics.count(Metrics.BYTES_WRITTEN, content.length);
+    }
+
+    private void copyNow(Path outputFile, Path sourceFile) throws IOException {
+        if (Files.exists(outputFile) && Files.isSameFile(outputFile, sourceFile)) {
+            return; // in-place backporting; nothing to copy
+        }
+        if (skipUnchangedFiles && hasSameContent(outputFile, sourceFile)) {
+            Metrics.count(Metrics.UNCHANGED_FILES, 1);
+            return;
+        }
+        try (Metrics.Timer timer = Metrics.time(Metrics.WRITE_OUTPUT);
+             FlightRecorderEvents.Span span = FlightRecorderEvents.writeFile(outputFile)) {
+            createParentDirectories(outputFile);
+            Files.copy(sourceFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Metrics.count(Metrics.FILES_COPIED, 1);
+    }
+
+    private void createParentDirectories(Path file) throws IOException {
+        Path dir = file.getParent();
+        if (!createdDirectories.contains(dir)) {
+            // safe to call concurrently for the same directory
+            Files.createDirectories(dir);
+            createdDirectories.add(dir);
+        }
+    }
+
+    private static boolean hasContent(Path file, byte[] content) throws IOException {
+        // comparing the size first avoids reading the file in most cases where the content has changed
+        return Files.isRegularFile(file)
+                && Files.size(file) == content.length
+                && Arrays.equals(Files.readAllBytes(file), content);
+    }
+
+    private static boolean hasSameContent(Path file1, Path file2) throws IOException {
+        if (!Files.isRegularFile(file1) || Files.size(file1) != Files.size(file2)) {
+            return false;
+        }
+        try (InputStream in1 = Files.newInputStream(file1);
+             InputStream in2 = Files.newInputStream(file2)) {
+            byte[] buffer1 = new byte[8192];
+            byte[] buffer2 = new byte[8192];
+            int n;
+            while ((n = in1.read(buffer1)) > 0) {
+                if (ByteStreams.read(in2, buffer2, 0, n) != n) {
+                    return false;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (buffer1[i] != buffer2[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private Path resolve(Path relativePath) {
+        // the relative path may be from a different file system, e.g. inside a JAR file
+        Path result = outputDir;
+        for (Path name : relativePath) {
+            result = result.resolve(name.toString());
+        }
+        return result;
     }
 }
@@ -0,0 +1,373 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.incremental;
+
+import com.google.common.hash.*;
+import net.orfjackal.retrolambda.files.*;
+import net.orfjackal.retrolambda.util.ConstantPool;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers between runs which classes were backported from which bytecode,
+ * so that a class needs to be backported again only if it or one of the
+ * classes it depends on has changed.
+ * <p>
+ * A class depends on its superclasses and interfaces (inherited default methods),
+ * on the classes it refers to (relocated interface methods, method visibility
+ * checks for method references) and on their superclasses and interfaces.
+ */
+public class IncrementalCache {
+
+    private static final String INDEX_FILE = "index";
+    private static final String INDEX_HEADER = "retrolambda-incremental-cache 1";
+    private static final String ORIGINALS_DIR = "originals";
+    private static final String LAMBDA_CLASS_SEPARATOR = "$$Lambda$";
+
+    private final Path cacheDir;
+    private final String fingerprint;
+    private final boolean inPlace;
+
+    private final Map<String, Entry> previousEntries = new HashMap<>();
+    private final Map<String, String> previousOutputOwners = new HashMap<>();
+    private final Map<String, InputClass> inputClasses = new HashMap<>();
+    private final Map<String, String> depsDigests = new HashMap<>();
+    private final Set<String> upToDate = new HashSet<>();
+    private final Map<String, Map<String, String>> recordedOutputs = new ConcurrentHashMap<>();
+
+    private IncrementalCache(Path cacheDir, String fingerprint, boolean inPlace) {
+        this.cacheDir = cacheDir;
+        this.fingerprint = fingerprint;
+        this.inPlace = inPlace;
+    }
+
+    public static IncrementalCache disabled() {
+        return new IncrementalCache(null, "", false);
+    }
+
+    /**
+     * @param fingerprint describes all configuration which affects the output
+     * @param inPlace     whether the output directory is the same as the input directory,
+     *                    in which case the original bytecode must be kept in the cache
+     */
+    public static IncrementalCache load(Path cacheDir, String fingerprint, boolean inPlace) throws IOException {
+        IncrementalCache cache = new IncrementalCache(cacheDir, fingerprint, inPlace);
+        cache.readIndex();
+        return cache;
+    }
+
+    public boolean isEnabled() {
+        return cacheDir != null;
+    }
+
+    /**
+     * Returns the bytecode which should be analyzed and backported, or {@code null}
+     * if the file was generated by a previous run and should be ignored.
+     * When backporting in-place, the input directory contains the output of the
+     * previous run, so then the original bytecode is taken from the cache.
+     */
+    public byte[] toOriginalBytecode(byte[] bytecode) throws IOException {
+        if (!isEnabled()) {
+            return bytecode;
+        }
+        ClassReader cr = new ClassReader(bytecode);
+        String className = cr.getClassName();
+        String digest = digest(bytecode);
+        String fileDigest = digest;
+
+        String owner = previousOutputOwners.get(className);
+        if (owner != null && !owner.equals(className)
+                && digest.equals(previousEntries.get(owner).outputs.get(className))) {
+            return null; // lambda class or companion class generated by the previous run
+        }
+
+        Entry previous = previousEntries.get(className);
+        if (inPlace && previous != null && !previous.inputDigest.equals(digest)
+                && digest.equals(previous.outputs.get(className))) {
+            Path original = getOriginalFile(previous.inputDigest);
+            if (Files.isRegularFile(original)) {
+                bytecode = Files.readAllBytes(original);
+                cr = new ClassReader(bytecode);
+                digest = previous.inputDigest;
+            }
+        }
+
+        if (inPlace) {
+            Path original = getOriginalFile(digest);
+            if (!Files.exists(original)) {
+                Files.createDirectories(original.getParent());
+                Files.write(original, bytecode);
+            }
+        }
+        inputClasses.put(className, new InputClass(cr, digest, fileDigest));
+        return bytecode;
+    }
+
+    /**
+     * Returns the original bytecode of a class, if it differs from what is
+     * in the input directory, so that it can be loaded for the lambda metafactory.
+     */
+    public byte[] getOriginalBytecode(String className) {
+        if (!isEnabled() || !inPlace) {
+            return null;
+        }
+        InputClass input = inputClasses.get(className);
+        if (input == null || input.digest.equals(input.fileDigest)) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(getOriginalFile(input.digest));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public boolean isUpToDate(String className, Path outputDir) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Entry previous = previousEntries.get(className);
+        InputClass input = inputClasses.get(className);
+        if (previous == null || input == null
+                || !previous.inputDigest.equals(input.digest)
+                || !previous.depsDigest.equals(getDepsDigest(className))) {
+            return false;
+        }
+        for (String output : previous.outputs.keySet()) {
+            if (!Files.isRegularFile(outputDir.resolve(output + ".class"))) {
+                return false;
+            }
+        }
+        String output = previous.outputs.get(className);
+        if (inPlace && output != null && !output.equals(input.fileDigest)) {
+            return false; // the input file has been overwritten with a copy of the original
+        }
+        upToDate.add(className);
+        return true;
+    }
+
+    public int getUpToDateCount() {
+        return upToDate.size();
+    }
+
+    private String getDepsDigest(String className) {
+        return depsDigests.computeIfAbsent(className, this::computeDepsDigest);
+    }
+
+    private String computeDepsDigest(String className) {
+        Set<String> deps = new TreeSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(className);
+        queue.addAll(inputClasses.get(className).references);
+        while (!queue.isEmpty()) {
+            String dep = queue.remove();
+            InputClass input = inputClasses.get(dep);
+            if (input != null && deps.add(dep)) {
+                queue.addAll(input.supertypes);
+            }
+        }
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(fingerprint, StandardCharsets.UTF_8);
+        for (String dep : deps) {
+            hasher.putString("\n" + dep + " " + inputClasses.get(dep).digest, StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    public OutputDirectory recordingOutputs(Path outputDir, boolean skipUnchangedFiles, BackgroundWriter writer) {
+        if (!isEnabled()) {
+            return new OutputDirectory(outputDir, skipUnchangedFiles, writer);
+        }
+        return new OutputDirectory(outputDir, skipUnchangedFiles, writer) {
+            @Override
+            public void writeClass(byte[] bytecode, boolean isJavacHacksEnabled) throws IOException {
+                if (bytecode != null) {
+                    recordOutput(new ClassReader(bytecode).getClassName(), digest(bytecode));
+                }
+                super.writeClass(bytecode, isJavacHacksEnabled);
+            }
+        };
+    }
+
+    private void recordOutput(String className, String digest) {
+        // Not using computeIfAbsent with a lambda, because this is called also when
+        // saving lambda classes and the lambda metafactory must not be used then.
+        String owner = getOwner(className);
+        Map<String, String> outputs = recordedOutputs.get(owner);
+        if (outputs == null) {
+            recordedOutputs.putIfAbsent(owner, new ConcurrentHashMap<>());
+            outputs = recordedOutputs.get(owner);
+        }
+        outputs.put(className, digest);
+    }
+
+    private String getOwner(String outputClass) {
+        if (inputClasses.containsKey(outputClass)) {
+            return outputClass;
+        }
+        int lambda = outputClass.indexOf(LAMBDA_CLASS_SEPARATOR);
+        if (lambda > 0) {
+            return outputClass.substring(0, lambda);
+        }
+        if (outputClass.endsWith("$")) {
+            String iface = outputClass.substring(0, outputClass.length() - 1);
+            if (inputClasses.containsKey(iface)) {
+                return iface; // companion class
+            }
+        }
+        return outputClass;
+    }
+
+    /**
+     * Deletes the outputs of the classes which have been deleted from the input
+     * directory since the previous run. Must be called only if every input file
+     * was visited.
+     */
+    public void removeDeletedOutputs(Path outputDir) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Set<String> currentOutputs = new HashSet<>();
+        for (String className : upToDate) {
+            currentOutputs.addAll(previousEntries.get(className).outputs.keySet());
+        }
+        for (Map<String, String> outputs : recordedOutputs.values()) {
+            currentOutputs.addAll(outputs.keySet());
+        }
+        for (Map.Entry<String, Entry> e : previousEntries.entrySet()) {
+            if (inputClasses.containsKey(e.getKey())) {
+                continue;
+            }
+            for (String output : e.getValue().outputs.keySet()) {
+                if (!currentOutputs.contains(output)) {
+                    Files.deleteIfExists(outputDir.resolve(output + ".class"));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param allFilesVisited whether every input file was visited, in which case
+     *                        classes which were not seen have been deleted
+     */
+    public void save(boolean allFilesVisited) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Map<String, Entry> entries = new TreeMap<>();
+        if (!allFilesVisited) {
+            entries.putAll(previousEntries);
+        }
+        for (Map.Entry<String, InputClass> e : inputClasses.entrySet()) {
+            String className = e.getKey();
+            if (upToDate.contains(className)) {
+                entries.put(className, previousEntries.get(className));
+            } else {
+                Map<String, String> outputs = recordedOutputs.getOrDefault(className, Collections.emptyMap());
+                entries.put(className, new Entry(e.getValue().digest, getDepsDigest(className), new TreeMap<>(outputs)));
+            }
+        }
+        writeIndex(entries);
+        removeUnusedOriginals(entries);
+    }
+
+    private void readIndex() throws IOException {
+        Path index = cacheDir.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(index)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(index, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(INDEX_HEADER)) {
+            return; // unknown format; start from scratch
+        }
+        String currentClass = null;
+        for (String line : lines.subList(1, lines.size())) {
+            String[] parts = line.split(" ");
+            if (parts[0].equals("class") && parts.length == 4) {
+                currentClass = parts[1];
+                previousEntries.put(currentClass, new Entry(parts[2], parts[3], new TreeMap<>()));
+            } else if (parts[0].equals("output") && parts.length == 3 && currentClass != null) {
+                previousEntries.get(currentClass).outputs.put(parts[1], parts[2]);
+                previousOutputOwners.put(parts[1], currentClass);
+            }
+        }
+    }
+
+    private void writeIndex(Map<String, Entry> entries) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(INDEX_HEADER);
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            lines.add("class " + e.getKey() + " " + entry.inputDigest + " " + entry.depsDigest);
+            for (Map.Entry<String, String> output : entry.outputs.entrySet()) {
+                lines.add("output " + output.getKey() + " " + output.getValue());
+            }
+        }
+        Files.createDirectories(cacheDir);
+        Files.write(cacheDir.resolve(INDEX_FILE), lines, StandardCharsets.UTF_8);
+    }
+
+    private void removeUnusedOriginals(Map<String, Entry> entries) throws IOException {
+        Path originalsDir = cacheDir.resolve(ORIGINALS_DIR);
+        if (!Files.isDirectory(originalsDir)) {
+            return;
+        }
+        Set<String> used = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            used.add(entry.inputDigest);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(originalsDir)) {
+            for (Path file : files) {
+                String digest = file.getFileName().toString().replace(".class", "");
+                if (!used.contains(digest)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private Path getOriginalFile(String digest) {
+        return cacheDir.resolve(ORIGINALS_DIR).resolve(digest + ".class");
+    }
+
+    private static String digest(byte[] bytes) {
+        return Hashing.sha1().hashBytes(bytes).toString();
+    }
+
+
+    private static class Entry {
+        final String inputDigest;
+        final String depsDigest;
+        final Map<String, String> outputs;
+
+        Entry(String inputDigest, String depsDigest, Map<String, String> outputs) {
+            this.inputDigest = inputDigest;
+            this.depsDigest = depsDigest;
+            this.outputs = outputs;
+        }
+    }
+
+    private static class InputClass {
+        final String digest;
+        final String fileDigest;
+        final List<String> supertypes = new ArrayList<>();
+        final Set<String> references;
+
+        InputClass(ClassReader cr, String digest, String fileDigest) {
+            this.digest = digest;
+            this.fileDigest = fileDigest;
+            if (cr.getSuperName() != null) {
+                supertypes.add(cr.getSuperName());
+            }
+            supertypes.addAll(Arrays.asList(cr.getInterfaces()));
+            this.references = ConstantPool.getClassReferences(cr);
+        }
+    }
+}
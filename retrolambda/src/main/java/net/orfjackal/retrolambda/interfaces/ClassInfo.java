@@ -4,14 +4,17 @@
 
 package net.orfjackal.retrolambda.interfaces;
 
-import net.orfjackal.retrolambda.util.Flags;
+import net.orfjackal.retrolambda.util.*;
 import org.objectweb.asm.*;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 public class ClassInfo {
 
-    public final ClassReader reader;
+    private final ClassReader reader;
+    private final Supplier<ClassReader> reloader;
+    private final boolean invokeDynamic;
     private final int access;
     public final Type type;
     public final Type superclass;
@@ -21,13 +24,24 @@ public class ClassInfo {
 
     public ClassInfo() {
         this.reader = null;
+        this.reloader = null;
+        this.invokeDynamic = false;
         this.access = 0;
         this.type = null;
         this.superclass = null;
     }
 
     public ClassInfo(ClassReader cr) {
-        this.reader = cr;
+        this(cr, null);
+    }
+
+    /**
+     * @param reloader if not null, the bytecode is not kept in memory, but read again when needed
+     */
+    public ClassInfo(ClassReader cr, Supplier<ClassReader> reloader) {
+        this.reader = reloader == null ? cr : null;
+        this.reloader = reloader;
+        this.invokeDynamic = ConstantPool.hasInvokeDynamic(cr);
         this.access = cr.getAccess();
         this.type = Type.getObjectType(cr.getClassName());
         this.superclass = cr.getSuperName() != null ? Type.getObjectType(cr.getSuperName()) : null;
@@ -36,6 +50,31 @@ public class ClassInfo {
         }
     }
 
+    /**
+     * For a class which is known only from an analysis summary, without its bytecode.
+     */
+    public ClassInfo(int access, Type type, Type superclass, List<Type> interfaces) {
+        this.reader = null;
+        this.reloader = null;
+        this.invokeDynamic = false;
+        this.access = access;
+        this.type = type;
+        this.superclass = superclass;
+        this.interfaces.addAll(interfaces);
+    }
+
+    public ClassReader getReader() {
+        return reader != null ? reader : reloader.get();
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public boolean hasInvokeDynamic() {
+        return invokeDynamic;
+    }
+
     public List<Type> getInterfaces() {
         return Collections.unmodifiableList(interfaces);
     }
@@ -0,0 +1,37 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.jfr;
+
+import jdk.jfr.*;
+import org.objectweb.asm.ClassReader;
+
+@Name("net.orfjackal.retrolambda.AnalyzeClass")
+@Label("Analyze Class")
+@Category("Retrolambda")
+@Description("Reading the methods and dependencies of a class before backporting it")
+class AnalyzeClassEvent extends Event implements FlightRecorderEvents.Span {
+
+    @Label("Class Name")
+    String className;
+
+    private transient byte[] bytecode;
+
+    static FlightRecorderEvents.Span start(byte[] bytecode) {
+        AnalyzeClassEvent event = new AnalyzeClassEvent();
+        event.bytecode = bytecode;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void close() {
+        end();
+        if (shouldCommit()) {
+            className = new ClassReader(bytecode).getClassName();
+            commit();
+        }
+        bytecode = null;
+    }
+}
@@ -0,0 +1,52 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.jfr;
+
+import org.objectweb.asm.*;
+
+import java.nio.file.Path;
+
+/**
+ * Java Flight Recorder events for profiling individual slow classes and lambdas.
+ * The events are committed only while a recording is active. On JVMs which
+ * don't have the {@code jdk.jfr} API (it's in Java 8 only since update 262)
+ * the event classes are never loaded and nothing is recorded.
+ */
+public class FlightRecorderEvents {
+
+    private static final Span NO_SPAN = () -> {
+    };
+    private static final boolean available = isAvailable();
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public static Span analyzeClass(byte[] bytecode) {
+        return available ? AnalyzeClassEvent.start(bytecode) : NO_SPAN;
+    }
+
+    public static Span transformClass(String className, ClassVisitor visitorChain) {
+        return available ? TransformClassEvent.start(className, visitorChain) : NO_SPAN;
+    }
+
+    public static Span reifyLambda(Handle implMethod, String lambdaClass) {
+        return available ? ReifyLambdaEvent.start(implMethod, lambdaClass) : NO_SPAN;
+    }
+
+    public static Span writeFile(Path file) {
+        return available ? WriteFileEvent.start(file) : NO_SPAN;
+    }
+
+    public interface Span extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
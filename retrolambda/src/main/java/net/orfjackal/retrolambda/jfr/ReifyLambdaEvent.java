@@ -0,0 +1,41 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.jfr;
+
+import jdk.jfr.*;
+import org.objectweb.asm.Handle;
+
+@Name("net.orfjackal.retrolambda.ReifyLambda")
+@Label("Reify Lambda")
+@Category("Retrolambda")
+@Description("Generating and backporting the class of a lambda expression or method reference")
+class ReifyLambdaEvent extends Event implements FlightRecorderEvents.Span {
+
+    @Label("Implementation Method")
+    String implMethod;
+
+    @Label("Lambda Class")
+    String lambdaClass;
+
+    private transient Handle implMethodHandle;
+
+    static FlightRecorderEvents.Span start(Handle implMethod, String lambdaClass) {
+        ReifyLambdaEvent event = new ReifyLambdaEvent();
+        event.implMethodHandle = implMethod;
+        event.lambdaClass = lambdaClass;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void close() {
+        end();
+        if (shouldCommit()) {
+            implMethod = implMethodHandle.getOwner() + "." + implMethodHandle.getName() + implMethodHandle.getDesc();
+            commit();
+        }
+        implMethodHandle = null;
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.jfr;
+
+import jdk.jfr.*;
+import org.objectweb.asm.ClassVisitor;
+
+import java.lang.reflect.Field;
+
+@Name("net.orfjackal.retrolambda.TransformClass")
+@Label("Transform Class")
+@Category("Retrolambda")
+@Description("Backporting a class through a chain of class visitors")
+class TransformClassEvent extends Event implements FlightRecorderEvents.Span {
+
+    @Label("Class Name")
+    String className;
+
+    @Label("Visitor Chain")
+    String visitors;
+
+    private transient ClassVisitor visitorChain;
+
+    static FlightRecorderEvents.Span start(String className, ClassVisitor visitorChain) {
+        TransformClassEvent event = new TransformClassEvent();
+        event.className = className;
+        event.visitorChain = visitorChain;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void close() {
+        end();
+        if (shouldCommit()) {
+            visitors = describe(visitorChain);
+            commit();
+        }
+        visitorChain = null;
+    }
+
+    private static String describe(ClassVisitor visitor) {
+        try {
+            // ASM doesn't have a public getter for the next visitor in the chain
+            Field next = ClassVisitor.class.getDeclaredField("cv");
+            next.setAccessible(true);
+            StringBuilder sb = new StringBuilder();
+            for (; visitor != null; visitor = (ClassVisitor) next.get(visitor)) {
+                if (sb.length() > 0) {
+                    sb.append(" > ");
+                }
+                String name = visitor.getClass().getName();
+                sb.append(name.substring(name.lastIndexOf('.') + 1));
+            }
+            return sb.toString();
+        } catch (ReflectiveOperationException e) {
+            return e.toString();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.jfr;
+
+import jdk.jfr.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+@Name("net.orfjackal.retrolambda.WriteFile")
+@Label("Write File")
+@Category("Retrolambda")
+@Description("Writing a backported class or copying a resource to the output directory")
+class WriteFileEvent extends Event implements FlightRecorderEvents.Span {
+
+    @Label("File")
+    String file;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    private transient Path path;
+
+    static FlightRecorderEvents.Span start(Path file) {
+        WriteFileEvent event = new WriteFileEvent();
+        event.path = file;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void close() {
+        end();
+        if (shouldCommit()) {
+            file = path.toUri().toString();
+            try {
+                bytes = Files.size(path);
+            } catch (IOException e) {
+                bytes = -1;
+            }
+            commit();
+        }
+        path = null;
+    }
+}
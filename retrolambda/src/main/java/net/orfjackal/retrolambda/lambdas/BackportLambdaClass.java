@@ -11,7 +11,7 @@ import static org.objectweb.asm.Opcodes.*;
 
 public class BackportLambdaClass extends ClassVisitor {
 
-    private static final String SINGLETON_FIELD_NAME = "instance";
+    static final String SINGLETON_FIELD_NAME = "instance";
     private static final String JAVA_LANG_OBJECT = "java/lang/Object";
 
     private String lambdaClass;
@@ -55,6 +55,9 @@ public class BackportLambdaClass extends ClassVisitor {
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
         if (name.equals("<init>")) {
             constructor = Type.getMethodType(desc);
+            if (factoryMethod.isInline()) {
+                access &= ~ACC_PRIVATE; // will be called from the enclosing class
+            }
         }
         if (LambdaNaming.isSerializationHook(access, name, desc)) {
             return null; // remove serialization hooks; we serialize lambda instances as-is
@@ -74,7 +77,9 @@ public class BackportLambdaClass extends ClassVisitor {
         if (isStateless()) {
             makeSingleton();
         }
-        generateFactoryMethod();
+        if (!factoryMethod.isInline()) {
+            generateFactoryMethod();
+        }
         if (sourceFile == null) {
             sourceFile = enclosingClass.sourceFile;
         }
@@ -83,8 +88,11 @@ public class BackportLambdaClass extends ClassVisitor {
     }
 
     private void makeSingleton() {
-        FieldVisitor fv = super.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL,
-                SINGLETON_FIELD_NAME, singletonFieldDesc(), null, null);
+        int access = ACC_STATIC | ACC_FINAL;
+        if (!factoryMethod.isInline()) {
+            access |= ACC_PRIVATE;
+        }
+        FieldVisitor fv = super.visitField(access, SINGLETON_FIELD_NAME, singletonFieldDesc(), null, null);
         fv.visitEnd();
 
         MethodVisitor mv = super.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
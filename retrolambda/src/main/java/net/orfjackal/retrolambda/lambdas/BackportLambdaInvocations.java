@@ -4,15 +4,12 @@
 
 package net.orfjackal.retrolambda.lambdas;
 
-import com.esotericsoftware.minlog.Log;
 import net.orfjackal.retrolambda.ClassAnalyzer;
 import net.orfjackal.retrolambda.interfaces.*;
 import net.orfjackal.retrolambda.util.*;
 import org.objectweb.asm.*;
 
-import java.lang.reflect.Field;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.orfjackal.retrolambda.util.Flags.isInterface;
 import static org.objectweb.asm.Opcodes.*;
@@ -22,17 +19,31 @@ public class BackportLambdaInvocations extends ClassVisitor {
     private int classAccess;
     private String className;
     private final ClassAnalyzer analyzer;
+    private final LambdaOptions options;
+    private final LambdaClassGenerator lambdaClassGenerator;
+    private final Map<List<Object>, LambdaFactoryMethod> reifiedLambdas = new HashMap<>();
+    private final List<byte[]> lambdaGroupClasses;
+    private final Map<List<Object>, LambdaGroup> lambdaGroups = new LinkedHashMap<>();
     private final Map<Handle, Handle> lambdaAccessToImplMethods = new LinkedHashMap<>();
     private final EnclosingClass enclosingClass = new EnclosingClass();
+    private int lambdaCount = 0;
 
-    public BackportLambdaInvocations(ClassVisitor next, ClassAnalyzer analyzer) {
+    /**
+     * @param lambdaGroupClasses if not null, the lambdas which implement the same functional interface
+     *                           are grouped into one lambda class, which is added to this list
+     * @param lambdaClassGenerator if not null, generates the lambda classes instead of calling the lambda metafactory
+     */
+    public BackportLambdaInvocations(ClassVisitor next, ClassAnalyzer analyzer, LambdaOptions options, List<byte[]> lambdaGroupClasses,
+                                     LambdaClassGenerator lambdaClassGenerator) {
         super(ASM5, next);
         this.analyzer = analyzer;
+        this.options = options;
+        this.lambdaGroupClasses = lambdaGroupClasses;
+        this.lambdaClassGenerator = lambdaClassGenerator;
     }
 
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-        resetLambdaClassSequenceNumber();
         this.classAccess = access;
         this.className = name;
         super.visit(version, access, name, signature, superName, interfaces);
@@ -44,18 +55,6 @@ public class BackportLambdaInvocations extends ClassVisitor {
         super.visitSource(source, debug);
     }
 
-    private static void resetLambdaClassSequenceNumber() {
-        try {
-            Field counterField = Class.forName("java.lang.invoke.InnerClassLambdaMetafactory").getDeclaredField("counter");
-            counterField.setAccessible(true);
-            AtomicInteger counter = (AtomicInteger) counterField.get(null);
-            counter.set(0);
-        } catch (Throwable t) {
-            Log.warn("Failed to start class numbering from one. Don't worry, it's cosmetic, " +
-                    "but please file a bug report and tell on which JDK version this happened.", t);
-        }
-    }
-
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
         if (LambdaNaming.isBodyMethod(access, name)) {
@@ -140,6 +139,10 @@ public class BackportLambdaInvocations extends ClassVisitor {
         return true;
     }
 
+    private String nextLambdaClassName(List<Object> contentKey) {
+        return LambdaNaming.lambdaClassName(className, ++lambdaCount, options.hashLambdaNames ? contentKey : null);
+    }
+
     private static String getPackage(String className) {
         int lastSlash = className.lastIndexOf('/');
         return lastSlash == -1 ? "" : className.substring(0, lastSlash);
@@ -162,6 +165,18 @@ public class BackportLambdaInvocations extends ClassVisitor {
 
     @Override
     public void visitEnd() {
+        for (LambdaGroup group : lambdaGroups.values()) {
+            if (group.members.size() == 1) {
+                // no benefit from grouping, so generate it like an ungrouped lambda
+                LambdaGroup.Member m = group.members.get(0);
+                // (the call site already calls the factory method, so it can't be inlined anymore)
+                LambdaReifier.reifyLambdaClass(enclosingClass, m.implMethod, m.accessMethod,
+                        className, group.lambdaClass, group.invokedName, m.invokedType, group.bsm, m.bsmArgs, false, lambdaClassGenerator);
+            } else {
+                lambdaGroupClasses.add(new LambdaClassGenerator().generateLambdaGroupClass(group, enclosingClass.sourceFile));
+            }
+        }
+        Metrics.count(Metrics.ACCESSOR_METHODS, lambdaAccessToImplMethods.size());
         for (Map.Entry<Handle, Handle> entry : lambdaAccessToImplMethods.entrySet()) {
             Handle accessMethod = entry.getKey();
             Handle implMethod = entry.getValue();
@@ -187,22 +202,80 @@ public class BackportLambdaInvocations extends ClassVisitor {
         }
 
         private void backportLambda(String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) {
-            Class<?> invoker = loadClass(className);
-            Handle implMethod = (Handle) bsmArgs[1];
-            Handle accessMethod = getLambdaAccessMethod(implMethod);
+            Metrics.count(Metrics.LAMBDAS, 1);
+            // The bootstrap arguments include the functional interface method, the implementation method,
+            // the instantiated method type and the serialization flags, and the invoked type includes
+            // the captured arguments, so lambdas with the same arguments have identical lambda classes.
+            List<Object> lambdaKey = Arrays.asList(invokedName, invokedType, bsm, Arrays.asList(bsmArgs));
+            LambdaFactoryMethod factory = options.deduplicateLambdas ? reifiedLambdas.get(lambdaKey) : null;
+            if (factory == null) {
+                Handle implMethod = (Handle) bsmArgs[1];
+                Handle accessMethod = getLambdaAccessMethod(implMethod);
 
-            LambdaFactoryMethod factory = LambdaReifier.reifyLambdaClass(enclosingClass, implMethod, accessMethod,
-                    invoker, invokedName, invokedType, bsm, bsmArgs);
-            super.visitMethodInsn(INVOKESTATIC, factory.getOwner(), factory.getName(), factory.getDesc(), false);
+                if (lambdaGroupClasses != null) {
+                    factory = getLambdaGroup(invokedName, invokedType, bsm, bsmArgs)
+                            .addMember(invokedType, implMethod, accessMethod, bsmArgs);
+                } else {
+                    boolean inline = options.inlineLambdaFactories && LambdaFactoryMethod.canInline(invokedType);
+                    factory = LambdaReifier.reifyLambdaClass(enclosingClass, implMethod, accessMethod,
+                            className, nextLambdaClassName(lambdaKey), invokedName, invokedType, bsm, bsmArgs, inline, lambdaClassGenerator);
+                }
+                if (options.deduplicateLambdas) {
+                    reifiedLambdas.put(lambdaKey, factory);
+                }
+            }
+            if (factory.isInline()) {
+                instantiateLambda(factory);
+            } else {
+                super.visitMethodInsn(INVOKESTATIC, factory.getOwner(), factory.getName(), factory.getDesc(), false);
+            }
+        }
+
+        /**
+         * Does the same as the factory method would do. The captured arguments
+         * are already on the stack, so the new instance is moved below them.
+         */
+        private void instantiateLambda(LambdaFactoryMethod factory) {
+            String lambdaClass = factory.getOwner();
+            Type[] capturedTypes = Type.getArgumentTypes(factory.getDesc());
+            if (capturedTypes.length == 0) {
+                super.visitFieldInsn(GETSTATIC, lambdaClass, BackportLambdaClass.SINGLETON_FIELD_NAME, "L" + lambdaClass + ";");
+                return;
+            }
+            int size = 0;
+            for (Type type : capturedTypes) {
+                size += type.getSize();
+            }
+            super.visitTypeInsn(NEW, lambdaClass);
+            if (size == 1) {
+                // arg, new -> new, arg, new -> new, new, arg
+                super.visitInsn(DUP_X1);
+                super.visitInsn(SWAP);
+            } else if (size == 2) {
+                // arg1, arg2, new -> new, arg1, arg2, new -> new, new, arg1, arg2, new -> new, new, arg1, arg2
+                // (the same instructions work also for one long or double argument)
+                super.visitInsn(DUP_X2);
+                super.visitInsn(DUP_X2);
+                super.visitInsn(POP);
+            } else {
+                throw new IllegalArgumentException("Too many captured arguments to inline: " + factory.getDesc());
+            }
+            super.visitMethodInsn(INVOKESPECIAL, lambdaClass, "<init>",
+                    Type.getMethodDescriptor(Type.VOID_TYPE, capturedTypes), false);
         }
-    }
 
-    private static Class<?> loadClass(String className) {
-        try {
-            ClassLoader cl = Thread.currentThread().getContextClassLoader();
-            return cl.loadClass(className.replace('/', '.'));
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+        private LambdaGroup getLambdaGroup(String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) {
+            // The lambdas of a group must implement the same functional interface method, and have
+            // the same marker interfaces, bridge methods and serialization flags. Only the captured
+            // arguments, the implementation method and the instantiated method type may differ.
+            List<Object> groupKey = Arrays.asList(invokedName, invokedType.getReturnType(), bsm, bsmArgs[0],
+                    Arrays.asList(bsmArgs).subList(3, bsmArgs.length));
+            LambdaGroup group = lambdaGroups.get(groupKey);
+            if (group == null) {
+                group = new LambdaGroup(className, nextLambdaClassName(groupKey), invokedName, bsm);
+                lambdaGroups.put(groupKey, group);
+            }
+            return group;
         }
     }
 }
@@ -0,0 +1,432 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates the lambda classes directly from the bootstrap method arguments,
+ * the same way as Java 8's {@code InnerClassLambdaMetafactory} would spin them,
+ * but without loading the classes or calling the lambda metafactory.
+ */
+public class LambdaClassGenerator {
+
+    private static final String JAVA_LANG_OBJECT = "java/lang/Object";
+    private static final String JAVA_IO_SERIALIZABLE = "java/io/Serializable";
+    private static final String NOT_SERIALIZABLE_EXCEPTION = "java/io/NotSerializableException";
+    private static final String LAMBDA_ID_FIELD = "lambdaId";
+
+    // the flags of LambdaMetafactory.altMetafactory
+    private static final int FLAG_SERIALIZABLE = 1;
+    private static final int FLAG_MARKERS = 2;
+    private static final int FLAG_BRIDGES = 4;
+
+    private final LambdaClassSaver lambdaClassSaver;
+    private final Map<String, Boolean> serializableTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a generator which can only be used for generating classes, not for saving them.
+     */
+    public LambdaClassGenerator() {
+        this(null);
+    }
+
+    public LambdaClassGenerator(LambdaClassSaver lambdaClassSaver) {
+        this.lambdaClassSaver = lambdaClassSaver;
+    }
+
+    void spinLambdaClass(String lambdaClass, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) {
+        lambdaClassSaver.saveIfLambda(lambdaClass, generateLambdaClass(lambdaClass, invokedName, invokedType, bsm, bsmArgs));
+    }
+
+    public byte[] generateLambdaClass(String lambdaClass, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) {
+        Type samMethodType = (Type) bsmArgs[0];
+        Handle implMethod = (Handle) bsmArgs[1];
+        Type instantiatedMethodType = (Type) bsmArgs[2];
+        Interfaces interfaces = new Interfaces(invokedType.getReturnType().getInternalName(), bsm, bsmArgs);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_SUPER | ACC_FINAL | ACC_SYNTHETIC, lambdaClass, null, JAVA_LANG_OBJECT, interfaces.getNames());
+
+        Type[] capturedTypes = invokedType.getArgumentTypes();
+        String[] capturedNames = new String[capturedTypes.length];
+        for (int i = 0; i < capturedTypes.length; i++) {
+            capturedNames[i] = "arg$" + (i + 1);
+            FieldVisitor fv = cw.visitField(ACC_PRIVATE | ACC_FINAL, capturedNames[i], capturedTypes[i].getDescriptor(), null, null);
+            fv.visitEnd();
+        }
+        generateConstructor(cw, lambdaClass, capturedNames, capturedTypes);
+
+        // The JDK would also generate a "get$Lambda" factory method, but BackportLambdaClass
+        // would only remove it and generate its own factory method, so we don't bother.
+        ForwardingMethodGenerator forwarder = new ForwardingMethodGenerator(lambdaClass, capturedNames, capturedTypes,
+                implMethod, implMethod, instantiatedMethodType);
+        generateForwardingMethod(cw.visitMethod(ACC_PUBLIC, invokedName, samMethodType.getDescriptor(), null, null), forwarder, samMethodType);
+        for (Type bridge : interfaces.bridges) {
+            generateForwardingMethod(cw.visitMethod(ACC_PUBLIC | ACC_BRIDGE, invokedName, bridge.getDescriptor(), null, null), forwarder, bridge);
+        }
+
+        // Also the "writeReplace" method of serializable lambdas would be removed by BackportLambdaClass,
+        // but the methods which prevent serializing non-serializable lambdas are kept.
+        if (interfaces.accidentallySerializable) {
+            generateSerializationHostileMethods(cw);
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates a lambda class for all the lambdas of a group. The generated class is
+     * already in the form which {@link BackportLambdaClass} would produce, so it needs
+     * no other transformations than what other classes need.
+     */
+    byte[] generateLambdaGroupClass(LambdaGroup group, String sourceFile) {
+        String lambdaClass = group.getLambdaClass();
+        LambdaGroup.Member first = group.members.get(0);
+        Type samMethodType = (Type) first.bsmArgs[0];
+        Interfaces interfaces = new Interfaces(first.invokedType.getReturnType().getInternalName(), group.bsm, first.bsmArgs);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return JAVA_LANG_OBJECT; // avoid loading classes; the generated methods don't merge different types
+            }
+        };
+        cw.visit(V1_8, ACC_SUPER | ACC_FINAL | ACC_SYNTHETIC, lambdaClass, null, JAVA_LANG_OBJECT, interfaces.getNames());
+        if (sourceFile != null) {
+            cw.visitSource(sourceFile, null);
+        }
+        FieldVisitor fv = cw.visitField(ACC_PRIVATE | ACC_FINAL, LAMBDA_ID_FIELD, "I", null, null);
+        fv.visitEnd();
+
+        List<ForwardingMethodGenerator> forwarders = new ArrayList<>();
+        for (LambdaGroup.Member member : group.members) {
+            Type[] capturedTypes = member.invokedType.getArgumentTypes();
+            String[] capturedNames = new String[capturedTypes.length];
+            for (int i = 0; i < capturedTypes.length; i++) {
+                // not final, because they are set in the factory method instead of the constructor
+                capturedNames[i] = "arg$" + member.id + "$" + (i + 1);
+                fv = cw.visitField(ACC_PRIVATE, capturedNames[i], capturedTypes[i].getDescriptor(), null, null);
+                fv.visitEnd();
+            }
+            if (member.isStateless()) {
+                fv = cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, singletonField(member), "L" + lambdaClass + ";", null, null);
+                fv.visitEnd();
+            }
+            generateGroupFactoryMethod(cw, lambdaClass, member, capturedNames, capturedTypes);
+            forwarders.add(new ForwardingMethodGenerator(lambdaClass, capturedNames, capturedTypes,
+                    member.implMethod, member.accessMethod, (Type) member.bsmArgs[2]));
+        }
+        generateGroupConstructor(cw, lambdaClass);
+        generateGroupStaticInitializer(cw, group);
+
+        generateDispatchingMethod(cw.visitMethod(ACC_PUBLIC, group.invokedName, samMethodType.getDescriptor(), null, null),
+                lambdaClass, forwarders, samMethodType);
+        for (Type bridge : interfaces.bridges) {
+            generateDispatchingMethod(cw.visitMethod(ACC_PUBLIC | ACC_BRIDGE, group.invokedName, bridge.getDescriptor(), null, null),
+                    lambdaClass, forwarders, bridge);
+        }
+        if (interfaces.accidentallySerializable) {
+            generateSerializationHostileMethods(cw);
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static String singletonField(LambdaGroup.Member member) {
+        return "instance$" + member.id;
+    }
+
+    private static void generateConstructor(ClassWriter cw, String lambdaClass, String[] capturedNames, Type[] capturedTypes) {
+        MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, capturedTypes), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, JAVA_LANG_OBJECT, "<init>", "()V", false);
+        int varIndex = 1;
+        for (int i = 0; i < capturedTypes.length; i++) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(capturedTypes[i].getOpcode(ILOAD), varIndex);
+            varIndex += capturedTypes[i].getSize();
+            mv.visitFieldInsn(PUTFIELD, lambdaClass, capturedNames[i], capturedTypes[i].getDescriptor());
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+        mv.visitEnd();
+    }
+
+    private static void generateGroupConstructor(ClassWriter cw, String lambdaClass) {
+        MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, "<init>", "(I)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, JAVA_LANG_OBJECT, "<init>", "()V", false);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, lambdaClass, LAMBDA_ID_FIELD, "I");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+        mv.visitEnd();
+    }
+
+    private static void generateGroupStaticInitializer(ClassWriter cw, LambdaGroup group) {
+        String lambdaClass = group.getLambdaClass();
+        MethodVisitor mv = null;
+        for (LambdaGroup.Member member : group.members) {
+            if (member.isStateless()) {
+                if (mv == null) {
+                    mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+                    mv.visitCode();
+                }
+                mv.visitTypeInsn(NEW, lambdaClass);
+                mv.visitInsn(DUP);
+                mv.visitLdcInsn(member.id);
+                mv.visitMethodInsn(INVOKESPECIAL, lambdaClass, "<init>", "(I)V", false);
+                mv.visitFieldInsn(PUTSTATIC, lambdaClass, singletonField(member), "L" + lambdaClass + ";");
+            }
+        }
+        if (mv != null) {
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+            mv.visitEnd();
+        }
+    }
+
+    private static void generateGroupFactoryMethod(ClassWriter cw, String lambdaClass, LambdaGroup.Member member,
+                                                   String[] capturedNames, Type[] capturedTypes) {
+        LambdaFactoryMethod factory = member.factoryMethod;
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, factory.getName(), factory.getDesc(), null, null);
+        mv.visitCode();
+        if (member.isStateless()) {
+            mv.visitFieldInsn(GETSTATIC, lambdaClass, singletonField(member), "L" + lambdaClass + ";");
+        } else {
+            mv.visitTypeInsn(NEW, lambdaClass);
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(member.id);
+            mv.visitMethodInsn(INVOKESPECIAL, lambdaClass, "<init>", "(I)V", false);
+            int varIndex = 0;
+            for (int i = 0; i < capturedTypes.length; i++) {
+                mv.visitInsn(DUP);
+                mv.visitVarInsn(capturedTypes[i].getOpcode(ILOAD), varIndex);
+                varIndex += capturedTypes[i].getSize();
+                mv.visitFieldInsn(PUTFIELD, lambdaClass, capturedNames[i], capturedTypes[i].getDescriptor());
+            }
+        }
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+        mv.visitEnd();
+    }
+
+    private static void generateForwardingMethod(MethodVisitor mv, ForwardingMethodGenerator forwarder, Type methodType) {
+        mv.visitCode();
+        forwarder.generate(mv, methodType);
+        mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+        mv.visitEnd();
+    }
+
+    private static void generateDispatchingMethod(MethodVisitor mv, String lambdaClass,
+                                                  List<ForwardingMethodGenerator> forwarders, Type methodType) {
+        mv.visitCode();
+        Label[] cases = new Label[forwarders.size()];
+        for (int i = 0; i < cases.length; i++) {
+            cases[i] = new Label();
+        }
+        Label unknownId = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, lambdaClass, LAMBDA_ID_FIELD, "I");
+        mv.visitTableSwitchInsn(0, cases.length - 1, unknownId, cases);
+        for (int i = 0; i < cases.length; i++) {
+            mv.visitLabel(cases[i]);
+            forwarders.get(i).generate(mv, methodType);
+        }
+        mv.visitLabel(unknownId);
+        mv.visitTypeInsn(NEW, "java/lang/AssertionError");
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/AssertionError", "<init>", "()V", false);
+        mv.visitInsn(ATHROW);
+        mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+        mv.visitEnd();
+    }
+
+    private static void generateSerializationHostileMethods(ClassWriter cw) {
+        generateSerializationHostileMethod(cw, "writeObject", "(Ljava/io/ObjectOutputStream;)V");
+        generateSerializationHostileMethod(cw, "readObject", "(Ljava/io/ObjectInputStream;)V");
+    }
+
+    private static void generateSerializationHostileMethod(ClassWriter cw, String name, String desc) {
+        MethodVisitor mv = cw.visitMethod(ACC_PRIVATE | ACC_FINAL, name, desc, null, new String[]{NOT_SERIALIZABLE_EXCEPTION});
+        mv.visitCode();
+        mv.visitTypeInsn(NEW, NOT_SERIALIZABLE_EXCEPTION);
+        mv.visitInsn(DUP);
+        mv.visitLdcInsn("Non-serializable lambda");
+        mv.visitMethodInsn(INVOKESPECIAL, NOT_SERIALIZABLE_EXCEPTION, "<init>", "(Ljava/lang/String;)V", false);
+        mv.visitInsn(ATHROW);
+        mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+        mv.visitEnd();
+    }
+
+    /**
+     * Checks the type hierarchy by reading the class files, so that the classes don't need to be loaded.
+     */
+    private boolean isSerializable(String type) {
+        if (type.equals(JAVA_IO_SERIALIZABLE)) {
+            return true;
+        }
+        Boolean cached = serializableTypes.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        boolean serializable = false;
+        ClassReader cr = readClass(type);
+        if (cr != null) {
+            if (cr.getSuperName() != null) {
+                serializable = isSerializable(cr.getSuperName());
+            }
+            for (String itf : cr.getInterfaces()) {
+                serializable |= isSerializable(itf);
+            }
+        }
+        serializableTypes.put(type, serializable);
+        return serializable;
+    }
+
+    private static ClassReader readClass(String type) {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        try (InputStream in = cl.getResourceAsStream(type + ".class")) {
+            return in == null ? null : new ClassReader(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + type, e);
+        }
+    }
+
+
+    /**
+     * The interfaces and bridge methods which the lambda metafactory would add to the lambda class.
+     */
+    private class Interfaces {
+        final Set<String> names = new LinkedHashSet<>();
+        final List<Type> bridges = new ArrayList<>();
+        boolean accidentallySerializable;
+
+        Interfaces(String samIntf, Handle bsm, Object[] bsmArgs) {
+            List<String> markerInterfaces = new ArrayList<>();
+            boolean isSerializable = false;
+            if (bsm.getName().equals("altMetafactory")) {
+                int argIndex = 3;
+                int flags = (Integer) bsmArgs[argIndex++];
+                if ((flags & FLAG_MARKERS) != 0) {
+                    int markerCount = (Integer) bsmArgs[argIndex++];
+                    for (int i = 0; i < markerCount; i++) {
+                        markerInterfaces.add(((Type) bsmArgs[argIndex++]).getInternalName());
+                    }
+                }
+                if ((flags & FLAG_BRIDGES) != 0) {
+                    int bridgeCount = (Integer) bsmArgs[argIndex++];
+                    for (int i = 0; i < bridgeCount; i++) {
+                        bridges.add((Type) bsmArgs[argIndex++]);
+                    }
+                }
+                isSerializable = (flags & FLAG_SERIALIZABLE) != 0;
+                if (isSerializable) {
+                    boolean foundSerializableSupertype = isSerializable(samIntf);
+                    for (String marker : markerInterfaces) {
+                        foundSerializableSupertype |= isSerializable(marker);
+                    }
+                    if (!foundSerializableSupertype) {
+                        markerInterfaces.add(JAVA_IO_SERIALIZABLE);
+                    }
+                }
+            }
+
+            accidentallySerializable = !isSerializable && isSerializable(samIntf);
+            names.add(samIntf);
+            for (String marker : markerInterfaces) {
+                names.add(marker);
+                accidentallySerializable |= !isSerializable && isSerializable(marker);
+            }
+        }
+
+        String[] getNames() {
+            return names.toArray(new String[0]);
+        }
+    }
+
+    private static class ForwardingMethodGenerator {
+        private final String lambdaClass;
+        private final String[] capturedNames;
+        private final Type[] capturedTypes;
+        private final Handle implMethod;
+        private final Handle invokedMethod;
+        private final Type implMethodType;
+        private final Type implClass;
+        private final boolean implIsInstanceMethod;
+        private final Type instantiatedMethodType;
+
+        /**
+         * @param invokedMethod the method to call instead of the implementation method,
+         *                      or the implementation method itself if it's accessible
+         */
+        ForwardingMethodGenerator(String lambdaClass, String[] capturedNames, Type[] capturedTypes,
+                                  Handle implMethod, Handle invokedMethod, Type instantiatedMethodType) {
+            this.lambdaClass = lambdaClass;
+            this.capturedNames = capturedNames;
+            this.capturedTypes = capturedTypes;
+            this.implMethod = implMethod;
+            this.invokedMethod = invokedMethod;
+            this.implMethodType = Type.getMethodType(implMethod.getDesc());
+            this.implClass = Type.getObjectType(implMethod.getOwner());
+            int tag = implMethod.getTag();
+            this.implIsInstanceMethod = tag == H_INVOKEVIRTUAL || tag == H_INVOKESPECIAL || tag == H_INVOKEINTERFACE;
+            this.instantiatedMethodType = instantiatedMethodType;
+        }
+
+        void generate(MethodVisitor mv, Type methodType) {
+            if (invokedMethod.getTag() == H_NEWINVOKESPECIAL) {
+                // an access method for a constructor would instantiate the object itself
+                mv.visitTypeInsn(NEW, invokedMethod.getOwner());
+                mv.visitInsn(DUP);
+            }
+            for (int i = 0; i < capturedNames.length; i++) {
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitFieldInsn(GETFIELD, lambdaClass, capturedNames[i], capturedTypes[i].getDescriptor());
+            }
+            convertArgumentTypes(mv, methodType);
+            mv.visitMethodInsn(Handles.getOpcode(invokedMethod), invokedMethod.getOwner(), invokedMethod.getName(),
+                    invokedMethod.getDesc(), invokedMethod.isInterface());
+
+            Type implReturnType = implMethod.getTag() == H_NEWINVOKESPECIAL ? implClass : implMethodType.getReturnType();
+            Type samReturnType = methodType.getReturnType();
+            TypeConversions.convertType(mv, implReturnType, samReturnType, samReturnType);
+            mv.visitInsn(samReturnType.getOpcode(IRETURN));
+        }
+
+        private void convertArgumentTypes(MethodVisitor mv, Type samType) {
+            Type[] samParams = samType.getArgumentTypes();
+            Type[] implParams = implMethodType.getArgumentTypes();
+            Type[] instantiatedParams = instantiatedMethodType.getArgumentTypes();
+            int varIndex = 1;
+            int firstArg = 0;
+            if (implIsInstanceMethod && capturedTypes.length == 0) {
+                // the receiver is the first parameter of the functional interface method
+                Type receiverType = samParams[0];
+                mv.visitVarInsn(receiverType.getOpcode(ILOAD), varIndex);
+                varIndex += receiverType.getSize();
+                TypeConversions.convertType(mv, receiverType, implClass, instantiatedParams[0]);
+                firstArg = 1;
+            }
+            int argOffset = implParams.length - samParams.length;
+            for (int i = firstArg; i < samParams.length; i++) {
+                Type argType = samParams[i];
+                mv.visitVarInsn(argType.getOpcode(ILOAD), varIndex);
+                varIndex += argType.getSize();
+                TypeConversions.convertType(mv, argType, implParams[argOffset + i], instantiatedParams[i]);
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ import com.esotericsoftware.minlog.Log;
 import net.orfjackal.retrolambda.Transformers;
 import net.orfjackal.retrolambda.ext.ow2asm.EnhancedClassReader;
 import net.orfjackal.retrolambda.files.OutputDirectory;
+import net.orfjackal.retrolambda.util.Metrics;
 
 import java.io.IOException;
 
@@ -30,7 +31,12 @@ public class LambdaClassSaver {
     }
 
     private void reifyLambdaClass(String className, byte[] bytecode) {
-        Log.info("Saving lambda class: " + className);
+        String lambdaClass = LambdaReifier.getLambdaClassName();
+        if (!className.equals(lambdaClass)) {
+            bytecode = RenameLambdaClass.rename(bytecode, className, lambdaClass);
+        }
+        Log.info("Saving lambda class: " + lambdaClass);
+        Metrics.count(Metrics.LAMBDA_CLASSES, 1);
         bytecode = transformers.backportLambdaClass(EnhancedClassReader.create(bytecode, isJavacHacksEnabled));
         try {
             saver.writeClass(bytecode, isJavacHacksEnabled);
@@ -9,11 +9,39 @@ import org.objectweb.asm.Type;
 public class LambdaFactoryMethod {
 
     private final String owner;
+    private final String name;
     private final String desc;
+    private final boolean inline;
 
     public LambdaFactoryMethod(String lambdaClass, Type invokedType) {
+        this(lambdaClass, invokedType, false);
+    }
+
+    public LambdaFactoryMethod(String lambdaClass, Type invokedType, boolean inline) {
+        this(lambdaClass, "lambdaFactory$", invokedType, inline);
+    }
+
+    public LambdaFactoryMethod(String lambdaClass, String name, Type invokedType) {
+        this(lambdaClass, name, invokedType, false);
+    }
+
+    private LambdaFactoryMethod(String lambdaClass, String name, Type invokedType, boolean inline) {
         owner = lambdaClass;
+        this.name = name;
         desc = invokedType.getDescriptor();
+        this.inline = inline;
+    }
+
+    /**
+     * Whether the captured arguments are few enough, that the lambda class can be
+     * instantiated at the call site by moving the new instance below them on the stack.
+     */
+    public static boolean canInline(Type invokedType) {
+        int size = 0;
+        for (Type type : invokedType.getArgumentTypes()) {
+            size += type.getSize();
+        }
+        return size <= 2;
     }
 
     public String getOwner() {
@@ -21,10 +49,18 @@ public class LambdaFactoryMethod {
     }
 
     public String getName() {
-        return "lambdaFactory$";
+        return name;
     }
 
     public String getDesc() {
         return desc;
     }
+
+    /**
+     * Whether the lambda class is instantiated at the call site,
+     * in which case this factory method is not generated.
+     */
+    public boolean isInline() {
+        return inline;
+    }
 }
@@ -0,0 +1,67 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+import java.util.*;
+
+/**
+ * The lambdas of one class which implement the same functional interface with
+ * the same bootstrap method flags, so that they can share one lambda class.
+ * The lambda class dispatches on the ID of the lambda which created the instance.
+ */
+class LambdaGroup {
+
+    final String invoker;
+    final String lambdaClass;
+    final String invokedName;
+    final Handle bsm;
+    final List<Member> members = new ArrayList<>();
+
+    LambdaGroup(String invoker, String lambdaClass, String invokedName, Handle bsm) {
+        this.invoker = invoker;
+        this.lambdaClass = lambdaClass;
+        this.invokedName = invokedName;
+        this.bsm = bsm;
+    }
+
+    String getLambdaClass() {
+        return lambdaClass;
+    }
+
+    LambdaFactoryMethod addMember(Type invokedType, Handle implMethod, Handle accessMethod, Object[] bsmArgs) {
+        int id = members.size();
+        // a group of one is generated like any other lambda class, so the first factory method has the usual name
+        String factoryName = id == 0 ? "lambdaFactory$" : "lambdaFactory$" + id;
+        Member member = new Member(id, new LambdaFactoryMethod(getLambdaClass(), factoryName, invokedType),
+                invokedType, implMethod, accessMethod, bsmArgs);
+        members.add(member);
+        return member.factoryMethod;
+    }
+
+
+    static class Member {
+        final int id;
+        final LambdaFactoryMethod factoryMethod;
+        final Type invokedType;
+        final Handle implMethod;
+        final Handle accessMethod;
+        final Object[] bsmArgs;
+
+        Member(int id, LambdaFactoryMethod factoryMethod, Type invokedType, Handle implMethod, Handle accessMethod, Object[] bsmArgs) {
+            this.id = id;
+            this.factoryMethod = factoryMethod;
+            this.invokedType = invokedType;
+            this.implMethod = implMethod;
+            this.accessMethod = accessMethod;
+            this.bsmArgs = bsmArgs;
+        }
+
+        boolean isStateless() {
+            return invokedType.getArgumentTypes().length == 0;
+        }
+    }
+}
@@ -4,8 +4,10 @@
 
 package net.orfjackal.retrolambda.lambdas;
 
+import com.google.common.hash.Hashing;
 import net.orfjackal.retrolambda.util.Flags;
 
+import java.nio.charset.StandardCharsets;
 import java.util.regex.Pattern;
 
 import static org.objectweb.asm.Opcodes.*;
@@ -14,11 +16,29 @@ public class LambdaNaming {
 
     public static final String LAMBDA_METAFACTORY = "java/lang/invoke/LambdaMetafactory";
     public static final String MAGIC_LAMBDA_IMPL = "java/lang/invoke/MagicLambdaImpl";
+    public static final String LAMBDA_BODY_METHOD_PREFIX = "lambda$";
 
     /**
-     * Java 8 produces at runtime classes named {@code EnclosingClass$$Lambda$1}
+     * Java 8 produces at runtime classes named {@code EnclosingClass$$Lambda$1}.
+     * Retrolambda may also add a hash suffix, e.g. {@code EnclosingClass$$Lambda$1$4f2a9c01}
      */
-    public static final Pattern LAMBDA_CLASS = Pattern.compile("^.+\\$\\$Lambda\\$\\d+$");
+    public static final Pattern LAMBDA_CLASS = Pattern.compile("^.+\\$\\$Lambda\\$\\d+(\\$[0-9a-f]+)?$");
+
+    /**
+     * The lambda classes are numbered in the order of their call sites in the enclosing class,
+     * so the name doesn't depend on the JDK or on what other classes have been backported.
+     *
+     * @param lambdaNumber the one-based index of the lambda in the enclosing class
+     * @param contentKey   if not null, a hash of it is appended to the name, so that the name
+     *                     depends also on what the lambda is, instead of only on its position
+     */
+    public static String lambdaClassName(String enclosingClass, int lambdaNumber, Object contentKey) {
+        String name = enclosingClass + "$$Lambda$" + lambdaNumber;
+        if (contentKey != null) {
+            name += "$" + Hashing.murmur3_32().hashString(contentKey.toString(), StandardCharsets.UTF_8);
+        }
+        return name;
+    }
 
     public static boolean isSerializationHook(int access, String name, String desc) {
         return name.equals("writeReplace")
@@ -39,7 +59,7 @@ public class LambdaNaming {
     }
 
     public static boolean isBodyMethodName(String name) {
-        return name.startsWith("lambda$");
+        return name.startsWith(LAMBDA_BODY_METHOD_PREFIX);
     }
 
     public static boolean isBodyMethod(int access, String name) {
@@ -0,0 +1,67 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import net.orfjackal.retrolambda.Config;
+
+/**
+ * The options which affect how the lambda expressions are backported.
+ * Nothing is enabled by default.
+ */
+public final class LambdaOptions {
+
+    public static final LambdaOptions DEFAULTS = new LambdaOptions(false, false, false, false);
+
+    /**
+     * Whether identical lambdas in a class share one lambda class.
+     */
+    public final boolean deduplicateLambdas;
+
+    /**
+     * Whether the lambdas which implement the same functional interface are grouped into one lambda class.
+     */
+    public final boolean groupLambdas;
+
+    /**
+     * Whether to instantiate the lambda classes at the call sites instead of calling their factory methods.
+     */
+    public final boolean inlineLambdaFactories;
+
+    /**
+     * Whether to append a hash of the lambda to the lambda class names.
+     */
+    public final boolean hashLambdaNames;
+
+    private LambdaOptions(boolean deduplicateLambdas, boolean groupLambdas, boolean inlineLambdaFactories, boolean hashLambdaNames) {
+        this.deduplicateLambdas = deduplicateLambdas;
+        this.groupLambdas = groupLambdas;
+        this.inlineLambdaFactories = inlineLambdaFactories;
+        this.hashLambdaNames = hashLambdaNames;
+    }
+
+    public static LambdaOptions from(Config config) {
+        return DEFAULTS
+                .withDeduplicateLambdas(config.isDeduplicateLambdas())
+                .withGroupLambdas(config.isGroupLambdas())
+                .withInlineLambdaFactories(config.isInlineLambdaFactories())
+                .withHashLambdaNames(config.isHashLambdaNames());
+    }
+
+    public LambdaOptions withDeduplicateLambdas(boolean deduplicateLambdas) {
+        return new LambdaOptions(deduplicateLambdas, groupLambdas, inlineLambdaFactories, hashLambdaNames);
+    }
+
+    public LambdaOptions withGroupLambdas(boolean groupLambdas) {
+        return new LambdaOptions(deduplicateLambdas, groupLambdas, inlineLambdaFactories, hashLambdaNames);
+    }
+
+    public LambdaOptions withInlineLambdaFactories(boolean inlineLambdaFactories) {
+        return new LambdaOptions(deduplicateLambdas, groupLambdas, inlineLambdaFactories, hashLambdaNames);
+    }
+
+    public LambdaOptions withHashLambdaNames(boolean hashLambdaNames) {
+        return new LambdaOptions(deduplicateLambdas, groupLambdas, inlineLambdaFactories, hashLambdaNames);
+    }
+}
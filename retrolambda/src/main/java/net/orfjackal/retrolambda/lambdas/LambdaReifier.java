@@ -4,6 +4,8 @@
 
 package net.orfjackal.retrolambda.lambdas;
 
+import net.orfjackal.retrolambda.jfr.FlightRecorderEvents;
+import net.orfjackal.retrolambda.util.Metrics;
 import org.objectweb.asm.*;
 
 import java.lang.invoke.*;
@@ -15,28 +17,47 @@ public class LambdaReifier {
 
     // These globals are used for communicating with the Java agent which
     // is spying on the LambdaMetafactory's dynamically generated bytecode.
-    // We expect only one class being processed at a time, so it should
-    // be an error if these collections contain more than one element.
-    private static final BlockingDeque<Handle> currentLambdaImplMethod = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<Handle> currentLambdaAccessMethod = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<Class<?>> currentInvoker = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<Type> currentInvokedType = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<String> currentLambdaClass = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<EnclosingClass> currentEnclosingClass = new LinkedBlockingDeque<>(1);
+    // The agent is called on the same thread which called the bootstrap method,
+    // so each thread has its own copy of them. We expect only one class being
+    // processed at a time per thread, so it should be an error if these
+    // collections contain more than one element.
+    // (Not using a lambda here, because that would itself go through the
+    // lambda metafactory while we are in the middle of backporting a lambda.)
+    private static final ThreadLocal<Globals> globals = new ThreadLocal<Globals>() {
+        @Override
+        protected Globals initialValue() {
+            return new Globals();
+        }
+    };
 
+    /**
+     * @param lambdaClass the name of the lambda class; see {@link LambdaNaming#lambdaClassName}
+     * @param generator   if not null, generates the lambda class instead of calling the lambda metafactory
+     */
     public static LambdaFactoryMethod reifyLambdaClass(EnclosingClass enclosingClass, Handle lambdaImplMethod, Handle lambdaAccessMethod,
-                                                       Class<?> invoker, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) {
-        try {
+                                                       String invoker, String lambdaClass,
+                                                       String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs,
+                                                       boolean inlineFactory, LambdaClassGenerator generator) {
+        try (Metrics.Timer timer = Metrics.time(Metrics.REIFY_LAMBDA_CLASS);
+             FlightRecorderEvents.Span span = FlightRecorderEvents.reifyLambda(lambdaImplMethod, lambdaClass)) {
             setLambdaImplMethod(lambdaImplMethod);
             setLambdaAccessMethod(lambdaAccessMethod);
             setInvoker(invoker);
             setInvokedType(invokedType);
+            setInlineFactory(inlineFactory);
             setEnclosingClass(enclosingClass);
-
-            // Causes the lambda class to be loaded. Retrolambda's Java agent
-            // will detect it, save it to a file and tell us (via the globals
-            // in this class) that what the name of the lambda class was.
-            callBootstrapMethod(invoker, invokedName, invokedType, bsm, bsmArgs);
+            setLambdaClassName(lambdaClass);
+
+            if (generator != null) {
+                generator.spinLambdaClass(lambdaClass, invokedName, invokedType, bsm, bsmArgs);
+            } else {
+                // Causes the lambda class to be loaded. Retrolambda's Java agent
+                // will detect it, rename it, save it to a file and tell us (via the
+                // globals in this class) that the lambda class was saved. The JDK
+                // names the lambda classes using a JVM-wide counter, so its names
+                // depend on what else has been loaded, also in other threads.
+                callBootstrapMethod(loadClass(invoker), invokedName, invokedType, bsm, bsmArgs);
+            }
 
             return getLambdaFactoryMethod();
 
@@ -48,61 +69,81 @@ public class LambdaReifier {
     }
 
     private static void setLambdaImplMethod(Handle lambdaImplMethod) {
-        currentLambdaImplMethod.push(lambdaImplMethod);
+        globals.get().currentLambdaImplMethod.push(lambdaImplMethod);
     }
 
     private static void setLambdaAccessMethod(Handle lambdaAccessMethod) {
-        currentLambdaAccessMethod.push(lambdaAccessMethod);
+        globals.get().currentLambdaAccessMethod.push(lambdaAccessMethod);
     }
 
-    private static void setInvoker(Class<?> lambdaInvoker) {
-        currentInvoker.push(lambdaInvoker);
+    private static void setInvoker(String lambdaInvoker) {
+        globals.get().currentInvoker.push(lambdaInvoker);
     }
 
     private static void setInvokedType(Type invokedType) {
-        currentInvokedType.push(invokedType);
+        globals.get().currentInvokedType.push(invokedType);
+    }
+
+    private static void setInlineFactory(boolean inlineFactory) {
+        globals.get().currentInlineFactory.push(inlineFactory);
     }
 
     public static void setLambdaClass(String lambdaClass) {
-        currentLambdaClass.push(lambdaClass);
+        globals.get().currentLambdaClass.push(lambdaClass);
     }
 
     public static void setEnclosingClass(EnclosingClass enclosingClass) {
-        currentEnclosingClass.push(enclosingClass);
+        globals.get().currentEnclosingClass.push(enclosingClass);
+    }
+
+    private static void setLambdaClassName(String lambdaClass) {
+        globals.get().currentLambdaClassName.push(lambdaClass);
     }
 
     public static boolean isLambdaClassToReify(String className) {
-        Class<?> invoker = currentInvoker.peekFirst();
+        String invoker = globals.get().currentInvoker.peekFirst();
         return invoker != null
-                && className.startsWith(Type.getInternalName(invoker))
+                && className.startsWith(invoker)
                 && LambdaNaming.LAMBDA_CLASS.matcher(className).matches();
     }
 
     public static Handle getLambdaImplMethod() {
-        return currentLambdaImplMethod.getFirst();
+        return globals.get().currentLambdaImplMethod.getFirst();
     }
 
     public static Handle getLambdaAccessMethod() {
-        return currentLambdaAccessMethod.getFirst();
+        return globals.get().currentLambdaAccessMethod.getFirst();
     }
 
     public static EnclosingClass getEnclosingClass() {
-        return currentEnclosingClass.getFirst();
+        return globals.get().currentEnclosingClass.getFirst();
+    }
+
+    /**
+     * @return the name which Retrolambda chose for the lambda class, instead of the name the JDK gave it
+     */
+    public static String getLambdaClassName() {
+        return globals.get().currentLambdaClassName.getFirst();
     }
 
     public static LambdaFactoryMethod getLambdaFactoryMethod() {
-        String lambdaClass = currentLambdaClass.getFirst();
-        Type invokedType = currentInvokedType.getFirst();
-        return new LambdaFactoryMethod(lambdaClass, invokedType);
+        String lambdaClass = globals.get().currentLambdaClass.getFirst();
+        Type invokedType = globals.get().currentInvokedType.getFirst();
+        boolean inline = globals.get().currentInlineFactory.getFirst();
+        return new LambdaFactoryMethod(lambdaClass, invokedType, inline);
     }
 
     private static void resetGlobals() {
-        currentLambdaImplMethod.clear();
-        currentLambdaAccessMethod.clear();
-        currentInvoker.clear();
-        currentInvokedType.clear();
-        currentLambdaClass.clear();
-        currentEnclosingClass.clear();
+        globals.remove();
+    }
+
+    private static Class<?> loadClass(String className) {
+        try {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            return cl.loadClass(className.replace('/', '.'));
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private static CallSite callBootstrapMethod(Class<?> invoker, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) throws Throwable {
@@ -126,4 +167,16 @@ public class LambdaReifier {
         ctor.setAccessible(true);
         return ctor.newInstance(targetClass);
     }
+
+
+    private static class Globals {
+        final BlockingDeque<Handle> currentLambdaImplMethod = new LinkedBlockingDeque<>(1);
+        final BlockingDeque<Handle> currentLambdaAccessMethod = new LinkedBlockingDeque<>(1);
+        final BlockingDeque<String> currentInvoker = new LinkedBlockingDeque<>(1);
+        final BlockingDeque<Type> currentInvokedType = new LinkedBlockingDeque<>(1);
+        final BlockingDeque<Boolean> currentInlineFactory = new LinkedBlockingDeque<>(1);
+        final BlockingDeque<String> currentLambdaClass = new LinkedBlockingDeque<>(1);
+        final BlockingDeque<EnclosingClass> currentEnclosingClass = new LinkedBlockingDeque<>(1);
+        final BlockingDeque<String> currentLambdaClassName = new LinkedBlockingDeque<>(1);
+    }
 }
@@ -0,0 +1,111 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+import static org.objectweb.asm.Opcodes.ASM5;
+
+/**
+ * Renames the lambda class which the JDK spun. Only the lambda class itself
+ * refers to its own name, so it's enough to rename the references in it.
+ */
+class RenameLambdaClass extends ClassVisitor {
+
+    private final String oldName;
+    private final String newName;
+    private final String oldDesc;
+    private final String newDesc;
+
+    RenameLambdaClass(ClassVisitor next, String oldName, String newName) {
+        super(ASM5, next);
+        this.oldName = oldName;
+        this.newName = newName;
+        this.oldDesc = "L" + oldName + ";";
+        this.newDesc = "L" + newName + ";";
+    }
+
+    static byte[] rename(byte[] bytecode, String oldName, String newName) {
+        ClassWriter cw = new ClassWriter(0);
+        new ClassReader(bytecode).accept(new RenameLambdaClass(cw, oldName, newName), 0);
+        return cw.toByteArray();
+    }
+
+    private String type(String internalName) {
+        return internalName.equals(oldName) ? newName : desc(internalName);
+    }
+
+    private String desc(String desc) {
+        return desc == null ? null : desc.replace(oldDesc, newDesc);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        super.visit(version, access, type(name), desc(signature), superName, interfaces);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        return super.visitField(access, name, desc(desc), desc(signature), value);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        MethodVisitor next = super.visitMethod(access, name, desc(desc), desc(signature), exceptions);
+        return new MethodVisitor(ASM5, next) {
+
+            @Override
+            public void visitTypeInsn(int opcode, String type) {
+                super.visitTypeInsn(opcode, type(type));
+            }
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                super.visitFieldInsn(opcode, type(owner), name, desc(desc));
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                super.visitMethodInsn(opcode, type(owner), name, desc(desc), itf);
+            }
+
+            @Override
+            public void visitLdcInsn(Object cst) {
+                if (cst instanceof Type) {
+                    cst = Type.getType(desc(((Type) cst).getDescriptor()));
+                }
+                super.visitLdcInsn(cst);
+            }
+
+            @Override
+            public void visitMultiANewArrayInsn(String desc, int dims) {
+                super.visitMultiANewArrayInsn(desc(desc), dims);
+            }
+
+            @Override
+            public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+                super.visitFrame(type, nLocal, frameTypes(nLocal, local), nStack, frameTypes(nStack, stack));
+            }
+
+            @Override
+            public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+                super.visitLocalVariable(name, desc(desc), desc(signature), start, end, index);
+            }
+        };
+    }
+
+    private Object[] frameTypes(int n, Object[] types) {
+        if (types == null) {
+            return null;
+        }
+        Object[] renamed = types.clone();
+        for (int i = 0; i < n; i++) {
+            if (renamed[i] instanceof String) {
+                renamed[i] = type((String) renamed[i]);
+            }
+        }
+        return renamed;
+    }
+}
@@ -0,0 +1,177 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The boxing, unboxing, widening and casting which the lambda metafactory does
+ * between the functional interface method's and the implementation method's types.
+ * Follows the rules of Java 8's {@code TypeConvertingMethodAdapter}.
+ */
+class TypeConversions {
+
+    private static final String JAVA_LANG_OBJECT = "java/lang/Object";
+    private static final String JAVA_LANG_NUMBER = "java/lang/Number";
+
+    static void convertType(MethodVisitor mv, Type arg, Type target, Type functional) {
+        if (arg.equals(target) && arg.equals(functional)) {
+            return;
+        }
+        if (arg.getSort() == Type.VOID || target.getSort() == Type.VOID) {
+            return;
+        }
+        if (isPrimitive(arg)) {
+            if (isPrimitive(target)) {
+                widen(mv, arg, target);
+            } else {
+                Type primitiveTarget = unboxedType(target);
+                if (primitiveTarget != null) {
+                    // the target is a boxed primitive type, so widen before boxing
+                    widen(mv, arg, primitiveTarget);
+                    box(mv, primitiveTarget);
+                } else {
+                    box(mv, arg);
+                    cast(mv, boxedType(arg), target);
+                }
+            }
+        } else {
+            Type source;
+            if (isPrimitive(functional)) {
+                source = arg;
+            } else {
+                source = functional;
+                cast(mv, arg, source);
+            }
+            if (isPrimitive(target)) {
+                Type primitiveSource = unboxedType(source);
+                if (primitiveSource != null) {
+                    if (isSigned(primitiveSource) || isFloating(primitiveSource)) {
+                        unbox(mv, boxedType(primitiveSource), target);
+                    } else {
+                        unbox(mv, boxedType(primitiveSource), primitiveSource);
+                        widen(mv, primitiveSource, target);
+                    }
+                } else {
+                    Type intermediate = isSigned(target) || isFloating(target)
+                            ? Type.getObjectType(JAVA_LANG_NUMBER)
+                            : boxedType(target);
+                    cast(mv, source, intermediate);
+                    unbox(mv, intermediate, target);
+                }
+            } else {
+                cast(mv, source, target);
+            }
+        }
+    }
+
+    private static void cast(MethodVisitor mv, Type source, Type target) {
+        if (!target.equals(source) && !target.getInternalName().equals(JAVA_LANG_OBJECT)) {
+            mv.visitTypeInsn(CHECKCAST, target.getInternalName());
+        }
+    }
+
+    private static void box(MethodVisitor mv, Type primitive) {
+        String wrapper = boxedType(primitive).getInternalName();
+        mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + primitive.getDescriptor() + ")L" + wrapper + ";", false);
+    }
+
+    private static void unbox(MethodVisitor mv, Type wrapper, Type primitive) {
+        mv.visitMethodInsn(INVOKEVIRTUAL, wrapper.getInternalName(), primitive.getClassName() + "Value",
+                "()" + primitive.getDescriptor(), false);
+    }
+
+    private static void widen(MethodVisitor mv, Type source, Type target) {
+        if (!source.equals(target)) {
+            int opcode = wideningOpcode(source, target);
+            if (opcode != NOP) {
+                mv.visitInsn(opcode);
+            }
+        }
+    }
+
+    private static int wideningOpcode(Type source, Type target) {
+        int s = source.getSort();
+        boolean fromInt = s == Type.BYTE || s == Type.SHORT || s == Type.INT || s == Type.CHAR;
+        switch (target.getSort()) {
+            case Type.LONG:
+                return fromInt ? I2L : s == Type.FLOAT ? F2L : NOP;
+            case Type.FLOAT:
+                return fromInt ? I2F : s == Type.LONG ? L2F : NOP;
+            case Type.DOUBLE:
+                return fromInt ? I2D : s == Type.FLOAT ? F2D : s == Type.LONG ? L2D : NOP;
+            default:
+                return NOP;
+        }
+    }
+
+    private static boolean isPrimitive(Type type) {
+        return type.getSort() < Type.ARRAY;
+    }
+
+    private static boolean isSigned(Type primitive) {
+        int sort = primitive.getSort();
+        return sort == Type.BYTE || sort == Type.SHORT || sort == Type.INT || sort == Type.LONG;
+    }
+
+    private static boolean isFloating(Type primitive) {
+        int sort = primitive.getSort();
+        return sort == Type.FLOAT || sort == Type.DOUBLE;
+    }
+
+    private static Type boxedType(Type primitive) {
+        switch (primitive.getSort()) {
+            case Type.BOOLEAN:
+                return Type.getObjectType("java/lang/Boolean");
+            case Type.CHAR:
+                return Type.getObjectType("java/lang/Character");
+            case Type.BYTE:
+                return Type.getObjectType("java/lang/Byte");
+            case Type.SHORT:
+                return Type.getObjectType("java/lang/Short");
+            case Type.INT:
+                return Type.getObjectType("java/lang/Integer");
+            case Type.FLOAT:
+                return Type.getObjectType("java/lang/Float");
+            case Type.LONG:
+                return Type.getObjectType("java/lang/Long");
+            case Type.DOUBLE:
+                return Type.getObjectType("java/lang/Double");
+            default:
+                throw new IllegalArgumentException("Not a primitive type: " + primitive);
+        }
+    }
+
+    /**
+     * Returns the primitive type of a wrapper type, or null if the type is not a wrapper type.
+     */
+    private static Type unboxedType(Type type) {
+        if (type.getSort() != Type.OBJECT) {
+            return null;
+        }
+        switch (type.getInternalName()) {
+            case "java/lang/Boolean":
+                return Type.BOOLEAN_TYPE;
+            case "java/lang/Character":
+                return Type.CHAR_TYPE;
+            case "java/lang/Byte":
+                return Type.BYTE_TYPE;
+            case "java/lang/Short":
+                return Type.SHORT_TYPE;
+            case "java/lang/Integer":
+                return Type.INT_TYPE;
+            case "java/lang/Float":
+                return Type.FLOAT_TYPE;
+            case "java/lang/Long":
+                return Type.LONG_TYPE;
+            case "java/lang/Double":
+                return Type.DOUBLE_TYPE;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import org.objectweb.asm.ClassReader;
+
+import java.util.Arrays;
+
+/**
+ * Cheap queries over the raw class file structure, for classes which
+ * don't need to be visited with ASM.
+ *
+ * @see <a href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html">The class File Format</a>
+ */
+public class ClassFile {
+
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int WIDE = 0xc4;
+    private static final int IINC = 0x84;
+
+    // length of each instruction, including the opcode; 0 if variable or unknown
+    private static final byte[] INSTRUCTION_LENGTHS = new byte[256];
+
+    static {
+        Arrays.fill(INSTRUCTION_LENGTHS, 0x00, 0xca, (byte) 1);
+        INSTRUCTION_LENGTHS[0x10] = 2; // bipush
+        INSTRUCTION_LENGTHS[0x11] = 3; // sipush
+        INSTRUCTION_LENGTHS[0x12] = 2; // ldc
+        INSTRUCTION_LENGTHS[0x13] = 3; // ldc_w
+        INSTRUCTION_LENGTHS[0x14] = 3; // ldc2_w
+        Arrays.fill(INSTRUCTION_LENGTHS, 0x15, 0x1a, (byte) 2); // iload ... aload
+        Arrays.fill(INSTRUCTION_LENGTHS, 0x36, 0x3b, (byte) 2); // istore ... astore
+        INSTRUCTION_LENGTHS[IINC] = 3;
+        Arrays.fill(INSTRUCTION_LENGTHS, 0x99, 0xa9, (byte) 3); // ifeq ... jsr
+        INSTRUCTION_LENGTHS[0xa9] = 2; // ret
+        INSTRUCTION_LENGTHS[TABLESWITCH] = 0;
+        INSTRUCTION_LENGTHS[LOOKUPSWITCH] = 0;
+        Arrays.fill(INSTRUCTION_LENGTHS, 0xb2, 0xb9, (byte) 3); // getstatic ... invokestatic
+        INSTRUCTION_LENGTHS[0xb9] = 5; // invokeinterface
+        INSTRUCTION_LENGTHS[0xba] = 5; // invokedynamic
+        INSTRUCTION_LENGTHS[0xbb] = 3; // new
+        INSTRUCTION_LENGTHS[0xbc] = 2; // newarray
+        INSTRUCTION_LENGTHS[0xbd] = 3; // anewarray
+        INSTRUCTION_LENGTHS[0xc0] = 3; // checkcast
+        INSTRUCTION_LENGTHS[0xc1] = 3; // instanceof
+        INSTRUCTION_LENGTHS[WIDE] = 0;
+        INSTRUCTION_LENGTHS[0xc5] = 4; // multianewarray
+        INSTRUCTION_LENGTHS[0xc6] = 3; // ifnull
+        INSTRUCTION_LENGTHS[0xc7] = 3; // ifnonnull
+        INSTRUCTION_LENGTHS[0xc8] = 5; // goto_w
+        INSTRUCTION_LENGTHS[0xc9] = 5; // jsr_w
+    }
+
+    /**
+     * Whether any method calls an interface method using invokestatic or invokespecial,
+     * i.e. calls a static interface method or a default method of a superinterface.
+     * Unknown instructions are conservatively treated as such calls.
+     */
+    public static boolean hasNonVirtualInterfaceMethodCalls(ClassReader cr) {
+        return anyInstruction(cr, new InstructionMatcher() {
+            @Override
+            public boolean matches(ClassReader cr, int opcode, int operand) {
+                return (opcode == INVOKESTATIC || opcode == INVOKESPECIAL)
+                        && cr.readByte(cr.getItem(cr.readUnsignedShort(operand)) - 1) == ConstantPool.CONSTANT_INTERFACE_METHODREF;
+            }
+        });
+    }
+
+    /**
+     * Whether any method calls a superclass method using invokespecial,
+     * i.e. a {@code super.method()} call which may resolve to an inherited default method.
+     * Unknown instructions are conservatively treated as such calls.
+     */
+    public static boolean hasSuperMethodCalls(ClassReader cr) {
+        return anyInstruction(cr, new InstructionMatcher() {
+            private final char[] buf = new char[cr.getMaxStringLength()];
+
+            @Override
+            public boolean matches(ClassReader cr, int opcode, int operand) {
+                if (opcode != INVOKESPECIAL) {
+                    return false;
+                }
+                int methodRef = cr.getItem(cr.readUnsignedShort(operand));
+                int nameAndType = cr.getItem(cr.readUnsignedShort(methodRef + 2));
+                return !cr.readClass(methodRef, buf).equals(cr.getClassName())
+                        && !cr.readUTF8(nameAndType, buf).equals("<init>");
+            }
+        });
+    }
+
+    private static boolean anyInstruction(ClassReader cr, InstructionMatcher matcher) {
+        char[] buf = new char[cr.getMaxStringLength()];
+        int offset = skipFields(cr, getFieldsOffset(cr));
+        int methodsCount = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < methodsCount; i++) {
+            int attributesCount = cr.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributesCount; j++) {
+                int length = cr.readInt(offset + 2);
+                if ("Code".equals(cr.readUTF8(offset, buf))) {
+                    int codeLength = cr.readInt(offset + 10);
+                    if (anyInstruction(cr, offset + 14, codeLength, matcher)) {
+                        return true;
+                    }
+                }
+                offset += 6 + length;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyInstruction(ClassReader cr, int codeStart, int codeLength, InstructionMatcher matcher) {
+        int pc = 0;
+        while (pc < codeLength) {
+            int opcode = cr.readByte(codeStart + pc);
+            if (matcher.matches(cr, opcode, codeStart + pc + 1)) {
+                return true;
+            }
+            int length = INSTRUCTION_LENGTHS[opcode];
+            if (length > 0) {
+                pc += length;
+            } else if (opcode == TABLESWITCH) {
+                int p = align4(pc + 1);
+                int low = cr.readInt(codeStart + p + 4);
+                int high = cr.readInt(codeStart + p + 8);
+                pc = p + 12 + (high - low + 1) * 4;
+            } else if (opcode == LOOKUPSWITCH) {
+                int p = align4(pc + 1);
+                int pairs = cr.readInt(codeStart + p + 4);
+                pc = p + 8 + pairs * 8;
+            } else if (opcode == WIDE) {
+                pc += cr.readByte(codeStart + pc + 1) == IINC ? 6 : 4;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int align4(int pc) {
+        return (pc + 3) & ~3;
+    }
+
+    /**
+     * Returns a copy of the class file with its version changed, without parsing it.
+     */
+    @SuppressWarnings("deprecation")
+    public static byte[] withVersion(ClassReader cr, int version) {
+        // the first constant starts right after magic, minor_version, major_version and constant_pool_count
+        int start = cr.getItem(1) - 1 - 10;
+        int end = getEndOffset(cr);
+        byte[] bytecode = Arrays.copyOfRange(cr.b, start, end);
+        bytecode[4] = (byte) (version >>> 24);
+        bytecode[5] = (byte) (version >>> 16);
+        bytecode[6] = (byte) (version >>> 8);
+        bytecode[7] = (byte) version;
+        return bytecode;
+    }
+
+    public static int getVersion(ClassReader cr) {
+        int start = cr.getItem(1) - 1 - 10;
+        return cr.readInt(start + 4);
+    }
+
+    private static int getFieldsOffset(ClassReader cr) {
+        // access_flags, this_class, super_class, interfaces_count, interfaces
+        return cr.header + 8 + cr.readUnsignedShort(cr.header + 6) * 2;
+    }
+
+    private static int getEndOffset(ClassReader cr) {
+        int offset = skipFields(cr, getFieldsOffset(cr)); // fields and methods have the same structure
+        offset = skipFields(cr, offset);
+        return skipAttributes(cr, offset);
+    }
+
+    private static int skipFields(ClassReader cr, int offset) {
+        int count = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            offset = skipAttributes(cr, offset + 6);
+        }
+        return offset;
+    }
+
+    private static int skipAttributes(ClassReader cr, int offset) {
+        int count = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            offset += 6 + cr.readInt(offset + 2);
+        }
+        return offset;
+    }
+
+    private interface InstructionMatcher {
+        boolean matches(ClassReader cr, int opcode, int operand);
+    }
+}
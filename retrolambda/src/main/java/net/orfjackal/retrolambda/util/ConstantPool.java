@@ -0,0 +1,110 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import org.objectweb.asm.ClassReader;
+
+import java.util.*;
+
+/**
+ * Cheap queries over the raw constant pool of a class file, for deciding
+ * what needs to be done to a class without visiting all of it with ASM.
+ */
+public class ConstantPool {
+
+    // constant pool tags from https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html#jvms-4.4
+    public static final int CONSTANT_UTF8 = 1;
+    public static final int CONSTANT_CLASS = 7;
+    public static final int CONSTANT_INTERFACE_METHODREF = 11;
+    public static final int CONSTANT_NAME_AND_TYPE = 12;
+    public static final int CONSTANT_INVOKE_DYNAMIC = 18;
+
+    public static boolean hasInvokeDynamic(ClassReader cr) {
+        return containsTag(cr, CONSTANT_INVOKE_DYNAMIC);
+    }
+
+    /**
+     * Whether the class uses only such kinds of constants which existed already
+     * before Java 7, i.e. no method handles, method types or dynamic call sites.
+     */
+    public static boolean hasOnlyPreJava7Constants(ClassReader cr) {
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            int offset = cr.getItem(i);
+            if (offset > 0 && cr.readByte(offset - 1) > CONSTANT_NAME_AND_TYPE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Names of all the classes that the class refers to, except array classes.
+     */
+    public static Set<String> getClassReferences(ClassReader cr) {
+        Set<String> results = new TreeSet<>();
+        char[] buf = new char[cr.getMaxStringLength()];
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            int offset = cr.getItem(i);
+            if (offset > 0 && cr.readByte(offset - 1) == CONSTANT_CLASS) {
+                String name = cr.readUTF8(offset, buf);
+                if (!name.startsWith("[")) {
+                    results.add(name);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Whether any string constant, including class, member and descriptor names,
+     * starts with the given prefix. The prefix must consist of ASCII characters.
+     */
+    public static boolean hasUtf8StartingWith(ClassReader cr, String prefix) {
+        return findUtf8(cr, prefix, false);
+    }
+
+    /**
+     * Whether any string constant, including class, member and descriptor names,
+     * equals the given value. The value must consist of ASCII characters.
+     */
+    public static boolean hasUtf8(ClassReader cr, String value) {
+        return findUtf8(cr, value, true);
+    }
+
+    private static boolean findUtf8(ClassReader cr, String ascii, boolean exact) {
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            int offset = cr.getItem(i);
+            if (offset > 0 && cr.readByte(offset - 1) == CONSTANT_UTF8) {
+                int length = cr.readUnsignedShort(offset);
+                if (exact ? length == ascii.length() : length >= ascii.length()) {
+                    if (startsWith(cr, offset + 2, ascii)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(ClassReader cr, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (cr.readByte(offset + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean containsTag(ClassReader cr, int tag) {
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            int offset = cr.getItem(i);
+            // the second slot of long and double constants is unusable and has no offset
+            if (offset > 0 && cr.readByte(offset - 1) == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
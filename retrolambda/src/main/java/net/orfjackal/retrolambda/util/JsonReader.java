@@ -0,0 +1,244 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads a stream of JSON values, one after another. Objects are read as maps,
+ * arrays as lists and numbers as longs or doubles.
+ */
+public class JsonReader {
+
+    private static final int NONE = -2;
+
+    private final Reader in;
+    private int next = NONE;
+
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Returns false if the stream has ended, instead of waiting for more values.
+     */
+    public boolean hasNext() throws IOException {
+        skipWhitespace();
+        return peek() != -1;
+    }
+
+    public Object next() throws IOException {
+        skipWhitespace();
+        switch (peek()) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expectWord("true");
+                return true;
+            case 'f':
+                expectWord("false");
+                return false;
+            case 'n':
+                expectWord("null");
+                return null;
+            default:
+                if (peek() == '-' || Character.isDigit(peek())) {
+                    return readNumber();
+                }
+                throw unexpected();
+        }
+    }
+
+    private Map<String, Object> readObject() throws IOException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            read();
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(key, next());
+            skipWhitespace();
+            if (peek() == '}') {
+                read();
+                return object;
+            }
+            expect(',');
+        }
+    }
+
+    private List<Object> readArray() throws IOException {
+        List<Object> array = new ArrayList<>();
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            read();
+            return array;
+        }
+        while (true) {
+            array.add(next());
+            skipWhitespace();
+            if (peek() == ']') {
+                read();
+                return array;
+            }
+            expect(',');
+        }
+    }
+
+    private String readString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        expect('"');
+        while (peek() != '"') {
+            int c = read();
+            if (c == -1) {
+                throw new EOFException("Unterminated JSON string");
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        c = readHexEscape();
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    default:
+                        throw unexpected();
+                }
+            }
+            sb.append((char) c);
+        }
+        read();
+        return sb.toString();
+    }
+
+    private int readHexEscape() throws IOException {
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(peek(), 16);
+            if (digit < 0) {
+                throw unexpected();
+            }
+            read();
+            c = c * 16 + digit;
+        }
+        return c;
+    }
+
+    private Number readNumber() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while ("+-0123456789.eE".indexOf(peek()) >= 0) {
+            sb.append((char) read());
+        }
+        String number = sb.toString();
+        try {
+            if (number.contains(".") || number.contains("e") || number.contains("E")) {
+                return Double.parseDouble(number);
+            }
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid JSON number: " + number, e);
+        }
+    }
+
+    private void expectWord(String word) throws IOException {
+        for (int i = 0; i < word.length(); i++) {
+            expect(word.charAt(i));
+        }
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw unexpected();
+        }
+        read();
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (Character.isWhitespace(peek())) {
+            read();
+        }
+    }
+
+    private int peek() throws IOException {
+        // reads lazily, so that reading a value doesn't block waiting for the next one
+        if (next == NONE) {
+            next = in.read();
+        }
+        return next;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        next = NONE;
+        return c;
+    }
+
+    private IOException unexpected() throws IOException {
+        return peek() == -1
+                ? new EOFException("Unexpected end of JSON")
+                : new IOException("Unexpected character in JSON: " + (char) peek());
+    }
+
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,150 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import java.io.IOException;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counters of one Retrolambda run. The phases may be nested,
+ * for example the lambda classes are written while backporting a class,
+ * and with many threads the phases are timed separately in each thread.
+ * Like the logging, the metrics are global, so that they can be collected
+ * deep inside the backporting code without passing them around.
+ */
+public class Metrics {
+
+    public static final String TOTAL = "total";
+    public static final String WALK_FILES = "walkFiles";
+    public static final String ANALYZE = "analyze";
+    public static final String BACKPORT_INTERFACE = "backportInterface";
+    public static final String BACKPORT_CLASS = "backportClass";
+    public static final String BACKPORT_LAMBDA_CLASS = "backportLambdaClass";
+    public static final String REIFY_LAMBDA_CLASS = "reifyLambdaClass";
+    public static final String WRITE_OUTPUT = "writeOutput";
+
+    public static final String CLASSES = "classes";
+    public static final String INTERFACES = "interfaces";
+    public static final String LAMBDAS = "lambdas";
+    public static final String LAMBDA_CLASSES = "lambdaClasses";
+    public static final String COMPANION_CLASSES = "companionClasses";
+    public static final String ACCESSOR_METHODS = "accessorMethods";
+    public static final String FILES_COPIED = "filesCopied";
+    public static final String BYTES_READ = "bytesRead";
+    public static final String BYTES_WRITTEN = "bytesWritten";
+    public static final String UNCHANGED_FILES = "unchangedFiles";
+
+    private static final Metrics DISABLED = new Metrics(false);
+    private static volatile Metrics current = DISABLED;
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final Timer NO_TIMER = () -> {
+    };
+
+    private final boolean enabled;
+    private final Map<String, Phase> phases = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts collecting the metrics of a new run, or stops collecting them if not enabled.
+     */
+    public static Metrics begin(boolean enabled) {
+        Metrics metrics = enabled ? new Metrics(true) : DISABLED;
+        current = metrics;
+        return metrics;
+    }
+
+    public static Timer time(String phase) {
+        Metrics metrics = current;
+        if (!metrics.enabled) {
+            return NO_TIMER;
+        }
+        Phase p = metrics.phases.computeIfAbsent(phase, k -> new Phase());
+        long wallStart = System.nanoTime();
+        long cpuStart = cpuTime();
+        return () -> {
+            p.calls.increment();
+            p.wallNanos.add(System.nanoTime() - wallStart);
+            p.cpuNanos.add(cpuTime() - cpuStart);
+        };
+    }
+
+    public static void count(String counter, long amount) {
+        Metrics metrics = current;
+        if (metrics.enabled) {
+            metrics.counters.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+        }
+    }
+
+    private static long cpuTime() {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    public long getCount(String counter) {
+        LongAdder count = counters.get(counter);
+        return count == null ? 0 : count.sum();
+    }
+
+    public long getCalls(String phase) {
+        Phase p = phases.get(phase);
+        return p == null ? 0 : p.calls.sum();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"phases\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            Phase p = entry.getValue();
+            sb.append(separator)
+                    .append("    \"").append(entry.getKey()).append("\": {")
+                    .append("\"calls\": ").append(p.calls.sum())
+                    .append(", \"wallNanos\": ").append(p.wallNanos.sum())
+                    .append(", \"cpuNanos\": ").append(p.cpuNanos.sum())
+                    .append("}");
+            separator = ",\n";
+        }
+        sb.append("\n  },\n");
+        sb.append("  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            sb.append(separator)
+                    .append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue().sum());
+            separator = ",\n";
+        }
+        sb.append("\n  }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    public void writeJson(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.write(file, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public interface Timer extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static class Phase {
+        final LongAdder calls = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+    }
+}
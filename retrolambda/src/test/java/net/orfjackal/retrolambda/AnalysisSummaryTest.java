@@ -0,0 +1,192 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import com.google.common.io.ByteStreams;
+import net.orfjackal.retrolambda.api.RetrolambdaApi;
+import net.orfjackal.retrolambda.interfaces.MethodRef;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class AnalysisSummaryTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void modules_can_be_backported_separately_using_the_summaries_of_their_dependencies() throws Throwable {
+        Path module1 = tempDir.newFolder("module1").toPath();
+        Path module1Output = tempDir.getRoot().toPath().resolve("module1-output");
+        copyClass(Greeter.class, module1);
+        Path module2 = tempDir.newFolder("module2").toPath();
+        Path module2Output = tempDir.getRoot().toPath().resolve("module2-output");
+        copyClass(GreeterImpl.class, module2);
+
+        backport(module1, module1Output, "");
+        backport(module2, module2Output, module1Output.toString());
+
+        assertThat(Files.isRegularFile(module1Output.resolve(AnalysisSummary.PATH)), is(true));
+        assertThat(Files.isRegularFile(module1Output.resolve(Type.getInternalName(Greeter.class) + "$.class")), is(true));
+        MethodRef greetCall = new MethodRef(H_INVOKESTATIC, Type.getInternalName(Greeter.class) + "$", "greet",
+                "(" + Type.getDescriptor(Greeter.class) + ")Ljava/lang/String;");
+        assertThat(methodCalls(module2Output.resolve(Type.getInternalName(GreeterImpl.class) + ".class")), hasItem(greetCall));
+    }
+
+    @Test
+    public void summary_contains_the_analysis_of_the_classes() {
+        ClassAnalyzer analyzer = new ClassAnalyzer();
+        analyzer.analyze(new ClassReader(readBytecode(Greeter.class)));
+
+        String summary = new String(AnalysisSummary.write(analyzer), StandardCharsets.UTF_8);
+
+        String greeter = Type.getInternalName(Greeter.class);
+        assertThat(summary, containsString("class " + (ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT) + " " + greeter + " java/lang/Object -\n" +
+                "companion\n" +
+                "method " + ACC_PUBLIC + " " + H_INVOKEINTERFACE + " greet ()Ljava/lang/String; default " +
+                H_INVOKESTATIC + " " + greeter + "$ greet (L" + greeter + ";)Ljava/lang/String;\n" +
+                "relocated " + H_INVOKESTATIC + " create ()L" + greeter + "; " +
+                H_INVOKESTATIC + " " + greeter + "$ create ()L" + greeter + ";\n"));
+    }
+
+    @Test
+    public void summary_leaves_out_what_other_modules_cannot_inherit_or_call() throws Throwable {
+        Path input = tempDir.newFolder("input").toPath();
+        Path output = tempDir.getRoot().toPath().resolve("output");
+        copyClass(Greeter.class, input);
+        copyClass(WithPrivateMethods.class, input);
+        copyClass(PrivateInterface.class, input);
+
+        backport(input, output, "");
+
+        String summary = new String(Files.readAllBytes(output.resolve(AnalysisSummary.PATH)), StandardCharsets.UTF_8);
+        assertThat(summary, containsString(" visible "));
+        assertThat(summary, containsString(" create "));
+        assertThat(summary, not(containsString(" hidden ")));
+        assertThat(summary, not(containsString(" hiddenStatic ")));
+        assertThat(summary, not(containsString("lambda$")));
+        assertThat(summary, not(containsString("$$Lambda$")));
+    }
+
+    @Test
+    public void summary_can_be_read_back_even_if_the_names_contain_spaces() throws IOException {
+        String iface = "test/Weird \\ Name, -";
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT, iface, null, "java/lang/Object", new String[]{"java/io/Serializable"});
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "default method", "()V", null, null);
+        mv.visitCode();
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "static method", "(L" + iface + ";)V", null, null);
+        mv.visitCode();
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        ClassAnalyzer analyzer = new ClassAnalyzer();
+        analyzer.analyze(new ClassReader(cw.toByteArray()));
+        Path classpathEntry = tempDir.newFolder("classes").toPath();
+        Files.createDirectories(classpathEntry.resolve(AnalysisSummary.PATH).getParent());
+        Files.write(classpathEntry.resolve(AnalysisSummary.PATH), AnalysisSummary.write(analyzer));
+
+        ClassAnalyzer summarized = new ClassAnalyzer();
+        int count = AnalysisSummary.read(classpathEntry, summarized);
+
+        assertThat(count, is(1));
+        Type type = Type.getObjectType(iface);
+        assertThat(new HashSet<>(summarized.getMethods(type)), is(new HashSet<>(analyzer.getMethods(type))));
+        assertThat(summarized.getDefaultMethods(type), is(analyzer.getDefaultMethods(type)));
+        MethodRef staticCall = new MethodRef(H_INVOKESTATIC, iface, "static method", "(L" + iface + ";)V");
+        assertThat(summarized.getMethodCallTarget(staticCall), is(analyzer.getMethodCallTarget(staticCall)));
+        assertThat(summarized.getMethodCallTarget(staticCall).owner, is(iface + "$"));
+    }
+
+
+    private void backport(Path inputDir, Path outputDir, String classpath) throws Throwable {
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, classpath);
+        p.setProperty(RetrolambdaApi.DEFAULT_METHODS, "true");
+        Retrolambda.run(p);
+    }
+
+    private static void copyClass(Class<?> clazz, Path dir) throws IOException {
+        Path file = dir.resolve(Type.getInternalName(clazz) + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, readBytecode(clazz));
+    }
+
+    private static byte[] readBytecode(Class<?> clazz) {
+        try (InputStream in = clazz.getResourceAsStream("/" + Type.getInternalName(clazz) + ".class")) {
+            return ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<MethodRef> methodCalls(Path classFile) throws IOException {
+        List<MethodRef> calls = new ArrayList<>();
+        new ClassReader(Files.readAllBytes(classFile)).accept(new ClassVisitor(ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(ASM5) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        calls.add(new MethodRef(H_INVOKESTATIC, owner, name, desc));
+                    }
+                };
+            }
+        }, 0);
+        return calls;
+    }
+
+
+    public interface Greeter {
+        default String greet() {
+            return "Hello";
+        }
+
+        static Greeter create() {
+            return new GreeterImpl();
+        }
+    }
+
+    public static class GreeterImpl implements Greeter {
+    }
+
+    public static class WithPrivateMethods {
+        public Runnable visible() {
+            return () -> hidden();
+        }
+
+        public static void hiddenStatic() {
+        }
+
+        private void hidden() {
+        }
+    }
+
+    public interface PrivateInterface {
+        default Runnable lambda() {
+            return () -> System.out.println(this);
+        }
+
+        static Runnable staticLambda() {
+            return () -> {
+            };
+        }
+    }
+}
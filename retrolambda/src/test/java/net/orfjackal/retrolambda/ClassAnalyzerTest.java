@@ -53,6 +53,19 @@ public class ClassAnalyzerTest {
                 hasItem(new MethodInfo("abstractMethod", "()V", InterfaceImplementer.class, new MethodKind.Implemented())));
     }
 
+    @Test
+    public void methods_are_resolved_for_a_class_which_is_analyzed_after_it_was_looked_up() {
+        // like the lambda classes, which are analyzed while other classes are being backported
+        analyze(Interface.class);
+        Collection<MethodInfo> resolved = analyzer.getMethods(Type.getType(Interface.class));
+        assertThat("before", analyzer.getMethods(Type.getType(InterfaceImplementer.class)), is(empty()));
+
+        analyze(InterfaceImplementer.class);
+        assertThat("after", analyzer.getMethods(Type.getType(InterfaceImplementer.class)),
+                hasItem(new MethodInfo("abstractMethod", "()V", InterfaceImplementer.class, new MethodKind.Implemented())));
+        assertThat("the known classes are not resolved again", analyzer.getMethods(Type.getType(Interface.class)), is(sameInstance(resolved)));
+    }
+
     private interface Interface {
         void abstractMethod();
     }
@@ -433,6 +446,30 @@ public class ClassAnalyzerTest {
         assertThat(target, is(source));
     }
 
+    @Test
+    public void summarized_method_relocations_are_used_for_classes_which_are_not_analyzed() {
+        MethodRef source = new MethodRef(H_INVOKESTATIC, InterfaceMethodTypes.class, "removedMethod", voidMethod());
+        MethodRef relocated = new MethodRef(H_INVOKESTATIC, InterfaceMethodTypes$.class, "removedMethod", voidMethod());
+        addSummarizedInterface(InterfaceMethodTypes.class, source, relocated);
+
+        assertThat(analyzer.getMethodCallTarget(source), is(relocated));
+    }
+
+    @Test
+    public void summarized_method_relocations_are_ignored_for_classes_which_are_analyzed_again() {
+        MethodRef source = new MethodRef(H_INVOKESTATIC, InterfaceMethodTypes.class, "removedMethod", voidMethod());
+        MethodRef relocated = new MethodRef(H_INVOKESTATIC, InterfaceMethodTypes$.class, "removedMethod", voidMethod());
+        addSummarizedInterface(InterfaceMethodTypes.class, source, relocated);
+        analyze(InterfaceMethodTypes.class);
+
+        assertThat(analyzer.getMethodCallTarget(source), is(source));
+    }
+
+    private void addSummarizedInterface(Class<?> clazz, MethodRef source, MethodRef relocated) {
+        ClassInfo c = new ClassInfo(ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT, Type.getType(clazz), Type.getType(Object.class), Collections.emptyList());
+        analyzer.addSummarizedClass(c, Collections.singletonMap(source, relocated));
+    }
+
 
     // Default method implementations
 
@@ -0,0 +1,228 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import net.orfjackal.retrolambda.api.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.*;
+
+import javax.tools.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assume.assumeTrue;
+
+public class DaemonTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Daemon daemon;
+    private Thread daemonThread;
+
+    @Before
+    public void startDaemon() throws IOException {
+        daemon = new Daemon(0, tempDir.getRoot().toPath().resolve("tokens"));
+        daemonThread = new Thread(() -> {
+            try {
+                daemon.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        daemonThread.start();
+    }
+
+    @After
+    public void stopDaemon() throws Exception {
+        daemon.close();
+        daemonThread.join(1000);
+    }
+
+    @Test
+    public void runs_retrolambda_and_sends_its_log_to_the_client() throws IOException {
+        Properties config = new Properties();
+        config.setProperty(RetrolambdaApi.INPUT_DIR, new File(tempDir.getRoot(), "no such dir").getPath());
+        config.setProperty(RetrolambdaApi.CLASSPATH, "");
+
+        List<DaemonProtocol.Message> response = request(config);
+
+        DaemonProtocol.Message result = response.get(response.size() - 1);
+        assertThat(result.type, is(DaemonProtocol.SUCCESS));
+        assertThat(logOf(response), containsString("Nothing to do"));
+    }
+
+    @Test
+    public void reports_failures_to_the_client() throws IOException {
+        List<DaemonProtocol.Message> response = request(new Properties());
+
+        DaemonProtocol.Message result = response.get(response.size() - 1);
+        assertThat(result.type, is(DaemonProtocol.FAILURE));
+        assertThat(result.content, containsString("not fully configured"));
+    }
+
+    @Test
+    public void serves_many_requests() throws IOException {
+        Properties config = new Properties();
+        config.setProperty(RetrolambdaApi.INPUT_DIR, new File(tempDir.getRoot(), "no such dir").getPath());
+        config.setProperty(RetrolambdaApi.CLASSPATH, "");
+
+        for (int i = 0; i < 3; i++) {
+            List<DaemonProtocol.Message> response = request(config);
+            assertThat(response.get(response.size() - 1).type, is(DaemonProtocol.SUCCESS));
+        }
+    }
+
+    @Test
+    public void backports_classes_with_lambdas() throws IOException {
+        Path inputDir = tempDir.newFolder("input").toPath();
+        Path outputDir = tempDir.newFolder("output").toPath();
+        compile(inputDir, "public class Example { public Object lambda() { return (Runnable) () -> {}; } }");
+
+        List<DaemonProtocol.Message> response = request(config(inputDir, outputDir));
+
+        assertThat(logOf(response), response.get(response.size() - 1).type, is(DaemonProtocol.SUCCESS));
+        assertThat(readVersion(outputDir.resolve("test/Example.class")), is(Opcodes.V1_7));
+        assertThat(lambdaInterfaces(outputDir), is(new String[]{"java/lang/Runnable"}));
+    }
+
+    @Test
+    public void each_request_uses_only_its_own_classpath() throws IOException {
+        Path inputDir1 = tempDir.newFolder("input1").toPath();
+        Path outputDir1 = tempDir.newFolder("output1").toPath();
+        compile(inputDir1, "public class Example { public Object lambda() { return (Runnable) () -> {}; } }");
+        Path inputDir2 = tempDir.newFolder("input2").toPath();
+        Path outputDir2 = tempDir.newFolder("output2").toPath();
+        compile(inputDir2, "public class Example { public Object lambda() { return (java.util.concurrent.Callable<String>) () -> \"\"; } }");
+
+        List<DaemonProtocol.Message> response1 = request(config(inputDir1, outputDir1));
+        List<DaemonProtocol.Message> response2 = request(config(inputDir2, outputDir2));
+
+        assertThat(logOf(response1), response1.get(response1.size() - 1).type, is(DaemonProtocol.SUCCESS));
+        assertThat(logOf(response2), response2.get(response2.size() - 1).type, is(DaemonProtocol.SUCCESS));
+        assertThat(lambdaInterfaces(outputDir1), is(new String[]{"java/lang/Runnable"}));
+        assertThat(lambdaInterfaces(outputDir2), is(new String[]{"java/util/concurrent/Callable"}));
+    }
+
+    @Test
+    public void rejects_requests_without_the_token() throws IOException {
+        Properties config = new Properties();
+        config.setProperty(RetrolambdaApi.INPUT_DIR, new File(tempDir.getRoot(), "no such dir").getPath());
+        config.setProperty(RetrolambdaApi.CLASSPATH, "");
+
+        List<DaemonProtocol.Message> response = request(config, "wrong token");
+
+        assertThat(response, hasSize(1));
+        assertThat(response.get(0).type, is(DaemonProtocol.FAILURE));
+        assertThat(response.get(0).content, containsString("Invalid token"));
+    }
+
+    @Test
+    public void survives_messages_with_an_invalid_length() throws IOException {
+        for (int length : new int[]{-1, Integer.MAX_VALUE}) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeByte(DaemonProtocol.CONFIG);
+                out.writeInt(length);
+                out.flush();
+                assertThat("the daemon closes the connection", socket.getInputStream().read(), is(-1));
+            }
+        }
+
+        Properties config = new Properties();
+        config.setProperty(RetrolambdaApi.INPUT_DIR, new File(tempDir.getRoot(), "no such dir").getPath());
+        config.setProperty(RetrolambdaApi.CLASSPATH, "");
+        List<DaemonProtocol.Message> response = request(config);
+
+        assertThat(response.get(response.size() - 1).type, is(DaemonProtocol.SUCCESS));
+    }
+
+    @Test
+    public void only_the_owner_can_read_the_token_file() throws IOException {
+        Path tokenFile = daemon.getTokenFile();
+        assumeTrue(tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)), is("rw-------"));
+    }
+
+    @Test
+    public void removes_the_token_file_when_closed() throws IOException {
+        Path tokenFile = daemon.getTokenFile();
+        assertThat(Files.exists(tokenFile), is(true));
+
+        daemon.close();
+
+        assertThat(Files.exists(tokenFile), is(false));
+    }
+
+
+    private static Properties config(Path inputDir, Path outputDir) {
+        Properties config = new Properties();
+        config.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        config.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        config.setProperty(RetrolambdaApi.CLASSPATH, inputDir.toString());
+        return config;
+    }
+
+    /**
+     * Compiles a class called test.Example, so that the requests can have different
+     * classes with the same name, none of which is on the test's classpath.
+     */
+    private static void compile(Path outputDir, String classBody) throws IOException {
+        Path source = outputDir.resolve("test/Example.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, ("package test;\n" + classBody).getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeTrue("requires a JDK", compiler != null);
+        int result = compiler.run(null, null, null, "-d", outputDir.toString(), source.toString());
+        assertThat("compile " + source, result, is(0));
+        Files.delete(source);
+    }
+
+    private static int readVersion(Path classFile) throws IOException {
+        return new ClassReader(Files.readAllBytes(classFile)).readUnsignedShort(6);
+    }
+
+    private static String[] lambdaInterfaces(Path outputDir) throws IOException {
+        return new ClassReader(Files.readAllBytes(outputDir.resolve("test/Example$$Lambda$1.class"))).getInterfaces();
+    }
+
+    private List<DaemonProtocol.Message> request(Properties config) throws IOException {
+        return request(config, DaemonProtocol.readToken(daemon.getTokenFile().toFile()));
+    }
+
+    private List<DaemonProtocol.Message> request(Properties config, String token) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DaemonProtocol.writeConfig(out, config, token);
+
+            List<DaemonProtocol.Message> messages = new ArrayList<>();
+            DaemonProtocol.Message message;
+            do {
+                message = DaemonProtocol.readMessage(in);
+                messages.add(message);
+            } while (message.type == DaemonProtocol.LOG);
+            return messages;
+        }
+    }
+
+    private static String logOf(List<DaemonProtocol.Message> messages) {
+        StringBuilder log = new StringBuilder();
+        for (DaemonProtocol.Message message : messages) {
+            if (message.type == DaemonProtocol.LOG) {
+                log.append(message.content);
+            }
+        }
+        return log.toString();
+    }
+}
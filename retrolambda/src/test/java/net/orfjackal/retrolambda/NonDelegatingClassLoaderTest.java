@@ -0,0 +1,58 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import net.orfjackal.retrolambda.files.ClasspathIndex;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.jar.JarFile;
+import java.util.zip.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class NonDelegatingClassLoaderTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void classes_found_with_the_index_have_the_same_code_source_and_package_as_with_URLClassLoader() throws Exception {
+        Path jar = tempDir.getRoot().toPath().resolve("library.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+            out.write("Manifest-Version: 1.0\nImplementation-Title: library\n".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("com/example/Foo.class"));
+            out.write(emptyClass("com/example/Foo"));
+            out.closeEntry();
+        }
+        URL[] urls = {jar.toUri().toURL()};
+
+        try (NonDelegatingClassLoader loader = new NonDelegatingClassLoader(urls,
+                new ClasspathIndex(Collections.singletonList(jar), null), className -> null)) {
+            Class<?> c = loader.loadClass("com.example.Foo");
+
+            assertThat(c.getClassLoader(), is(sameInstance(loader)));
+            assertThat(c.getProtectionDomain().getCodeSource().getLocation(), is(urls[0]));
+            assertThat(c.getPackage().getName(), is("com.example"));
+            assertThat(c.getPackage().getImplementationTitle(), is("library"));
+        }
+    }
+
+    private static byte[] emptyClass(String className) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, className, null, "java/lang/Object", null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -4,17 +4,25 @@
 
 package net.orfjackal.retrolambda;
 
+import com.google.common.io.ByteStreams;
 import net.orfjackal.retrolambda.api.RetrolambdaApi;
+import net.orfjackal.retrolambda.files.Archives;
 import org.junit.*;
 import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.*;
 
-import java.io.IOException;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.*;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertTrue;
 
 public class RetrolambdaTest {
@@ -88,7 +96,457 @@ public class RetrolambdaTest {
         assertIsFile(outputDir.resolve("subdir/file.txt"));
     }
 
+    @Test
+    public void copies_resources_to_output_directory_in_the_background() throws Throwable {
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, "");
+        p.setProperty(RetrolambdaApi.WRITER_THREADS, "2");
+
+        Retrolambda.run(p);
+
+        assertIsFile(outputDir.resolve("file1.txt"));
+        assertIsFile(outputDir.resolve("subdir/file.txt"));
+    }
+
+    @Test
+    public void backports_classes_with_lambdas_in_place_in_the_background() throws Throwable {
+        String example = Type.getInternalName(GreeterExample.class);
+        copyClass(GreeterExample.class, inputDir);
+        copyClass(Greeter.class, inputDir);
+        copyClass(LambdaExample.class, inputDir);
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, inputDir.toString());
+        p.setProperty(RetrolambdaApi.THREADS, "2");
+        p.setProperty(RetrolambdaApi.WRITER_THREADS, "2");
+        p.setProperty(RetrolambdaApi.GENERATE_LAMBDA_CLASSES, "true");
+
+        Retrolambda.run(p);
+
+        assertThat(readVersion(inputDir.resolve(example + ".class")), is(Opcodes.V1_7));
+        assertThat(readVersion(inputDir.resolve(Type.getInternalName(LambdaExample.class) + ".class")), is(Opcodes.V1_7));
+        assertThat(new ClassReader(Files.readAllBytes(inputDir.resolve(example + "$$Lambda$1.class"))).getInterfaces(),
+                is(new String[]{Type.getInternalName(Greeter.class)}));
+        assertIsFile(inputDir.resolve(Type.getInternalName(LambdaExample.class) + "$$Lambda$1.class"));
+    }
+
+    @Test
+    public void low_memory_mode_produces_the_same_output_and_removes_its_temporary_directory() throws Throwable {
+        copyClass(GreeterExample.class, inputDir);
+        copyClass(Greeter.class, inputDir);
+        copyClass(LambdaExample.class, inputDir);
+        Path expectedDir = tempDir.newFolder("expected").toPath();
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, expectedDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, inputDir.toString());
+        Retrolambda.run(p);
+        Set<Path> tempDirsBefore = retrolambdaTempDirs();
+
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.LOW_MEMORY, "true");
+        Retrolambda.run(p);
+
+        assertThat(readFiles(outputDir), is(readFiles(expectedDir)));
+        assertThat(retrolambdaTempDirs(), is(tempDirsBefore));
+    }
+
+    @Test
+    public void backporting_lambdas_in_parallel_produces_the_same_output_as_sequentially() throws Throwable {
+        copyClass(LambdaHeavyExample.class, inputDir);
+        copyClass(GreeterExample.class, inputDir);
+        copyClass(Greeter.class, inputDir);
+        copyClass(LambdaExample.class, inputDir);
+
+        Path sequential = backportWithThreads(1);
+        Path parallel = backportWithThreads(4);
+
+        assertThat(readFiles(parallel), is(readFiles(sequential)));
+        assertIsFile(sequential.resolve(Type.getInternalName(LambdaHeavyExample.class) + "$$Lambda$10.class"));
+    }
+
+    @Test
+    public void backporting_default_methods_in_parallel_produces_the_same_output_as_sequentially() throws Throwable {
+        copyClass(DefaultMethodsExample.class, inputDir);
+        copyClass(DefaultMethodsImpl.class, inputDir);
+        copyClass(DefaultMethodsSubImpl.class, inputDir);
+        copyClass(PlainExample.class, inputDir);
+        copyClass(LambdaExample.class, inputDir);
+
+        Path sequential = backportWithThreads(1);
+        Path parallel = backportWithThreads(4);
+
+        assertThat(readFiles(parallel), is(readFiles(sequential)));
+        assertIsFile(sequential.resolve(Type.getInternalName(DefaultMethodsExample.class) + "$.class"));
+    }
+
+    @Test
+    public void groups_the_lambdas_which_implement_the_same_functional_interface() throws Throwable {
+        String example = Type.getInternalName(LambdaResultsExample.class);
+        copyClass(LambdaResultsExample.class, inputDir);
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, inputDir.toString());
+        p.setProperty(RetrolambdaApi.GROUP_LAMBDAS, "true");
+
+        Retrolambda.run(p);
+
+        assertIsFile(outputDir.resolve(example + "$$Lambda$3.class"));
+        assertThat("one lambda class per functional interface",
+                Files.exists(outputDir.resolve(example + "$$Lambda$4.class")), is(false));
+        assertThat(callResults(outputDir), is(LambdaResultsExample.EXPECTED_RESULTS));
+    }
+
+    @Test
+    public void instantiates_the_lambdas_at_the_call_sites_when_inlining_lambda_factories() throws Throwable {
+        String example = Type.getInternalName(LambdaResultsExample.class);
+        copyClass(LambdaResultsExample.class, inputDir);
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, inputDir.toString());
+        p.setProperty(RetrolambdaApi.INLINE_LAMBDA_FACTORIES, "true");
+
+        Retrolambda.run(p);
+
+        assertThat(factoryCalls(outputDir.resolve(example + ".class")), is(empty()));
+        assertIsFile(outputDir.resolve(example + "$$Lambda$6.class"));
+        assertThat(callResults(outputDir), is(LambdaResultsExample.EXPECTED_RESULTS));
+    }
+
+    private Path backportWithThreads(int threads) throws Throwable {
+        Path outputDir = tempDir.newFolder("threads" + threads).toPath();
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, inputDir.toString());
+        p.setProperty(RetrolambdaApi.DEFAULT_METHODS, "true");
+        p.setProperty(RetrolambdaApi.THREADS, "" + threads);
+        Retrolambda.run(p);
+        return outputDir;
+    }
+
+    @Test
+    public void keeps_resources_unchanged_when_the_output_directory_is_the_input_directory() throws Throwable {
+        Files.write(file1, "content".getBytes(StandardCharsets.UTF_8));
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, "");
+
+        Retrolambda.run(p);
+
+        assertThat(new String(Files.readAllBytes(file1), StandardCharsets.UTF_8), is("content"));
+    }
+
+    @Test
+    public void reads_and_writes_JAR_files() throws Throwable {
+        Path inputJar = tempDir.getRoot().toPath().resolve("input.jar");
+        Path outputJar = tempDir.getRoot().toPath().resolve("output.jar");
+        try (Archives archives = new Archives()) {
+            Path root = archives.openOutput(inputJar);
+            Files.createDirectory(root.resolve("subdir"));
+            Files.write(root.resolve("subdir/file.txt"), "content".getBytes(StandardCharsets.UTF_8));
+        }
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputJar.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputJar.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, "");
+
+        Retrolambda.run(p);
+
+        try (Archives archives = new Archives()) {
+            Path root = archives.openInput(outputJar);
+            assertThat(new String(Files.readAllBytes(root.resolve("subdir/file.txt")), StandardCharsets.UTF_8), is("content"));
+        }
+    }
+
+    @Test
+    public void backports_classes_from_a_JAR_file_to_a_JAR_file() throws Throwable {
+        Path inputJar = tempDir.getRoot().toPath().resolve("input.jar");
+        Path outputJar = tempDir.getRoot().toPath().resolve("output.jar");
+        String example = Type.getInternalName(LambdaExample.class);
+        try (Archives archives = new Archives()) {
+            copyClass(LambdaExample.class, archives.openOutput(inputJar));
+        }
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputJar.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputJar.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, inputJar.toString());
+
+        Retrolambda.run(p);
+
+        try (Archives archives = new Archives()) {
+            Path root = archives.openInput(outputJar);
+            assertThat(readVersion(root.resolve(example + ".class")), is(Opcodes.V1_7));
+            assertIsFile(root.resolve(example + "$$Lambda$1.class"));
+        }
+        try (Archives archives = new Archives()) {
+            Path root = archives.openInput(inputJar);
+            assertThat("input is unchanged", readVersion(root.resolve(example + ".class")), is(Opcodes.V1_8));
+        }
+    }
+
+    @Test
+    public void backports_classes_in_place_in_a_JAR_file() throws Throwable {
+        Path jar = tempDir.getRoot().toPath().resolve("classes.jar");
+        String example = Type.getInternalName(LambdaExample.class);
+        try (Archives archives = new Archives()) {
+            copyClass(LambdaExample.class, archives.openOutput(jar));
+        }
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, jar.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, jar.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, jar.toString());
+
+        Retrolambda.run(p);
+
+        try (Archives archives = new Archives()) {
+            Path root = archives.openInput(jar);
+            assertThat(readVersion(root.resolve(example + ".class")), is(Opcodes.V1_7));
+            assertIsFile(root.resolve(example + "$$Lambda$1.class"));
+        }
+    }
+
+    @Test
+    public void writes_metrics_file() throws Throwable {
+        Path metricsFile = tempDir.getRoot().toPath().resolve("metrics.json");
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, "");
+        p.setProperty(RetrolambdaApi.METRICS_FILE, metricsFile.toString());
+
+        Retrolambda.run(p);
+
+        String metrics = new String(Files.readAllBytes(metricsFile), StandardCharsets.UTF_8);
+        assertThat(metrics, containsString("\"total\": {\"calls\": 1, \"wallNanos\": "));
+        assertThat(metrics, containsString("\"walkFiles\": {\"calls\": 1, "));
+        assertThat(metrics, containsString("\"writeOutput\": {\"calls\": 3, "));
+        assertThat(metrics, containsString("\"filesCopied\": 3"));
+    }
+
+    @Test
+    public void backports_classes_in_memory() throws Throwable {
+        String className = Type.getInternalName(LambdaExample.class);
+        Map<String, byte[]> inputClasses = new HashMap<>();
+        inputClasses.put(className, readBytecode(LambdaExample.class));
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.CLASSPATH, "");
+
+        Map<String, byte[]> outputClasses = Retrolambda.run(new SystemPropertiesConfig(p), inputClasses);
+
+        assertThat(outputClasses.keySet(), containsInAnyOrder(className, className + "$$Lambda$1"));
+        assertThat(new ClassReader(outputClasses.get(className)).readUnsignedShort(6), is(Opcodes.V1_7));
+        assertThat(Files.exists(Paths.get(className + ".class")), is(false));
+    }
+
+    @Test
+    public void writes_the_original_classes_for_newer_Java_versions_in_a_multi_release_JAR() throws Throwable {
+        String className = Type.getInternalName(LambdaExample.class);
+        byte[] original = readBytecode(LambdaExample.class);
+        Files.createDirectories(inputDir.resolve(className).getParent());
+        Files.write(inputDir.resolve(className + ".class"), original);
+        Files.createDirectories(inputDir.resolve("META-INF"));
+        Files.write(inputDir.resolve("META-INF/MANIFEST.MF"), "Manifest-Version: 1.0\nMain-Class: Foo\n".getBytes(StandardCharsets.UTF_8));
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, inputDir.toString());
+        p.setProperty(RetrolambdaApi.MULTI_RELEASE_VERSION, "11");
+
+        Retrolambda.run(p);
+
+        assertThat(new ClassReader(Files.readAllBytes(outputDir.resolve(className + ".class"))).readUnsignedShort(6), is(Opcodes.V1_7));
+        assertIsFile(outputDir.resolve(className + "$$Lambda$1.class"));
+        assertThat(Files.readAllBytes(outputDir.resolve("META-INF/versions/11/" + className + ".class")), is(original));
+        assertThat(Files.exists(outputDir.resolve("META-INF/versions/11/" + className + "$$Lambda$1.class")), is(false));
+        String manifest = new String(Files.readAllBytes(outputDir.resolve("META-INF/MANIFEST.MF")), StandardCharsets.UTF_8);
+        assertThat(manifest, containsString("Multi-Release: true"));
+        assertThat(manifest, containsString("Main-Class: Foo"));
+    }
+
+    @Test
+    public void copies_the_classes_for_newer_Java_versions_as_is() throws Throwable {
+        String className = Type.getInternalName(LambdaExample.class);
+        byte[] original = readBytecode(LambdaExample.class);
+        Path versioned = inputDir.resolve("META-INF/versions/9/" + className + ".class");
+        Files.createDirectories(versioned.getParent());
+        Files.write(versioned, original);
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, inputDir.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, "");
+        p.setProperty(RetrolambdaApi.MULTI_RELEASE_VERSION, "9");
+
+        Retrolambda.run(p);
+
+        assertThat(Files.readAllBytes(outputDir.resolve("META-INF/versions/9/" + className + ".class")), is(original));
+        assertThat(Files.exists(outputDir.resolve(className + ".class")), is(false));
+        assertThat("creates a manifest if there was none",
+                new String(Files.readAllBytes(outputDir.resolve("META-INF/MANIFEST.MF")), StandardCharsets.UTF_8),
+                containsString("Multi-Release: true"));
+    }
+
+    private static void copyClass(Class<?> clazz, Path dir) throws IOException {
+        Path file = dir.resolve(Type.getInternalName(clazz) + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, readBytecode(clazz));
+    }
+
+    static Map<String, ByteBuffer> readFiles(Path dir) throws IOException {
+        Map<String, ByteBuffer> files = new TreeMap<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                files.put(dir.relativize(file).toString(), ByteBuffer.wrap(Files.readAllBytes(file)));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Calls {@link LambdaResultsExample#results} of the backported class, in isolation from the original class.
+     */
+    private static List<?> callResults(Path dir) throws Exception {
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, null)) {
+            Class<?> clazz = loader.loadClass(LambdaResultsExample.class.getName());
+            assertThat(clazz.getClassLoader(), is(loader));
+            Object instance = clazz.getConstructor().newInstance();
+            return (List<?>) clazz.getMethod("results", String.class, int.class).invoke(instance, "x", 1);
+        }
+    }
+
+    private static List<String> factoryCalls(Path classFile) throws IOException {
+        List<String> calls = new ArrayList<>();
+        new ClassReader(Files.readAllBytes(classFile)).accept(new ClassVisitor(Opcodes.ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM5) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        if (name.startsWith("lambdaFactory$")) {
+                            calls.add(owner + "." + name);
+                        }
+                    }
+                };
+            }
+        }, 0);
+        return calls;
+    }
+
+    private static Set<Path> retrolambdaTempDirs() throws IOException {
+        Set<Path> dirs = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")), "retrolambda*")) {
+            for (Path dir : stream) {
+                dirs.add(dir);
+            }
+        }
+        return dirs;
+    }
+
+    private static int readVersion(Path classFile) throws IOException {
+        return new ClassReader(Files.readAllBytes(classFile)).readUnsignedShort(6);
+    }
+
+    private static byte[] readBytecode(Class<?> clazz) throws IOException {
+        try (InputStream in = clazz.getResourceAsStream("/" + Type.getInternalName(clazz) + ".class")) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
     private static void assertIsFile(Path path) {
         assertTrue("Expected " + path + " to be a file", Files.isRegularFile(path));
     }
+
+    public static class LambdaExample {
+        public Runnable lambda() {
+            return () -> {
+            };
+        }
+    }
+
+    public static class LambdaResultsExample {
+        static final List<Object> EXPECTED_RESULTS = Arrays.asList("x", "x1", "c", 4, "yx", new ArrayList<>());
+
+        public List<Object> results(String s, int i) throws Exception {
+            Callable<String> captured = () -> s;
+            Callable<String> capturedTwo = () -> s + i;
+            Callable<String> stateless = () -> "c";
+            Function<String, Integer> methodReference = String::length;
+            Function<String, String> capturing = x -> x + s;
+            Supplier<List<String>> constructorReference = ArrayList::new;
+            return Arrays.asList(captured.call(), capturedTwo.call(), stateless.call(),
+                    methodReference.apply("abcd"), capturing.apply("y"), constructorReference.get());
+        }
+    }
+
+    public static class LambdaHeavyExample {
+        public List<Object> lambdas(String s, int i) {
+            List<Object> lambdas = new ArrayList<>();
+            lambdas.add((Runnable) () -> {
+            });
+            lambdas.add((Callable<String>) () -> s);
+            lambdas.add((Callable<Integer>) () -> i + 1);
+            lambdas.add((Comparator<String>) String::compareTo);
+            lambdas.add((Comparator<String>) (a, b) -> a.length() - b.length());
+            lambdas.add((Greeter) name -> s + name);
+            lambdas.add((Greeter) String::trim);
+            lambdas.add((Callable<List<String>>) ArrayList::new);
+            lambdas.add((Callable<Object>) this::toString);
+            lambdas.add((Runnable) () -> lambdas.add(s));
+            return lambdas;
+        }
+    }
+
+    public interface DefaultMethodsExample {
+        String name();
+
+        default String greeting() {
+            return greet(name());
+        }
+
+        default Runnable lambda() {
+            return () -> greeting();
+        }
+
+        static String greet(String name) {
+            return "Hello " + name;
+        }
+    }
+
+    public static class DefaultMethodsImpl implements DefaultMethodsExample {
+        @Override
+        public String name() {
+            return "impl";
+        }
+    }
+
+    public static class DefaultMethodsSubImpl extends DefaultMethodsImpl {
+        @Override
+        public String greeting() {
+            return DefaultMethodsExample.greet("sub") + super.greeting();
+        }
+    }
+
+    public static class PlainExample {
+        public String hello() {
+            return "hello";
+        }
+    }
+
+    public interface Greeter extends Serializable {
+        String greet(String name);
+    }
+
+    public static class GreeterExample {
+        public Greeter greeter(String greeting) {
+            return name -> greeting + ", " + name;
+        }
+    }
 }
@@ -66,6 +66,126 @@ public class SystemPropertiesConfigTest {
         assertThat("can override the default", config().isDefaultMethodsEnabled(), is(true));
     }
 
+    @Test
+    public void threads() {
+        assertThat("defaults to one", config().getThreads(), is(1));
+
+        systemProperties.setProperty(RetrolambdaApi.THREADS, "4");
+        assertThat("can override the default", config().getThreads(), is(4));
+    }
+
+    @Test
+    public void threads_must_be_positive() {
+        systemProperties.setProperty(RetrolambdaApi.THREADS, "0");
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Invalid value for retrolambda.threads: 0");
+        config().getThreads();
+    }
+
+    @Test
+    public void writer_threads() {
+        assertThat("defaults to zero", config().getWriterThreads(), is(0));
+
+        systemProperties.setProperty(RetrolambdaApi.WRITER_THREADS, "2");
+        assertThat("can override the default", config().getWriterThreads(), is(2));
+    }
+
+    @Test
+    public void writer_threads_must_not_be_negative() {
+        systemProperties.setProperty(RetrolambdaApi.WRITER_THREADS, "-1");
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Invalid value for retrolambda.writerThreads: -1");
+        config().getWriterThreads();
+    }
+
+    @Test
+    public void low_memory() {
+        assertThat("defaults to disabled", config().isLowMemory(), is(false));
+
+        systemProperties.setProperty(RetrolambdaApi.LOW_MEMORY, "true");
+        assertThat("can override the default", config().isLowMemory(), is(true));
+    }
+
+    @Test
+    public void generate_lambda_classes() {
+        assertThat("defaults to disabled", config().isGenerateLambdaClasses(), is(false));
+
+        systemProperties.setProperty(RetrolambdaApi.GENERATE_LAMBDA_CLASSES, "true");
+        assertThat("can override the default", config().isGenerateLambdaClasses(), is(true));
+    }
+
+    @Test
+    public void deduplicate_lambdas() {
+        assertThat("defaults to disabled", config().isDeduplicateLambdas(), is(false));
+
+        systemProperties.setProperty(RetrolambdaApi.DEDUPLICATE_LAMBDAS, "true");
+        assertThat("can override the default", config().isDeduplicateLambdas(), is(true));
+    }
+
+    @Test
+    public void group_lambdas() {
+        assertThat("defaults to disabled", config().isGroupLambdas(), is(false));
+
+        systemProperties.setProperty(RetrolambdaApi.GROUP_LAMBDAS, "true");
+        assertThat("can override the default", config().isGroupLambdas(), is(true));
+    }
+
+    @Test
+    public void inline_lambda_factories() {
+        assertThat("defaults to disabled", config().isInlineLambdaFactories(), is(false));
+
+        systemProperties.setProperty(RetrolambdaApi.INLINE_LAMBDA_FACTORIES, "true");
+        assertThat("can override the default", config().isInlineLambdaFactories(), is(true));
+    }
+
+    @Test
+    public void hash_lambda_names() {
+        assertThat("defaults to disabled", config().isHashLambdaNames(), is(false));
+
+        systemProperties.setProperty(RetrolambdaApi.HASH_LAMBDA_NAMES, "true");
+        assertThat("can override the default", config().isHashLambdaNames(), is(true));
+    }
+
+    @Test
+    public void multi_release_version() {
+        assertThat("defaults to disabled", config().getMultiReleaseVersion(), is(0));
+
+        systemProperties.setProperty(RetrolambdaApi.MULTI_RELEASE_VERSION, "11");
+        assertThat("can override the default", config().getMultiReleaseVersion(), is(11));
+
+        systemProperties.setProperty(RetrolambdaApi.MULTI_RELEASE_VERSION, "8");
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Invalid value for retrolambda.multiReleaseVersion: 8");
+        config().getMultiReleaseVersion();
+    }
+
+    @Test
+    public void skip_unchanged_files() {
+        assertThat("defaults to disabled", config().isSkipUnchangedFiles(), is(false));
+
+        systemProperties.setProperty(RetrolambdaApi.SKIP_UNCHANGED_FILES, "true");
+        assertThat("can override the default", config().isSkipUnchangedFiles(), is(true));
+    }
+
+    @Test
+    public void metrics_file() {
+        assertThat("defaults to disabled", config().getMetricsFile(), is(nullValue()));
+
+        systemProperties.setProperty(RetrolambdaApi.METRICS_FILE, "metrics.json");
+        assertThat("can override the default", config().getMetricsFile(), is(Paths.get("metrics.json")));
+    }
+
+    @Test
+    public void daemon_port() {
+        assertThat("defaults to not a daemon", config().isDaemon(), is(false));
+
+        systemProperties.setProperty(RetrolambdaApi.DAEMON_PORT, "17830");
+        assertThat("daemon", config().isDaemon(), is(true));
+        assertThat("port", config().getDaemonPort(), is(17830));
+    }
+
     @Test
     public void input_directory_is_required() {
         thrown.expect(IllegalArgumentException.class);
@@ -149,4 +269,12 @@ public class SystemPropertiesConfigTest {
         systemProperties.setProperty(RetrolambdaApi.INCLUDED_FILES_FILE, file.toString());
         assertThat("multiple values", config().getIncludedFiles(), is(Arrays.asList(Paths.get("one.class"), Paths.get("two.class"))));
     }
+
+    @Test
+    public void incremental_cache_directory() {
+        assertThat("defaults to disabled", config().getIncrementalCacheDir(), is(nullValue()));
+
+        systemProperties.setProperty(RetrolambdaApi.INCREMENTAL_CACHE_DIR, "cache dir");
+        assertThat("can override the default", config().getIncrementalCacheDir(), is(Paths.get("cache dir")));
+    }
 }
@@ -0,0 +1,89 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import net.orfjackal.retrolambda.api.RetrolambdaApi;
+import net.orfjackal.retrolambda.util.JsonReader;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class WorkerTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private final Properties defaults = new Properties();
+
+    @Before
+    public void setup() {
+        defaults.setProperty(RetrolambdaApi.CLASSPATH, "");
+    }
+
+    @Test
+    public void runs_retrolambda_and_responds_with_its_log() throws IOException {
+        Path inputDir = tempDir.newFolder("input").toPath();
+        Path outputDir = tempDir.getRoot().toPath().resolve("output");
+        Files.write(inputDir.resolve("file.txt"), "content".getBytes(StandardCharsets.UTF_8));
+
+        List<Map<?, ?>> responses = work("{\"arguments\": [" +
+                "\"-D" + RetrolambdaApi.INPUT_DIR + "=" + json(inputDir) + "\", " +
+                "\"-D" + RetrolambdaApi.OUTPUT_DIR + "=" + json(outputDir) + "\"], " +
+                "\"inputs\": [], \"requestId\": 0}");
+
+        assertThat(responses, hasSize(1));
+        assertThat(responses.get(0).get("exitCode"), is(0L));
+        assertThat(responses.get(0).get("requestId"), is(0L));
+        assertThat((String) responses.get(0).get("output"), containsString("Input directory:  " + inputDir));
+        assertThat(Files.exists(outputDir.resolve("file.txt")), is(true));
+    }
+
+    @Test
+    public void reports_failures_in_the_response() throws IOException {
+        List<Map<?, ?>> responses = work("{\"arguments\": [\"not a property\"], \"requestId\": 3}");
+
+        assertThat(responses.get(0).get("exitCode"), is(1L));
+        assertThat(responses.get(0).get("requestId"), is(3L));
+        assertThat((String) responses.get(0).get("output"), containsString("Expected an argument of the form -Dname=value"));
+    }
+
+    @Test
+    public void serves_many_requests() throws IOException {
+        String request = "{\"arguments\": [\"-D" + RetrolambdaApi.INPUT_DIR + "=" + json(tempDir.getRoot().toPath().resolve("no such dir")) + "\"]}\n";
+
+        List<Map<?, ?>> responses = work(request + request + request);
+
+        assertThat(responses, hasSize(3));
+        for (Map<?, ?> response : responses) {
+            assertThat(response.get("exitCode"), is(0L));
+            assertThat((String) response.get("output"), containsString("Nothing to do"));
+        }
+    }
+
+
+    private List<Map<?, ?>> work(String requests) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Worker(defaults).run(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), out);
+
+        JsonReader reader = new JsonReader(new StringReader(new String(out.toByteArray(), StandardCharsets.UTF_8)));
+        List<Map<?, ?>> responses = new ArrayList<>();
+        while (reader.hasNext()) {
+            responses.add((Map<?, ?>) reader.next());
+        }
+        return responses;
+    }
+
+    private static String json(Path path) {
+        String quoted = JsonReader.quote(path.toString());
+        return quoted.substring(1, quoted.length() - 1);
+    }
+}
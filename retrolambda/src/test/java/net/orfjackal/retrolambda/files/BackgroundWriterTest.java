@@ -0,0 +1,79 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BackgroundWriterTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void files_are_written_by_the_time_the_writer_is_closed() throws IOException {
+        Path outputDir = tempDir.getRoot().toPath();
+        try (BackgroundWriter writer = new BackgroundWriter(4)) {
+            OutputDirectory output = new OutputDirectory(outputDir, false, writer);
+            for (int i = 0; i < 1000; i++) {
+                output.writeFile(Paths.get("dir" + (i % 10), "file" + i), bytes("content " + i));
+            }
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(read(outputDir.resolve("dir" + (i % 10)).resolve("file" + i)), is("content " + i));
+        }
+    }
+
+    @Test
+    public void writes_to_the_same_file_are_done_in_submission_order() throws IOException {
+        Path file = tempDir.getRoot().toPath().resolve("file");
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        try (BackgroundWriter writer = new BackgroundWriter(4)) {
+            for (int i = 0; i < 1000; i++) {
+                int n = i;
+                writer.submit(file, () -> order.add(n));
+            }
+        }
+
+        for (int i = 0; i < order.size(); i++) {
+            assertThat(order.get(i), is(i));
+        }
+        assertThat(order, hasSize(1000));
+    }
+
+    @Test
+    public void failures_are_reported_when_the_writer_is_closed() throws IOException {
+        Path file = tempDir.getRoot().toPath().resolve("file");
+        BackgroundWriter writer = new BackgroundWriter(1);
+        writer.submit(file, () -> {
+            throw new IOException("dummy failure");
+        });
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Failed to write the output files");
+        writer.close();
+    }
+
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,185 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.JarFile;
+import java.util.zip.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ClasspathIndexTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Path dir;
+    private Path jar;
+    private Path cacheFile;
+
+    @Before
+    public void setup() throws IOException {
+        dir = tempDir.newFolder("classes").toPath();
+        jar = tempDir.getRoot().toPath().resolve("library.jar");
+        cacheFile = tempDir.getRoot().toPath().resolve("cache").resolve(ClasspathIndex.CACHE_FILE);
+    }
+
+    @Test
+    public void finds_classes_from_directories_and_JAR_files() throws IOException {
+        writeClass(dir, "com/example/InDirectory", "dir");
+        writeJar(jar, "com/example/InJar", "jar");
+
+        try (ClasspathIndex index = new ClasspathIndex(Arrays.asList(dir, jar), null)) {
+            assertThat(read(index, "com/example/InDirectory"), is("dir"));
+            assertThat(read(index, "com/example/InJar"), is("jar"));
+            assertThat(index.findClass("com/example/Missing"), is(nullValue()));
+            assertThat(index.findClass("com/other/Missing"), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void the_first_class_in_classpath_order_wins() throws IOException {
+        writeClass(dir, "com/example/Foo", "dir");
+        writeJar(jar, "com/example/Foo", "jar");
+
+        try (ClasspathIndex index = new ClasspathIndex(Arrays.asList(jar, dir), null)) {
+            assertThat(read(index, "com/example/Foo"), is("jar"));
+        }
+        try (ClasspathIndex index = new ClasspathIndex(Arrays.asList(dir, jar), null)) {
+            assertThat(read(index, "com/example/Foo"), is("dir"));
+        }
+    }
+
+    @Test
+    public void finds_classes_in_the_default_package() throws IOException {
+        writeJar(jar, "Foo", "jar");
+
+        try (ClasspathIndex index = new ClasspathIndex(Collections.singletonList(jar), cacheFile)) {
+            assertThat(read(index, "Foo"), is("jar"));
+        }
+        try (ClasspathIndex index = new ClasspathIndex(Collections.singletonList(jar), cacheFile)) {
+            assertThat(read(index, "Foo"), is("jar"));
+        }
+    }
+
+    @Test
+    public void caches_the_packages_of_JAR_files() throws IOException {
+        writeJar(jar, "com/example/Foo", "jar");
+
+        try (ClasspathIndex index = new ClasspathIndex(Collections.singletonList(jar), cacheFile)) {
+            assertThat(read(index, "com/example/Foo"), is("jar"));
+        }
+
+        List<String> cache = Files.readAllLines(cacheFile, StandardCharsets.UTF_8);
+        assertThat(cache, hasItem("jar " + Files.size(jar) + " " + Files.getLastModifiedTime(jar).toMillis() + " com/example " + jar.toAbsolutePath()));
+    }
+
+    @Test
+    public void indexes_again_the_JAR_files_which_have_changed() throws IOException {
+        writeJar(jar, "com/example/Foo", "jar");
+        try (ClasspathIndex index = new ClasspathIndex(Collections.singletonList(jar), cacheFile)) {
+            assertThat(read(index, "com/example/Foo"), is("jar"));
+        }
+
+        writeJar(jar, "com/changed/Bar", "changed jar");
+        try (ClasspathIndex index = new ClasspathIndex(Collections.singletonList(jar), cacheFile)) {
+            assertThat(read(index, "com/changed/Bar"), is("changed jar"));
+            assertThat(index.findClass("com/example/Foo"), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void tells_where_the_class_was_found() throws IOException {
+        writeClass(dir, "com/example/InDirectory", "dir");
+        writeJar(jar, "com/example/InJar", "jar", "Implementation-Title: library");
+
+        try (ClasspathIndex index = new ClasspathIndex(Arrays.asList(dir, jar), null)) {
+            ClasspathIndex.FoundClass inDirectory = index.find("com/example/InDirectory");
+            assertThat(inDirectory.source, is(dir.toUri().toURL()));
+            assertThat(inDirectory.manifest, is(nullValue()));
+
+            ClasspathIndex.FoundClass inJar = index.find("com/example/InJar");
+            assertThat(inJar.source, is(jar.toUri().toURL()));
+            assertThat(inJar.manifest.getMainAttributes().getValue("Implementation-Title"), is("library"));
+        }
+    }
+
+    @Test
+    public void follows_the_Class_Path_of_JAR_files_right_after_the_JAR_file() throws IOException {
+        Path lib = tempDir.newFolder("lib").toPath();
+        Path referenced = lib.resolve("referenced.jar");
+        Path other = tempDir.getRoot().toPath().resolve("other.jar");
+        writeJar(jar, "com/example/Foo", "jar", "Class-Path: lib/referenced.jar  classes/ http://example.com/remote.jar");
+        writeJar(referenced, "com/example/Bar", "referenced");
+        writeClass(dir, "com/example/Baz", "dir");
+        writeJar(other, "com/example/Bar", "other");
+
+        for (int i = 0; i < 2; i++) { // the second time from cache
+            try (ClasspathIndex index = new ClasspathIndex(Arrays.asList(jar, other), cacheFile)) {
+                assertThat(read(index, "com/example/Foo"), is("jar"));
+                assertThat(read(index, "com/example/Bar"), is("referenced"));
+                assertThat(read(index, "com/example/Baz"), is("dir"));
+            }
+        }
+    }
+
+    @Test
+    public void finds_classes_from_many_threads_at_the_same_time() throws Exception {
+        Path jar2 = tempDir.getRoot().toPath().resolve("library2.jar");
+        writeClass(dir, "com/example/InDirectory", "dir");
+        writeJar(jar, "com/example/InJar", "jar");
+        writeJar(jar2, "com/other/InJar2", "jar2");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (ClasspathIndex index = new ClasspathIndex(Arrays.asList(dir, jar, jar2), cacheFile)) {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(() -> Arrays.asList(
+                        read(index, "com/other/InJar2"),
+                        read(index, "com/example/InJar"),
+                        read(index, "com/example/InDirectory"))));
+            }
+            for (Future<List<String>> result : results) {
+                assertThat(result.get(), contains("jar2", "jar", "dir"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    private static String read(ClasspathIndex index, String className) throws IOException {
+        byte[] bytecode = index.findClass(className);
+        assertThat("class " + className, bytecode, is(notNullValue()));
+        return new String(bytecode, StandardCharsets.UTF_8);
+    }
+
+    private static void writeClass(Path dir, String className, String content) throws IOException {
+        Path file = dir.resolve(className + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeJar(Path jar, String className, String content, String... manifest) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            if (manifest.length > 0) {
+                out.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+                out.write(("Manifest-Version: 1.0\n" + String.join("\n", manifest) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry(className + ".class"));
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+}
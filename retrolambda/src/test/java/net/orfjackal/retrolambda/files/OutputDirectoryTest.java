@@ -0,0 +1,124 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import net.orfjackal.retrolambda.util.Metrics;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class OutputDirectoryTest {
+
+    private static final FileTime OLD_TIME = FileTime.fromMillis(0);
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Path outputDir;
+    private Path outputFile;
+
+    @Before
+    public void setup() throws IOException {
+        outputDir = tempDir.newFolder("output").toPath();
+        outputFile = outputDir.resolve("subdir/file.txt");
+    }
+
+    @Test
+    public void writes_files_to_subdirectories() throws IOException {
+        OutputDirectory output = new OutputDirectory(outputDir);
+
+        output.writeFile(Paths.get("subdir/file.txt"), bytes("content"));
+        output.writeFile(Paths.get("subdir/file2.txt"), bytes("content 2"));
+
+        assertThat(read(outputFile), is("content"));
+        assertThat(read(outputDir.resolve("subdir/file2.txt")), is("content 2"));
+    }
+
+    @Test
+    public void rewrites_unchanged_files_by_default() throws IOException {
+        givenExistingOutputFile("content");
+
+        new OutputDirectory(outputDir).writeFile(Paths.get("subdir/file.txt"), bytes("content"));
+
+        assertThat(Files.getLastModifiedTime(outputFile), is(not(OLD_TIME)));
+    }
+
+    @Test
+    public void can_skip_writing_unchanged_files() throws IOException {
+        givenExistingOutputFile("content");
+
+        new OutputDirectory(outputDir, true, null).writeFile(Paths.get("subdir/file.txt"), bytes("content"));
+
+        assertThat(Files.getLastModifiedTime(outputFile), is(OLD_TIME));
+    }
+
+    @Test
+    public void writes_changed_files_even_when_skipping_unchanged_files() throws IOException {
+        givenExistingOutputFile("content");
+
+        OutputDirectory output = new OutputDirectory(outputDir, true, null);
+        output.writeFile(Paths.get("subdir/file.txt"), bytes("CONTENT"));
+
+        assertThat(read(outputFile), is("CONTENT"));
+        output.writeFile(Paths.get("subdir/file.txt"), bytes("different size"));
+
+        assertThat(read(outputFile), is("different size"));
+    }
+
+    @Test
+    public void can_skip_copying_unchanged_files() throws IOException {
+        givenExistingOutputFile("content");
+        Path sameContent = tempDir.newFile("same.txt").toPath();
+        Files.write(sameContent, bytes("content"));
+        Path changedContent = tempDir.newFile("changed.txt").toPath();
+        Files.write(changedContent, bytes("CONTENT"));
+
+        OutputDirectory output = new OutputDirectory(outputDir, true, null);
+        output.copyFile(Paths.get("subdir/file.txt"), sameContent);
+        assertThat(Files.getLastModifiedTime(outputFile), is(OLD_TIME));
+
+        output.copyFile(Paths.get("subdir/file.txt"), changedContent);
+        assertThat(read(outputFile), is("CONTENT"));
+    }
+
+    @Test
+    public void copying_a_file_onto_itself_does_nothing() throws IOException {
+        givenExistingOutputFile("content");
+
+        Metrics metrics = Metrics.begin(true);
+        try {
+            new OutputDirectory(outputDir, true, null).copyFile(Paths.get("subdir/file.txt"), outputFile);
+        } finally {
+            Metrics.begin(false);
+        }
+
+        assertThat(read(outputFile), is("content"));
+        assertThat(Files.getLastModifiedTime(outputFile), is(OLD_TIME));
+        assertThat("not compared", metrics.getCount(Metrics.UNCHANGED_FILES), is(0L));
+        assertThat("not copied", metrics.getCount(Metrics.FILES_COPIED), is(0L));
+    }
+
+
+    private void givenExistingOutputFile(String content) throws IOException {
+        Files.createDirectories(outputFile.getParent());
+        Files.write(outputFile, bytes(content));
+        Files.setLastModifiedTime(outputFile, OLD_TIME);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
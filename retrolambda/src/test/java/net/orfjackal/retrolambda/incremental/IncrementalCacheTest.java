@@ -0,0 +1,246 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.incremental;
+
+import com.google.common.io.ByteStreams;
+import net.orfjackal.retrolambda.Retrolambda;
+import net.orfjackal.retrolambda.api.RetrolambdaApi;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.objectweb.asm.Opcodes.*;
+
+public class IncrementalCacheTest {
+
+    private static final FileTime OLD_TIME = FileTime.fromMillis(0);
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Path inputDir;
+    private Path outputDir;
+    private Path cacheDir;
+
+    @Before
+    public void setup() throws IOException {
+        inputDir = tempDir.newFolder("input").toPath();
+        outputDir = tempDir.newFolder("output").toPath();
+        cacheDir = tempDir.getRoot().toPath().resolve("cache");
+        copyClass(Base.class, inputDir);
+        copyClass(Sub.class, inputDir);
+        copyClass(Referenced.class, inputDir);
+        copyClass(User.class, inputDir);
+        copyClass(Unrelated.class, inputDir);
+    }
+
+    @Test
+    public void skips_unchanged_classes_and_keeps_their_output() throws Throwable {
+        backport(inputDir, outputDir, 51);
+        byte[] output = Files.readAllBytes(classFile(outputDir, Sub.class));
+        makeOutputsOld();
+
+        backport(inputDir, outputDir, 51);
+
+        assertThat(isRewritten(Sub.class), is(false));
+        assertThat(isRewritten(lambdaClass(Sub.class)), is(false));
+        assertThat(isRewritten(Unrelated.class), is(false));
+        assertThat(Files.readAllBytes(classFile(outputDir, Sub.class)), is(output));
+    }
+
+    @Test
+    public void backports_a_class_again_when_its_supertype_changes() throws Throwable {
+        backport(inputDir, outputDir, 51);
+        makeOutputsOld();
+
+        changeClass(Base.class);
+        backport(inputDir, outputDir, 51);
+
+        assertThat(isRewritten(Base.class), is(true));
+        assertThat(isRewritten(Sub.class), is(true));
+        assertThat(isRewritten(lambdaClass(Sub.class)), is(true));
+        assertThat(isRewritten(User.class), is(false));
+        assertThat(isRewritten(Unrelated.class), is(false));
+    }
+
+    @Test
+    public void backports_a_class_again_when_a_class_it_refers_to_changes() throws Throwable {
+        backport(inputDir, outputDir, 51);
+        makeOutputsOld();
+
+        changeClass(Referenced.class);
+        backport(inputDir, outputDir, 51);
+
+        assertThat(isRewritten(Referenced.class), is(true));
+        assertThat(isRewritten(User.class), is(true));
+        assertThat(isRewritten(Sub.class), is(false));
+        assertThat(isRewritten(Unrelated.class), is(false));
+    }
+
+    @Test
+    public void removes_the_outputs_of_deleted_classes() throws Throwable {
+        backport(inputDir, outputDir, 51);
+        assertThat(Files.exists(lambdaClassFile(outputDir, Sub.class)), is(true));
+
+        Files.delete(classFile(inputDir, Sub.class));
+        backport(inputDir, outputDir, 51);
+
+        assertThat(Files.exists(classFile(outputDir, Sub.class)), is(false));
+        assertThat(Files.exists(lambdaClassFile(outputDir, Sub.class)), is(false));
+        assertThat(Files.exists(lambdaClassFile(outputDir, Unrelated.class)), is(true));
+    }
+
+    @Test
+    public void removes_the_outputs_of_deleted_classes_when_backporting_in_place() throws Throwable {
+        backport(inputDir, inputDir, 51);
+        assertThat(Files.exists(lambdaClassFile(inputDir, Sub.class)), is(true));
+
+        Files.delete(classFile(inputDir, Sub.class));
+        backport(inputDir, inputDir, 51);
+
+        assertThat(Files.exists(lambdaClassFile(inputDir, Sub.class)), is(false));
+        assertThat(Files.exists(lambdaClassFile(inputDir, Unrelated.class)), is(true));
+    }
+
+    @Test
+    public void backports_the_original_classes_again_when_backporting_in_place() throws Throwable {
+        Path expectedInput = tempDir.newFolder("expectedInput").toPath();
+        Path expectedOutput = tempDir.newFolder("expectedOutput").toPath();
+        copyClass(Base.class, expectedInput);
+        copyClass(Sub.class, expectedInput);
+        changeClass(expectedInput, Base.class);
+        backport(inputDir, inputDir, 51);
+        Files.setLastModifiedTime(lambdaClassFile(inputDir, Sub.class), OLD_TIME);
+
+        changeClass(Base.class);
+        backport(inputDir, inputDir, 51);
+
+        Retrolambda.run(config(expectedInput, expectedOutput, 51));
+        assertThat("lambda class was generated again", isRewritten(lambdaClassFile(inputDir, Sub.class)), is(true));
+        assertThat(readVersion(classFile(inputDir, Sub.class)), is(V1_7));
+        assertThat(Files.readAllBytes(classFile(inputDir, Sub.class)),
+                is(Files.readAllBytes(classFile(expectedOutput, Sub.class))));
+        assertThat(Files.readAllBytes(lambdaClassFile(inputDir, Sub.class)),
+                is(Files.readAllBytes(lambdaClassFile(expectedOutput, Sub.class))));
+    }
+
+    @Test
+    public void discards_the_cache_when_the_configuration_changes() throws Throwable {
+        backport(inputDir, outputDir, 51);
+        makeOutputsOld();
+
+        backport(inputDir, outputDir, 50);
+
+        assertThat(isRewritten(Sub.class), is(true));
+        assertThat(isRewritten(Unrelated.class), is(true));
+        assertThat(readVersion(classFile(outputDir, Unrelated.class)), is(V1_6));
+    }
+
+
+    private void backport(Path input, Path output, int bytecodeVersion) throws Throwable {
+        Properties p = config(input, output, bytecodeVersion);
+        p.setProperty(RetrolambdaApi.INCREMENTAL_CACHE_DIR, cacheDir.toString());
+        Retrolambda.run(p);
+    }
+
+    private static Properties config(Path input, Path output, int bytecodeVersion) {
+        Properties p = new Properties();
+        p.setProperty(RetrolambdaApi.INPUT_DIR, input.toString());
+        p.setProperty(RetrolambdaApi.OUTPUT_DIR, output.toString());
+        p.setProperty(RetrolambdaApi.CLASSPATH, input.toString());
+        p.setProperty(RetrolambdaApi.BYTECODE_VERSION, "" + bytecodeVersion);
+        return p;
+    }
+
+    private void makeOutputsOld() throws IOException {
+        for (Class<?> clazz : new Class<?>[]{Base.class, Sub.class, Referenced.class, User.class, Unrelated.class}) {
+            Files.setLastModifiedTime(classFile(outputDir, clazz), OLD_TIME);
+        }
+        Files.setLastModifiedTime(lambdaClassFile(outputDir, Sub.class), OLD_TIME);
+        Files.setLastModifiedTime(lambdaClassFile(outputDir, Unrelated.class), OLD_TIME);
+    }
+
+    private boolean isRewritten(Class<?> clazz) throws IOException {
+        return isRewritten(classFile(outputDir, clazz));
+    }
+
+    private static boolean isRewritten(Path file) throws IOException {
+        return !Files.getLastModifiedTime(file).equals(OLD_TIME);
+    }
+
+    private Path lambdaClass(Class<?> clazz) {
+        return lambdaClassFile(outputDir, clazz);
+    }
+
+    private void changeClass(Class<?> clazz) throws IOException {
+        changeClass(inputDir, clazz);
+    }
+
+    private static void changeClass(Path dir, Class<?> clazz) throws IOException {
+        Path file = classFile(dir, clazz);
+        ClassWriter cw = new ClassWriter(0);
+        new ClassReader(Files.readAllBytes(file)).accept(new ClassVisitor(ASM5, cw) {
+            @Override
+            public void visitEnd() {
+                super.visitField(ACC_PUBLIC, "changed", "I", null, null).visitEnd();
+                super.visitEnd();
+            }
+        }, 0);
+        Files.write(file, cw.toByteArray());
+    }
+
+    private static Path classFile(Path dir, Class<?> clazz) {
+        return dir.resolve(Type.getInternalName(clazz) + ".class");
+    }
+
+    private static Path lambdaClassFile(Path dir, Class<?> clazz) {
+        return dir.resolve(Type.getInternalName(clazz) + "$$Lambda$1.class");
+    }
+
+    private static void copyClass(Class<?> clazz, Path dir) throws IOException {
+        Path file = classFile(dir, clazz);
+        Files.createDirectories(file.getParent());
+        try (InputStream in = clazz.getResourceAsStream("/" + Type.getInternalName(clazz) + ".class")) {
+            Files.write(file, ByteStreams.toByteArray(in));
+        }
+    }
+
+    private static int readVersion(Path classFile) throws IOException {
+        return new ClassReader(Files.readAllBytes(classFile)).readUnsignedShort(6);
+    }
+
+    public static class Base {
+    }
+
+    public static class Sub extends Base {
+        public Runnable lambda() {
+            return () -> {
+            };
+        }
+    }
+
+    public static class Referenced {
+    }
+
+    public static class User {
+        public Object use() {
+            return new Referenced();
+        }
+    }
+
+    public static class Unrelated {
+        public Runnable lambda() {
+            return () -> {
+            };
+        }
+    }
+}
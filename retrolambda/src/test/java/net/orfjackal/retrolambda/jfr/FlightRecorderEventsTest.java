@@ -0,0 +1,91 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.jfr;
+
+import com.google.common.io.ByteStreams;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FlightRecorderEventsTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void records_events_while_a_recording_is_active() throws Exception {
+        byte[] bytecode = readBytecode(FlightRecorderEventsTest.class);
+        Path outputFile = tempDir.newFile("output.class").toPath();
+
+        List<RecordedEvent> events = record(() -> {
+            try (FlightRecorderEvents.Span span = FlightRecorderEvents.analyzeClass(bytecode)) {
+            }
+            ClassVisitor chain = new ExampleVisitor(new ClassWriter(0));
+            try (FlightRecorderEvents.Span span = FlightRecorderEvents.transformClass("Foo", chain)) {
+            }
+            try (FlightRecorderEvents.Span span = FlightRecorderEvents.reifyLambda(
+                    new Handle(Opcodes.H_INVOKESTATIC, "Foo", "lambda$bar$0", "()V", false), "Foo$$Lambda$1")) {
+            }
+            try (FlightRecorderEvents.Span span = FlightRecorderEvents.writeFile(outputFile)) {
+                Files.write(outputFile, new byte[]{1, 2, 3});
+            }
+            return null;
+        });
+
+        assertThat(field(events, "AnalyzeClass", "className"), is(Type.getInternalName(FlightRecorderEventsTest.class)));
+        assertThat(field(events, "TransformClass", "className"), is("Foo"));
+        assertThat(field(events, "TransformClass", "visitors"), is("FlightRecorderEventsTest$ExampleVisitor > ClassWriter"));
+        assertThat(field(events, "ReifyLambda", "implMethod"), is("Foo.lambda$bar$0()V"));
+        assertThat(field(events, "ReifyLambda", "lambdaClass"), is("Foo$$Lambda$1"));
+        assertThat(field(events, "WriteFile", "file"), is(outputFile.toUri().toString()));
+        assertThat(field(events, "WriteFile", "bytes"), is(3L));
+    }
+
+
+    private static class ExampleVisitor extends ClassVisitor {
+        ExampleVisitor(ClassVisitor next) {
+            super(Opcodes.ASM5, next);
+        }
+    }
+
+    private List<RecordedEvent> record(Callable<?> action) throws Exception {
+        Path file = tempDir.newFile("recording.jfr").toPath();
+        try (Recording recording = new Recording()) {
+            for (String event : Arrays.asList("AnalyzeClass", "TransformClass", "ReifyLambda", "WriteFile")) {
+                recording.enable("net.orfjackal.retrolambda." + event).withoutThreshold();
+            }
+            recording.start();
+            action.call();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+
+    private static Object field(List<RecordedEvent> events, String eventName, String field) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("net.orfjackal.retrolambda." + eventName)) {
+                return event.getValue(field);
+            }
+        }
+        throw new AssertionError("event not found: " + eventName);
+    }
+
+    private static byte[] readBytecode(Class<?> clazz) throws IOException {
+        try (InputStream in = clazz.getResourceAsStream("/" + Type.getInternalName(clazz) + ".class")) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import com.google.common.io.ByteStreams;
+import net.orfjackal.retrolambda.*;
+import net.orfjackal.retrolambda.files.OutputDirectory;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.*;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@SuppressWarnings("UnusedDeclaration")
+public class BackportLambdaInvocationsTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private static final String INVOKER = Type.getInternalName(MethodReferences.class);
+    private static final String GROUPED = Type.getInternalName(GroupedLambdas.class);
+    private static final String INLINED = Type.getInternalName(InlinedLambdas.class);
+
+    private LambdaOptions options = LambdaOptions.DEFAULTS;
+    private byte[] backported;
+
+    @Test
+    public void each_lambda_gets_its_own_lambda_class_by_default() throws IOException {
+        ClassNode backported = backport(MethodReferences.class);
+
+        assertThat(lambdaClasses(), contains(INVOKER + "$$Lambda$1", INVOKER + "$$Lambda$2", INVOKER + "$$Lambda$3"));
+        assertThat(factoryCalls(backported), contains(
+                INVOKER + "$$Lambda$1.lambdaFactory$",
+                INVOKER + "$$Lambda$2.lambdaFactory$",
+                INVOKER + "$$Lambda$3.lambdaFactory$"));
+    }
+
+    @Test
+    public void lambda_class_names_can_include_a_hash_of_the_lambda() throws IOException {
+        options = options.withHashLambdaNames(true);
+        ClassNode backported = backport(MethodReferences.class);
+
+        List<String> lambdaClasses = lambdaClasses();
+        assertThat(lambdaClasses, contains(
+                startsWith(INVOKER + "$$Lambda$1$"),
+                startsWith(INVOKER + "$$Lambda$2$"),
+                startsWith(INVOKER + "$$Lambda$3$")));
+        for (String lambdaClass : lambdaClasses) {
+            assertThat(lambdaClass, LambdaNaming.LAMBDA_CLASS.matcher(lambdaClass).matches(), is(true));
+        }
+        assertThat("identical lambdas have the same hash",
+                lambdaClasses.get(0).replace("$$Lambda$1$", ""), is(lambdaClasses.get(1).replace("$$Lambda$2$", "")));
+        assertThat("different lambdas have a different hash",
+                lambdaClasses.get(0).replace("$$Lambda$1$", ""), is(not(lambdaClasses.get(2).replace("$$Lambda$3$", ""))));
+        assertThat(factoryCalls(backported), contains(
+                lambdaClasses.get(0) + ".lambdaFactory$",
+                lambdaClasses.get(1) + ".lambdaFactory$",
+                lambdaClasses.get(2) + ".lambdaFactory$"));
+    }
+
+    @Test
+    public void identical_lambdas_share_the_same_lambda_class_when_deduplicated() throws IOException {
+        options = options.withDeduplicateLambdas(true);
+        ClassNode backported = backport(MethodReferences.class);
+
+        assertThat(lambdaClasses(), contains(INVOKER + "$$Lambda$1", INVOKER + "$$Lambda$2"));
+        assertThat(factoryCalls(backported), contains(
+                INVOKER + "$$Lambda$1.lambdaFactory$",
+                INVOKER + "$$Lambda$1.lambdaFactory$",
+                INVOKER + "$$Lambda$2.lambdaFactory$"));
+    }
+
+    @Test
+    public void lambdas_of_the_same_functional_interface_share_one_lambda_class_when_grouped() throws Exception {
+        options = options.withGroupLambdas(true);
+        ClassNode backported = backport(GroupedLambdas.class);
+
+        assertThat(lambdaClasses(), contains(GROUPED + "$$Lambda$1", GROUPED + "$$Lambda$2"));
+        assertThat(factoryCalls(backported), contains(
+                GROUPED + "$$Lambda$1.lambdaFactory$",
+                GROUPED + "$$Lambda$1.lambdaFactory$1",
+                GROUPED + "$$Lambda$1.lambdaFactory$2",
+                GROUPED + "$$Lambda$1.lambdaFactory$3",
+                GROUPED + "$$Lambda$2.lambdaFactory$"));
+    }
+
+    @Test
+    public void grouped_lambdas_call_their_own_implementation_methods() throws Exception {
+        options = options.withGroupLambdas(true);
+        backport(GroupedLambdas.class);
+
+        assertThat(callBackported(GroupedLambdas.class, "!"), contains("FOO", "foo!", "foo?", 3, "!"));
+    }
+
+    @Test
+    public void lambdas_are_instantiated_at_the_call_site_when_factories_are_inlined() throws Exception {
+        options = options.withInlineLambdaFactories(true);
+        ClassNode backported = backport(InlinedLambdas.class);
+
+        assertThat("only the lambda with too many captured arguments", factoryCalls(backported), contains(
+                INLINED + "$$Lambda$5.lambdaFactory$"));
+        for (int i = 1; i <= 4; i++) {
+            assertThat(factoryMethods(INLINED + "$$Lambda$" + i), is(empty()));
+        }
+        assertThat(factoryMethods(INLINED + "$$Lambda$5"), contains("lambdaFactory$"));
+    }
+
+    @Test
+    public void inlined_lambdas_capture_their_arguments() throws Exception {
+        options = options.withInlineLambdaFactories(true);
+        backport(InlinedLambdas.class);
+
+        assertThat(callBackported(InlinedLambdas.class, "a", 1, 2L), contains("x", "a", "a1", "2", "a12"));
+    }
+
+
+    private static class GroupedLambdas {
+        private final String suffix = "?";
+
+        List<Object> lambdas(String captured) {
+            Function<String, String> stateless = s -> s.toUpperCase();
+            Function<String, String> capturing = s -> s + captured;
+            Function<String, String> capturingThis = s -> s + suffix;
+            Function<String, Integer> methodReference = String::length;
+            Supplier<String> otherInterface = () -> captured;
+            return Arrays.asList(stateless.apply("foo"), capturing.apply("foo"), capturingThis.apply("foo"),
+                    methodReference.apply("foo"), otherInterface.get());
+        }
+    }
+
+    private static class InlinedLambdas {
+        List<Object> lambdas(String a, int b, long c) {
+            Supplier<String> stateless = () -> "x";
+            Supplier<String> oneArgument = () -> a;
+            Supplier<String> twoArguments = () -> a + b;
+            Supplier<String> wideArgument = () -> "" + c;
+            Supplier<String> tooManyArguments = () -> a + b + c;
+            return Arrays.asList(stateless.get(), oneArgument.get(), twoArguments.get(),
+                    wideArgument.get(), tooManyArguments.get());
+        }
+    }
+
+    private static class MethodReferences {
+        Function<String, Integer> first() {
+            return String::length;
+        }
+
+        Function<String, Integer> second() {
+            return String::length;
+        }
+
+        Function<String, String> different() {
+            return String::trim;
+        }
+    }
+
+
+    private ClassNode backport(Class<?> clazz) throws IOException {
+        ClassReader reader = new ClassReader(readBytecode(clazz));
+        ClassAnalyzer analyzer = new ClassAnalyzer();
+        analyzer.analyze(reader);
+        Transformers transformers = new Transformers(Opcodes.V1_7, false, options, analyzer);
+        OutputDirectory outputDir = new OutputDirectory(tempDir.getRoot().toPath());
+        LambdaClassSaver saver = new LambdaClassSaver(outputDir, transformers, false);
+
+        transformers.setLambdaClassGenerator(new LambdaClassGenerator(saver));
+        List<byte[]> results = transformers.backportClass(reader);
+        for (byte[] bytecode : results.subList(1, results.size())) {
+            outputDir.writeClass(bytecode, false);
+        }
+        backported = results.get(0);
+        ClassNode node = new ClassNode();
+        new ClassReader(backported).accept(node, 0);
+        return node;
+    }
+
+    /**
+     * Calls the "lambdas" method of the backported class, which returns what its lambdas return.
+     */
+    private List<?> callBackported(Class<?> clazz, Object... args) throws Exception {
+        ClassLoader loader = new NonDelegatingClassLoader(new URL[0], this::readOutput);
+        Class<?> backportedClass = loader.loadClass(clazz.getName());
+        Constructor<?> constructor = backportedClass.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Method lambdas = null;
+        for (Method method : backportedClass.getDeclaredMethods()) {
+            if (method.getName().equals("lambdas")) {
+                lambdas = method;
+            }
+        }
+        assertThat("lambdas method", lambdas, is(notNullValue()));
+        lambdas.setAccessible(true);
+        return (List<?>) lambdas.invoke(constructor.newInstance(), args);
+    }
+
+    private List<String> factoryMethods(String lambdaClass) {
+        ClassNode node = new ClassNode();
+        new ClassReader(readOutput(lambdaClass)).accept(node, 0);
+        List<String> names = new ArrayList<>();
+        for (MethodNode method : node.methods) {
+            if (method.name.startsWith("lambdaFactory$")) {
+                names.add(method.name);
+            }
+        }
+        return names;
+    }
+
+    private byte[] readOutput(String className) {
+        if (className.equals(new ClassReader(backported).getClassName())) {
+            return backported;
+        }
+        try {
+            Path file = tempDir.getRoot().toPath().resolve(className + ".class");
+            return Files.exists(file) ? Files.readAllBytes(file) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<String> lambdaClasses() throws IOException {
+        Path root = tempDir.getRoot().toPath();
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> root.relativize(file).toString().replace(File.separatorChar, '/').replaceAll("\\.class$", ""))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> factoryCalls(ClassNode node) {
+        List<String> calls = new ArrayList<>();
+        for (MethodNode method : node.methods) {
+            for (AbstractInsnNode insn : method.instructions.toArray()) {
+                if (insn instanceof MethodInsnNode && ((MethodInsnNode) insn).name.startsWith("lambdaFactory$")) {
+                    MethodInsnNode call = (MethodInsnNode) insn;
+                    calls.add(call.owner + "." + call.name);
+                }
+            }
+        }
+        return calls;
+    }
+
+    private static byte[] readBytecode(Class<?> clazz) throws IOException {
+        try (InputStream in = clazz.getResourceAsStream("/" + Type.getInternalName(clazz) + ".class")) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
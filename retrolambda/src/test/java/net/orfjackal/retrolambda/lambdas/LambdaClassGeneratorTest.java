@@ -0,0 +1,202 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.junit.Test;
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.function.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+import static org.objectweb.asm.Opcodes.*;
+
+public class LambdaClassGeneratorTest {
+
+    private static final Handle METAFACTORY = new Handle(H_INVOKESTATIC, LambdaNaming.LAMBDA_METAFACTORY, "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+    private static final Handle ALT_METAFACTORY = new Handle(H_INVOKESTATIC, LambdaNaming.LAMBDA_METAFACTORY, "altMetafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;", false);
+    private static final String THIS_CLASS = Type.getInternalName(LambdaClassGeneratorTest.class);
+
+    private final LambdaClassGenerator generator = new LambdaClassGenerator();
+    private int lambdaCount = 0;
+
+    @Test
+    public void calls_the_implementation_method_with_captured_arguments() throws Exception {
+        @SuppressWarnings("unchecked")
+        Supplier<String> lambda = (Supplier<String>) newLambda("get", "(Ljava/lang/String;I)Ljava/util/function/Supplier;", METAFACTORY,
+                "()Ljava/lang/Object;", staticMethod("concat", "(Ljava/lang/String;I)Ljava/lang/String;"), "()Ljava/lang/String;",
+                "foo", 42);
+
+        assertThat(lambda.get(), is("foo42"));
+    }
+
+    @Test
+    public void boxes_and_unboxes_the_arguments_and_return_values() throws Exception {
+        @SuppressWarnings("unchecked")
+        Function<Integer, Long> lambda = (Function<Integer, Long>) newLambda("apply", "()Ljava/util/function/Function;", METAFACTORY,
+                "(Ljava/lang/Object;)Ljava/lang/Object;", staticMethod("twice", "(J)J"), "(Ljava/lang/Integer;)Ljava/lang/Long;");
+
+        assertThat(lambda.apply(21), is(42L));
+    }
+
+    @Test
+    public void unboxes_via_Number_when_the_wrapper_type_is_not_known() throws Exception {
+        @SuppressWarnings("unchecked")
+        ToLongFunction<Object> lambda = (ToLongFunction<Object>) newLambda("applyAsLong", "()Ljava/util/function/ToLongFunction;", METAFACTORY,
+                "(Ljava/lang/Object;)J", staticMethod("twice", "(J)J"), "(Ljava/lang/Object;)J");
+
+        assertThat(lambda.applyAsLong(21), is(42L));
+        assertThat(lambda.applyAsLong(21L), is(42L));
+    }
+
+    @Test
+    public void receiver_may_be_the_first_parameter() throws Exception {
+        @SuppressWarnings("unchecked")
+        ToIntFunction<String> lambda = (ToIntFunction<String>) newLambda("applyAsInt", "()Ljava/util/function/ToIntFunction;", METAFACTORY,
+                "(Ljava/lang/Object;)I", new Handle(H_INVOKEVIRTUAL, "java/lang/String", "length", "()I", false), "(Ljava/lang/String;)I");
+
+        assertThat(lambda.applyAsInt("foo"), is(3));
+    }
+
+    @Test
+    public void receiver_may_be_captured() throws Exception {
+        @SuppressWarnings("unchecked")
+        Supplier<Integer> lambda = (Supplier<Integer>) newLambda("get", "(Ljava/lang/String;)Ljava/util/function/Supplier;", METAFACTORY,
+                "()Ljava/lang/Object;", new Handle(H_INVOKEVIRTUAL, "java/lang/String", "length", "()I", false), "()Ljava/lang/Integer;",
+                "foo");
+
+        assertThat(lambda.get(), is(3));
+    }
+
+    @Test
+    public void instantiates_objects_for_constructor_references() throws Exception {
+        @SuppressWarnings("unchecked")
+        Function<String, Object> lambda = (Function<String, Object>) newLambda("apply", "()Ljava/util/function/Function;", METAFACTORY,
+                "(Ljava/lang/Object;)Ljava/lang/Object;", new Handle(H_NEWINVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(Ljava/lang/String;)V", false),
+                "(Ljava/lang/String;)Ljava/lang/StringBuilder;");
+
+        Object result = lambda.apply("foo");
+        assertThat(result, is(instanceOf(StringBuilder.class)));
+        assertThat(result.toString(), is("foo"));
+    }
+
+    @Test
+    public void implements_the_marker_interfaces_and_bridge_methods() throws Exception {
+        Class<?> lambdaClass = generate("apply", "()L" + THIS_CLASS + "$StringFunction;", ALT_METAFACTORY,
+                "(Ljava/lang/String;)Ljava/lang/String;", staticMethod("upperCase", "(Ljava/lang/String;)Ljava/lang/String;"),
+                "(Ljava/lang/String;)Ljava/lang/String;",
+                FLAG_MARKERS | FLAG_BRIDGES, 1, Type.getType(Cloneable.class), 1, Type.getMethodType("(Ljava/lang/Object;)Ljava/lang/Object;"));
+        Object lambda = instantiate(lambdaClass);
+
+        assertThat(lambda, is(instanceOf(StringFunction.class)));
+        assertThat(lambda, is(instanceOf(Cloneable.class)));
+        Method bridge = lambdaClass.getMethod("apply", Object.class);
+        assertThat("bridge", bridge.isBridge(), is(true));
+        @SuppressWarnings("unchecked")
+        Function<Object, Object> erased = (Function<Object, Object>) lambda;
+        assertThat("call via bridge", erased.apply("foo"), is("FOO"));
+        assertThat(((StringFunction) lambda).apply("bar"), is("BAR"));
+    }
+
+    @Test
+    public void adds_the_Serializable_interface_to_serializable_lambdas() throws Exception {
+        Class<?> lambdaClass = generate("get", "()Ljava/util/function/Supplier;", ALT_METAFACTORY,
+                "()Ljava/lang/Object;", staticMethod("hello", "()Ljava/lang/String;"), "()Ljava/lang/String;",
+                FLAG_SERIALIZABLE);
+        Object lambda = instantiate(lambdaClass);
+
+        assertThat(lambda, is(instanceOf(Serializable.class)));
+        assertThat(((Supplier<?>) lambda).get(), is("hello"));
+    }
+
+    @Test
+    public void prevents_serializing_accidentally_serializable_lambdas() throws Exception {
+        Object lambda = instantiate(generate("run", "()L" + THIS_CLASS + "$SerializableRunnable;", METAFACTORY,
+                "()V", staticMethod("doNothing", "()V"), "()V"));
+
+        try {
+            new ObjectOutputStream(new ByteArrayOutputStream()).writeObject(lambda);
+            fail("should have thrown an exception");
+        } catch (NotSerializableException e) {
+            assertThat(e.getMessage(), is("Non-serializable lambda"));
+        }
+    }
+
+
+    // implementation methods
+
+    public static String concat(String s, int i) {
+        return s + i;
+    }
+
+    public static String hello() {
+        return "hello";
+    }
+
+    public static long twice(long x) {
+        return x * 2;
+    }
+
+    public static String upperCase(String s) {
+        return s.toUpperCase();
+    }
+
+    public static void doNothing() {
+    }
+
+    public interface StringFunction extends Function<String, String> {
+        @Override
+        String apply(String s);
+    }
+
+    public interface SerializableRunnable extends Runnable, Serializable {
+    }
+
+
+    // helpers
+
+    private static final int FLAG_SERIALIZABLE = 1;
+    private static final int FLAG_MARKERS = 2;
+    private static final int FLAG_BRIDGES = 4;
+
+    private static Handle staticMethod(String name, String desc) {
+        return new Handle(H_INVOKESTATIC, THIS_CLASS, name, desc, false);
+    }
+
+    private Object newLambda(String invokedName, String invokedType, Handle bsm, String samMethodType, Handle implMethod, String instantiatedMethodType,
+                             Object... capturedArgs) throws Exception {
+        return instantiate(generate(invokedName, invokedType, bsm, samMethodType, implMethod, instantiatedMethodType), capturedArgs);
+    }
+
+    private Class<?> generate(String invokedName, String invokedType, Handle bsm,
+                              String samMethodType, Handle implMethod, String instantiatedMethodType,
+                              Object... extraBsmArgs) {
+        Object[] bsmArgs = new Object[3 + extraBsmArgs.length];
+        bsmArgs[0] = Type.getMethodType(samMethodType);
+        bsmArgs[1] = implMethod;
+        bsmArgs[2] = Type.getMethodType(instantiatedMethodType);
+        System.arraycopy(extraBsmArgs, 0, bsmArgs, 3, extraBsmArgs.length);
+
+        String lambdaClass = THIS_CLASS + "$$Lambda$" + (++lambdaCount);
+        byte[] bytecode = generator.generateLambdaClass(lambdaClass, invokedName, Type.getMethodType(invokedType), bsm, bsmArgs);
+        return new ClassLoader(getClass().getClassLoader()) {
+            Class<?> define() {
+                return defineClass(null, bytecode, 0, bytecode.length);
+            }
+        }.define();
+    }
+
+    private static Object instantiate(Class<?> lambdaClass, Object... capturedArgs) throws Exception {
+        Constructor<?> constructor = lambdaClass.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        return constructor.newInstance(capturedArgs);
+    }
+}
@@ -0,0 +1,140 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@SuppressWarnings("UnusedDeclaration")
+public class ClassFileTest {
+
+    @Test
+    public void virtual_interface_method_calls_are_not_reported() {
+        assertThat(ClassFile.hasNonVirtualInterfaceMethodCalls(reader(VirtualCalls.class)), is(false));
+    }
+
+    @Test
+    public void static_interface_method_calls_are_reported() {
+        assertThat(ClassFile.hasNonVirtualInterfaceMethodCalls(reader(StaticInterfaceMethodCall.class)), is(true));
+    }
+
+    @Test
+    public void default_method_super_calls_are_reported() {
+        assertThat(ClassFile.hasNonVirtualInterfaceMethodCalls(reader(DefaultMethodSuperCall.class)), is(true));
+    }
+
+    @Test
+    public void skips_over_variable_length_instructions() {
+        assertThat(ClassFile.hasNonVirtualInterfaceMethodCalls(reader(Switches.class)), is(true));
+    }
+
+    @Test
+    public void super_method_calls_are_reported() {
+        assertThat(ClassFile.hasSuperMethodCalls(reader(SuperMethodCall.class)), is(true));
+    }
+
+    @Test
+    public void constructor_and_private_method_calls_are_not_reported_as_super_method_calls() {
+        assertThat(ClassFile.hasSuperMethodCalls(reader(PrivateMethodCall.class)), is(false));
+    }
+
+    @Test
+    public void changes_only_the_version_of_the_class_file() {
+        byte[] original = readBytecode(Switches.class);
+
+        byte[] changed = ClassFile.withVersion(new ClassReader(original), Opcodes.V1_6);
+
+        assertThat("version", ClassFile.getVersion(new ClassReader(changed)), is(Opcodes.V1_6));
+        assertThat("length", changed.length, is(original.length));
+        assertThat("rest of the class", Arrays.copyOfRange(changed, 8, changed.length), is(Arrays.copyOfRange(original, 8, original.length)));
+    }
+
+
+    private static class VirtualCalls {
+        int calls(List<String> list, Object obj) {
+            return list.size() + obj.hashCode();
+        }
+    }
+
+    private static class StaticInterfaceMethodCall {
+        Comparator<String> call() {
+            return Comparator.naturalOrder();
+        }
+    }
+
+    private interface HasDefaultMethod {
+        default void foo() {
+        }
+    }
+
+    private static class DefaultMethodSuperCall implements HasDefaultMethod {
+        @Override
+        public void foo() {
+            HasDefaultMethod.super.foo();
+        }
+    }
+
+    private static class SuperMethodCall {
+        @Override
+        public String toString() {
+            return super.toString();
+        }
+    }
+
+    private static class PrivateMethodCall {
+        PrivateMethodCall() {
+            foo();
+        }
+
+        private void foo() {
+        }
+    }
+
+    private static class Switches {
+        int call(int x, List<String> list) {
+            switch (x) {
+                case 1:
+                    x = 10;
+                    break;
+                case 2:
+                    x = 20;
+                    break;
+                case 3:
+                    x = 30;
+                    break;
+            }
+            switch (x) {
+                case 100:
+                    x = 1;
+                    break;
+                case 20000:
+                    x = 2;
+                    break;
+            }
+            x += list.size();
+            Comparator.naturalOrder(); // after the switches
+            return x;
+        }
+    }
+
+    private static ClassReader reader(Class<?> clazz) {
+        return new ClassReader(readBytecode(clazz));
+    }
+
+    private static byte[] readBytecode(Class<?> clazz) {
+        try (InputStream in = clazz.getResourceAsStream("/" + Type.getType(clazz).getInternalName() + ".class")) {
+            return ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
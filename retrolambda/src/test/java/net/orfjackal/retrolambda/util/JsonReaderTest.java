@@ -0,0 +1,93 @@
+// Copyright © 2013-2020 Esko Luontola and other Retrolambda contributors
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import org.junit.*;
+import org.junit.rules.ExpectedException;
+
+import java.io.*;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class JsonReaderTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void reads_objects_arrays_and_literals() throws IOException {
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("a", Arrays.asList(1L, -2.5, true, false, null));
+        expected.put("b", new LinkedHashMap<>());
+        expected.put("c", new ArrayList<>());
+
+        assertThat(read(" { \"a\" : [1, -2.5, true, false, null], \"b\": {}, \"c\": [] } "), is((Object) expected));
+    }
+
+    @Test
+    public void reads_many_values_one_after_another() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("{\"id\": 1}\n{\"id\": 2}\n"));
+
+        List<Object> values = new ArrayList<>();
+        while (reader.hasNext()) {
+            values.add(reader.next());
+        }
+
+        assertThat(values, contains(
+                (Object) Collections.singletonMap("id", 1L),
+                Collections.singletonMap("id", 2L)));
+    }
+
+    @Test
+    public void reads_escape_sequences_in_strings() throws IOException {
+        assertThat(read("\"\\\"\\\\\\/\\b\\f\\n\\r\\t\\u00e4\\u20AC\""), is((Object) "\"\\/\b\f\n\r\t\u00e4\u20ac"));
+    }
+
+    @Test
+    public void quoted_strings_are_read_back_as_is() throws IOException {
+        String s = "quote \" backslash \\ newline \n tab \t control \u0001 unicode \u00e4";
+
+        assertThat(read(JsonReader.quote(s)), is((Object) s));
+    }
+
+    @Test
+    public void unterminated_string() throws IOException {
+        thrown.expect(EOFException.class);
+        read("\"abc");
+    }
+
+    @Test
+    public void unicode_escape_at_the_end_of_input() throws IOException {
+        thrown.expect(EOFException.class);
+        read("\"\\u00");
+    }
+
+    @Test
+    public void invalid_unicode_escape() throws IOException {
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Unexpected character in JSON: x");
+        read("\"\\u00x0\"");
+    }
+
+    @Test
+    public void invalid_number() throws IOException {
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Invalid JSON number: 1-2");
+        read("1-2");
+    }
+
+    @Test
+    public void unexpected_character() throws IOException {
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Unexpected character in JSON: ]");
+        read("{\"a\": ]}");
+    }
+
+    private static Object read(String json) throws IOException {
+        return new JsonReader(new StringReader(json)).next();
+    }
+}
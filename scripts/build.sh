@@ -60,6 +60,30 @@ mvn clean verify \
     -P fork \
     | tee build.log && check_build_log
 
+# Test generating the lambda classes without the JDK's lambda metafactory
+
+mvn clean verify \
+    --errors \
+    -P generateLambdaClasses \
+    | tee build.log && check_build_log
+
+# Test the optional lambda optimizations
+
+mvn clean verify \
+    --errors \
+    -P deduplicateLambdas \
+    | tee build.log && check_build_log
+
+mvn clean verify \
+    --errors \
+    -P groupLambdas \
+    | tee build.log && check_build_log
+
+mvn clean verify \
+    --errors \
+    -P inlineLambdaFactories \
+    | tee build.log && check_build_log
+
 # The Maven plugin's minimum requirement is Java 6,
 # but then the plugin must force forking the process
 